@@ -1,203 +1,474 @@
-/* MicroJava Code Generator  (HM 23-03-08)
-   ========================
-This class holds the code buffer with its access primitives get* and put*.
-It also holds methods to load operands and to generate complex instructions
-such as assignments and jumps.
-*/
-package MJ.CodeGen;
-
-import java.io.*;
-import MJ.*;
-import MJ.SymTab.*;
-
-public class Code {
-	public static final int  // instruction codes
-		load        =  1,
-		load0       =  2,
-		load1       =  3,
-		load2       =  4,
-		load3       =  5,
-		store       =  6,
-		store0      =  7,
-		store1      =  8,
-		store2      =  9,
-		store3      = 10,
-		getstatic   = 11,
-		putstatic   = 12,
-		getfield    = 13,
-		putfield    = 14,
-		const0      = 15,
-		const1      = 16,
-		const2      = 17,
-		const3      = 18,
-		const4      = 19,
-		const5      = 20,
-		const_m1    = 21,
-		const_      = 22,
-		add         = 23,
-		sub         = 24,
-		mul         = 25,
-		div         = 26,
-		rem         = 27,
-		neg         = 28,
-		shl         = 29,
-		shr         = 30,
-		new_        = 31,
-		newarray    = 32,
-		aload       = 33,
-		astore      = 34,
-		baload      = 35,
-		bastore     = 36,
-		arraylength = 37,
-		pop         = 38,
-		jmp         = 39,
-		jeq         = 40,
-		jne         = 41,
-		jlt         = 42,
-		jle         = 43,
-		jgt         = 44,
-		jge         = 45,
-		call        = 46,
-		return_     = 47,
-		enter       = 48,
-		exit        = 49,
-		read        = 50,
-		print       = 51,
-		bread       = 52,
-		bprint      = 53,
-		trap		    = 54;
-	public static final int  // compare operators
-		eq = 0,
-		ne = 1,
-		lt = 2,
-		le = 3,
-		gt = 4,
-		ge = 5;
-	private static int[] inverse = {ne, eq, ge, gt, le, lt};
-	private static final int bufSize = 8192;
-
-	private static byte[] buf;	// code buffer
-	public static int pc;				// next free byte in code buffer
-	public static int mainPc;		// pc of main function (set by parser)
-	public static int dataSize;	// length of static data in words (set by parser)
-
-	//--------------- code buffer access ----------------------
-
-	public static void put(int x) {
-		if (pc >= bufSize) {
-			if (pc == bufSize) Parser.error("program too large");
-			pc++;
-		} else
-			buf[pc++] = (byte)x;
-	}
-
-	public static void put2(int x) {
-		put(x>>8); put(x);
-	}
-
-	public static void put2(int pos, int x) {
-		int oldpc = pc; pc = pos; put2(x); pc = oldpc;
-	}
-
-	public static void put4(int x) {
-		put2(x>>16); put2(x);
-	}
-
-	public static int get(int pos) {
-		return buf[pos];
-	}
-
-	//----------------- instruction generation --------------
-
-	// Load the operand x to the expression stack
-	public static void load(Operand x) {
-		switch (x.kind) {
-			case Operand.Con:
-				if (0 <= x.val && x.val <= 5) put(const0 + x.val);
-				else if (x.val == -1) put(const_m1);
-				else { put(const_); put4(x.val); }
-				break;
-			case Operand.Local:
-				if (0 <= x.adr && x.adr <= 3) put(load0 + x.adr);
-				else { put(load); put(x.adr); }
-				break;
-			case Operand.Static:
-				put(getstatic); put2(x.adr);
-				break;
-			case Operand.Fld:
-				put(getfield); put2(x.adr);
-				break;
-			case Operand.Elem:
-				put(aload);
-				break;
-			default:
-				throw new RuntimeException("Invalid operand");
-		}
-		x.kind = Operand.Stack;
-	}
-
-	// Generate an assignment x = y; y has already been loaded
-	public static void assignTo(Operand x) {
-		switch (x.kind) {
-			case Operand.Local:
-				if (0 <= x.adr && x.adr <= 3) put(store0 + x.adr);
-				else { put(store); put(x.adr); }
-				break;
-			case Operand.Static:
-				put(putstatic); put2(x.adr);
-				break;
-			case Operand.Fld:
-				put(putfield); put2(x.adr);
-				break;
-			case Operand.Elem:
-				put(astore);
-				break;
-			default:
-				throw new RuntimeException("Invalid assignment");
-		}
-	}
-
-	//------------- jumps ---------------
-
-	// Unconditional jump
-	public static void putJump(int adr) {
-		put(jmp); put2(adr);
-	}
-
-	// Conditional jump if op is false
-	public static void putFalseJump(int op, int adr) {
-		put(jeq + op); put2(adr);
-	}
-
-	// patch jump target at adr so that it jumps to the current pc
-	public static void fixup(int adr) {
-		put2(adr, pc);
-	}
-
-	//------------------------------------
-
-	// Write the code buffer to the output stream
-	public static void write(OutputStream s) {
-		int codeSize;
-		try {
-			codeSize = pc;
-			Decoder.decode(buf, 0, codeSize);
-			// append header to end of code area
-			put('M'); put('J');
-			put4(codeSize);
-			put4(dataSize);
-			put4(mainPc);
-			s.write(buf, codeSize, pc - codeSize);	// write header
-			s.write(buf, 0, codeSize);							// write code
-			s.close();
-		} catch(IOException e) {
-			Parser.error("cannot write code file");
-		}
-	}
-
-	// initialize code buffer
-	static {
-		buf = new byte[bufSize];
-		pc = 0; mainPc = -1;
-	}
-}
+/* MicroJava Code Generator  (HM 23-03-08)
+   ========================
+This class holds the code buffer with its access primitives get* and put*.
+It also holds methods to load operands and to generate complex instructions
+such as assignments and jumps.
+Arithmetic on constants is done at compile time: the Parser loads the left
+operand before it parses the right one, so if both are constants the load of
+the left one, which is then the last code, is taken back (see unload). A
+constant right operand that has no effect (x + 0, x * 1, ...) generates no
+code, and x * 2^k becomes a shift.
+The code buffer grows as needed up to maxSize.
+Jumps and calls have a 16 bit target address, or a 32 bit one in their wide
+forms (jmp_w, jeq_w..jge_w, call_w) if the target is farAdr or above. Calls
+and backward jumps know their target; forward jumps are generated narrow and
+are widened at the end of each method by relax() if their target is too far
+(branch relaxation). Since all jumps stay inside their method, only the code
+of that method moves.
+*/
+package MJ.CodeGen;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import MJ.*;
+import MJ.SymTab.*;
+
+public class Code {
+	public static final int  // instruction codes
+		load        =  1,
+		load0       =  2,
+		load1       =  3,
+		load2       =  4,
+		load3       =  5,
+		store       =  6,
+		store0      =  7,
+		store1      =  8,
+		store2      =  9,
+		store3      = 10,
+		getstatic   = 11,
+		putstatic   = 12,
+		getfield    = 13,
+		putfield    = 14,
+		const0      = 15,
+		const1      = 16,
+		const2      = 17,
+		const3      = 18,
+		const4      = 19,
+		const5      = 20,
+		const_m1    = 21,
+		const_      = 22,
+		add         = 23,
+		sub         = 24,
+		mul         = 25,
+		div         = 26,
+		rem         = 27,
+		neg         = 28,
+		shl         = 29,
+		shr         = 30,
+		new_        = 31,
+		newarray    = 32,
+		aload       = 33,
+		astore      = 34,
+		baload      = 35,
+		bastore     = 36,
+		arraylength = 37,
+		pop         = 38,
+		jmp         = 39,
+		jeq         = 40,
+		jne         = 41,
+		jlt         = 42,
+		jle         = 43,
+		jgt         = 44,
+		jge         = 45,
+		call        = 46,
+		return_     = 47,
+		enter       = 48,
+		exit        = 49,
+		read        = 50,
+		print       = 51,
+		bread       = 52,
+		bprint      = 53,
+		trap		    = 54,
+		jmp_w       = 55,	// wide jumps and call: 4 byte target address
+		jeq_w       = 56,
+		jne_w       = 57,
+		jlt_w       = 58,
+		jle_w       = 59,
+		jgt_w       = 60,
+		jge_w       = 61,
+		call_w      = 62,
+		wide        = jmp_w - jmp;	// distance of the wide opcodes from the narrow ones
+	public static final int  // compare operators
+		eq = 0,
+		ne = 1,
+		lt = 2,
+		le = 3,
+		gt = 4,
+		ge = 5;
+	private static int[] inverse = {ne, eq, ge, gt, le, lt};
+	public static final int maxSize = 1 << 30;	// maximum code size
+	public static final int farAdr = 0x8000;	// jump and call targets from here on need the wide forms
+	public static final int maxVars = 127;	// local variables of a method; the VM reads their numbers as signed bytes
+	private static final int initSize = 8192;	// initial capacity of the code buffer
+
+	private static byte[] buf;	// code buffer
+	public static int pc;				// next free byte in code buffer
+	public static int mainPc;		// pc of main function (set by parser)
+	public static int dataSize;	// length of static data in words (set by parser)
+
+	// jumps of the current method in code order: address and target
+	private static int nJumps;
+	private static int jumpAdr[], jumpTarget[];
+
+	//--------------- code buffer access ----------------------
+
+	public static void put(int x) {
+		if (pc >= buf.length) {
+			if (pc >= maxSize) {
+				if (pc == maxSize) Parser.error("program too large");
+				pc++;
+				return;
+			}
+			buf = Arrays.copyOf(buf, Math.min(2 * buf.length, maxSize));
+		}
+		buf[pc++] = (byte)x;
+	}
+
+	public static void put2(int x) {
+		put(x>>8); put(x);
+	}
+
+	public static void put(int pos, int x) {
+		buf[pos] = (byte)x;
+	}
+
+	public static void put2(int pos, int x) {
+		int oldpc = pc; pc = pos; put2(x); pc = oldpc;
+	}
+
+	public static void put4(int x) {
+		put2(x>>16); put2(x);
+	}
+
+	public static int get(int pos) {
+		return buf[pos];
+	}
+
+	// Copy of the code bytes from..to-1
+	public static byte[] get(int from, int to) {
+		return Arrays.copyOfRange(buf, from, to);
+	}
+
+	// Append the bytes b
+	public static void put(byte[] b) {
+		put(b, 0, b.length);
+	}
+
+	// Append the bytes b[from..to-1]
+	private static void put(byte[] b, int from, int to) {
+		int n = to - from;
+		if (pc + n <= maxSize) {
+			if (pc + n > buf.length) buf = Arrays.copyOf(buf, Math.min(Math.max(2 * buf.length, pc + n), maxSize));
+			System.arraycopy(b, from, buf, pc, n);
+			pc += n;
+		} else
+			for (int i = from; i < to; i++) put(b[i]);
+	}
+
+	//----------------- instruction generation --------------
+
+	// Load the operand x to the expression stack
+	public static void load(Operand x) {
+		switch (x.kind) {
+			case Operand.Con:
+				x.conStart = pc;
+				if (0 <= x.val && x.val <= 5) put(const0 + x.val);
+				else if (x.val == -1) put(const_m1);
+				else { put(const_); put4(x.val); }
+				x.conEnd = pc;
+				break;
+			case Operand.Local:
+				if (0 <= x.adr && x.adr <= 3) put(load0 + x.adr);
+				else { put(load); put(x.adr); }
+				break;
+			case Operand.Static:
+				put(getstatic); put2(x.adr);
+				break;
+			case Operand.Fld:
+				put(getfield); put2(x.adr);
+				break;
+			case Operand.Elem:
+				if (x.type == Tab.charType) put(baload); else put(aload);
+				break;
+			case Operand.Stack:
+				break;
+			default:
+				Parser.error("cannot load this value");
+		}
+		x.kind = Operand.Stack;
+	}
+
+	// Generate x = x op y for the arithmetic operators; x has already been loaded
+	public static void add(Operand x, Operand y) { arith(add, x, y); }
+	public static void sub(Operand x, Operand y) { arith(sub, x, y); }
+	public static void mul(Operand x, Operand y) { arith(mul, x, y); }
+	public static void div(Operand x, Operand y) { arith(div, x, y); }
+	public static void rem(Operand x, Operand y) { arith(rem, x, y); }
+
+	// True if x is a constant whose load is the last code
+	private static boolean loadedCon(Operand x) {
+		return x.conEnd == pc && x.conEnd > 0;
+	}
+
+	// Take back the load of the constant x (see loadedCon)
+	private static void unload(Operand x) {
+		pc = x.conStart;
+		x.kind = Operand.Con;
+		x.conEnd = 0;
+	}
+
+	// x op y for the arithmetic operators and for shl (x * 2^k), which the
+	// Optimizer folds when x becomes a constant
+	static int fold(int op, int x, int y) {
+		switch (op) {
+			case add: return x + y;
+			case sub: return x - y;
+			case mul: return x * y;
+			case div: return x / y;
+			case rem: return x % y;
+			default:  return x << y; // shl
+		}
+	}
+
+	private static boolean isPowerOf2(int x) {
+		return x > 1 && (x & (x - 1)) == 0;
+	}
+
+	private static void arith(int op, Operand x, Operand y) {
+		if (y.kind == Operand.Con) {
+			if ((op == div || op == rem) && y.val == 0) Parser.error("division by zero");
+			else if (loadedCon(x)) { // constant op constant
+				unload(x);
+				x.val = fold(op, x.val, y.val);
+				return;
+			} else if (y.val == 0 && (op == add || op == sub) || y.val == 1 && (op == mul || op == div)) {
+				x.kind = Operand.Stack; // x op identity
+				return;
+			} else if (op == mul && y.val == -1) {
+				put(neg);
+				x.kind = Operand.Stack;
+				return;
+			} else if (op == mul && isPowerOf2(y.val)) {
+				load(new Operand(Integer.numberOfTrailingZeros(y.val)));
+				put(shl);
+				x.kind = Operand.Stack;
+				return;
+			}
+		} else if (loadedCon(x) && (op == add ? x.val == 0 : op == mul && (x.val == 1 || isPowerOf2(x.val)))) {
+			unload(x); // identity or power of 2 op y: y op x
+			load(y);
+			if (isPowerOf2(x.val) && op == mul) { load(new Operand(Integer.numberOfTrailingZeros(x.val))); put(shl); }
+			x.kind = Operand.Stack;
+			return;
+		}
+		load(y);
+		put(op);
+		x.kind = Operand.Stack;
+	}
+
+	// Generate x = -x
+	public static void neg(Operand x) {
+		if (x.kind == Operand.Con) {
+			x.val = -x.val;
+			return;
+		}
+		load(x);
+		put(neg);
+	}
+
+	// Generate a call of method m; the actual parameters have already been loaded
+	public static void callMethod(Obj m) {
+		if (m == Tab.ordObj || m == Tab.chrObj) ; // type conversion only
+		else if (m == Tab.lenObj) put(arraylength);
+		else if (Inliner.on && Inliner.inline(m)) ; // a copy of the code of m
+		else putCall(m.adr);
+	}
+
+	// Call of the method at adr
+	static void putCall(int adr) {
+		if (adr < farAdr) { put(call); put2(adr); }
+		else { put(call_w); put4(adr); }
+	}
+
+	// Generate an assignment x = y; y has already been loaded
+	public static void assignTo(Operand x) {
+		switch (x.kind) {
+			case Operand.Local:
+				if (0 <= x.adr && x.adr <= 3) put(store0 + x.adr);
+				else { put(store); put(x.adr); }
+				break;
+			case Operand.Static:
+				put(putstatic); put2(x.adr);
+				break;
+			case Operand.Fld:
+				put(putfield); put2(x.adr);
+				break;
+			case Operand.Elem:
+				if (x.type == Tab.charType) put(bastore); else put(astore);
+				break;
+			default:
+				Parser.error("cannot assign to this value");
+		}
+	}
+
+	//------------- jumps ---------------
+
+	// Jump with the narrow opcode op to adr, recorded for relax
+	static void jump(int op, int adr) {
+		if (nJumps == jumpAdr.length) {
+			jumpAdr = Arrays.copyOf(jumpAdr, 2 * nJumps); jumpTarget = Arrays.copyOf(jumpTarget, 2 * nJumps);
+		}
+		jumpAdr[nJumps] = pc; jumpTarget[nJumps] = adr; nJumps++;
+		if (adr < farAdr) { put(op); put2(adr); }
+		else { put(op + wide); put4(adr); }
+	}
+
+	// Unconditional jump
+	public static void putJump(int adr) {
+		jump(jmp, adr);
+	}
+
+	// Conditional jump if op is false
+	public static void putFalseJump(int op, int adr) {
+		jump(jeq + inverse[op], adr);
+	}
+
+	// Index of the last jump before adr
+	private static int jumpBefore(int adr) {
+		int lo = 0, hi = nJumps - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (jumpAdr[mid] < adr) lo = mid; else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// patch jump target at adr so that it jumps to the current pc
+	public static void fixup(int adr) {
+		put2(adr, pc);
+		jumpTarget[jumpBefore(adr)] = pc; // the jump whose operand is at adr
+	}
+
+	// Target of the jump at adr in the current method (also if it is still too far)
+	static int target(int adr) {
+		return jumpTarget[jumpBefore(adr + 1)];
+	}
+
+	// Generate the current method anew from its start adr on (see Optimizer)
+	static void restart(int adr) {
+		pc = adr;
+		nJumps = 0;
+	}
+
+	// Address that the method code at adr moves to, where the jumps before jump k
+	// add grow[k] bytes
+	private static int moved(int adr, int grow[]) {
+		int lo = 0, hi = nJumps; // number of jumps before adr
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (jumpAdr[mid] < adr) lo = mid + 1; else hi = mid;
+		}
+		return adr + grow[lo];
+	}
+
+	// End of the method whose code starts at start: widen the jumps whose targets
+	// are too far, and the jumps that get too far by that, until all fit
+	public static void relax(int start) {
+		int n = nJumps;
+		boolean far = false;
+		for (int k = 0; k < n && !far; k++) far = jumpTarget[k] >= farAdr && buf[jumpAdr[k]] < jmp_w;
+		if (!far) { nJumps = 0; return; }
+		boolean w[] = new boolean[n];	// jump k is or becomes wide
+		int grow[] = new int[n + 1];	// bytes added by the jumps before jump k
+		for (int k = 0; k < n; k++) w[k] = buf[jumpAdr[k]] >= jmp_w;
+		boolean changed;
+		do {
+			for (int k = 0; k < n; k++) grow[k + 1] = grow[k] + (w[k] && buf[jumpAdr[k]] < jmp_w ? 2 : 0);
+			changed = false;
+			for (int k = 0; k < n; k++)
+				if (!w[k] && moved(jumpTarget[k], grow) >= farAdr) { w[k] = true; changed = true; }
+		} while (changed);
+		if (pc + grow[n] > maxSize) {
+			Parser.error("program too large");
+			nJumps = 0;
+			return;
+		}
+		// copy the code of the method with the new jumps
+		byte old[] = get(start, pc);
+		pc = start;
+		int p = start;
+		for (int k = 0; k < n; k++) {
+			int a = jumpAdr[k], op = old[a - start];
+			put(old, p - start, a - start);
+			int adr = moved(jumpTarget[k], grow);
+			if (op >= jmp_w) { put(op); put4(adr); p = a + 5; }
+			else if (w[k]) { put(op + wide); put4(adr); p = a + 3; }
+			else { put(op); put2(adr); p = a + 3; }
+		}
+		put(old, p - start, old.length);
+		nJumps = 0;
+	}
+
+	//------------------------------------
+
+	// Run the peephole optimizer over the code (see Peephole); mainPc and the
+	// addresses of the methods move with the code
+	public static void optimize() {
+		byte b[] = Peephole.optimize(buf, pc, mainPc);
+		mainPc = Peephole.map[mainPc];
+		for (Obj p = Tab.curScope.locals; p != null; p = p.next)
+			if (p.kind == Obj.Prog)
+				for (Obj m = p.locals; m != null; m = m.next)
+					if (m.kind == Obj.Meth) m.adr = Peephole.map[m.adr];
+		pc = 0;
+		put(b);
+	}
+
+	// Print the generated code
+	public static void decode() {
+		Decoder.decode(buf, 0, pc);
+	}
+
+	// Header of the object file
+	private static ByteBuffer header() {
+		ByteBuffer h = ByteBuffer.allocate(14);
+		h.put((byte)'M').put((byte)'J');
+		h.putInt(pc);				// code size
+		h.putInt(dataSize);
+		h.putInt(mainPc);
+		h.flip();
+		return h;
+	}
+
+	// Write the object file to the output stream: the header, then the code
+	public static void write(OutputStream s) {
+		try {
+			s.write(header().array());
+			s.write(buf, 0, pc);
+			s.close();
+		} catch(IOException e) {
+			Parser.error("cannot write code file");
+		}
+	}
+
+	// Write the object file to the channel with one gathering write of the
+	// header and the code buffer, which is not copied
+	public static void write(FileChannel ch) {
+		ByteBuffer b[] = {header(), ByteBuffer.wrap(buf, 0, pc)};
+		try {
+			while (b[1].hasRemaining()) ch.write(b);
+			ch.close();
+		} catch(IOException e) {
+			Parser.error("cannot write code file");
+		}
+	}
+
+	// initialize code buffer
+	public static void init() {
+		buf = new byte[initSize];
+		nJumps = 0; jumpAdr = new int[64]; jumpTarget = new int[64];
+		pc = 0; mainPc = -1; dataSize = 0;
+	}
+}
@@ -0,0 +1,250 @@
+/* MicroJava Inliner
+   =================
+With -inline a call of a small method is replaced by a copy of the method's
+code, which saves the call, enter, exit and return and the passing of the
+parameters. A method is inlined if its code is complete (it was declared
+before the caller), its body has at most maxSize bytes, it does not call
+itself, and the copies inlined into it are nested less than maxDepth deep.
+In the copy
+  - the arguments on the expression stack are stored into the callee's
+    parameters, and the callee's other variables that may be read before
+    they are assigned are set to 0, as enter would do. The callee's
+    variables are local variables after those of the caller, shared by all
+    copies in the caller (they never run at the same time), so the frame
+    of the caller grows, up to Code.maxVars slots.
+  - the return at the end of the callee falls through; the other returns
+    store the result in a local variable and jump to the end, where it is
+    loaded.
+  - if the callee has jumps, the values on the expression stack below the
+    arguments are saved in local variables while the copy runs, so that the
+    stack is empty at every jump (as the Optimizer expects). The result then
+    goes through a local variable as well.
+The heuristics are set with -inline=size,depth. The copies depend on the
+code of the callees, so inlining is for whole programs, not for Incremental.
+*/
+package MJ.CodeGen;
+
+import java.util.*;
+import MJ.SymTab.*;
+
+public class Inliner {
+	public static boolean on;				// -inline
+	public static int maxSize = 32;	// largest body inlined, in bytes without enter and the last return
+	public static int maxDepth = 2;	// copies nested at most this deep
+	public static int inlined;			// calls inlined
+
+	// Code of a method compiled before
+	private static class Body {
+		Obj m;
+		byte code[];				// from enter on
+		int end;						// address of the last return (exit) in code
+		int nPars, nVars;
+		boolean clear[];		// variable may be read before it is assigned
+		boolean branches;		// has jumps or several returns
+		int depth;					// nesting of the copies inlined into it
+		boolean fit;				// can be inlined
+	}
+
+	private static HashMap<Integer, Body> bodies = new HashMap<>();	// by address
+	private static Obj caller;		// method being compiled
+	private static int base;			// its first local variable for the callees
+	private static int depth;			// nesting of the copies inlined into it
+	private static int scanned, stack;	// end of the caller's code scanned so far, stack depth there
+
+	private static int get2(byte c[], int p) { return (c[p] & 0xff) << 8 | c[p + 1] & 0xff; }
+
+	private static int get4(byte c[], int p) { return get2(c, p) << 16 | get2(c, p + 2); }
+
+	private static boolean isJump(int op) { return op >= Code.jmp && op <= Code.jge || op >= Code.jmp_w && op <= Code.jge_w; }
+
+	// Target of the jump or call at p
+	private static int target(byte c[], int p) {
+		return c[p] >= Code.jmp_w ? get4(c, p + 1) : get2(c, p + 1);
+	}
+
+	// Local variable that the load or store at p accesses
+	private static int local(byte c[], int p) {
+		int op = c[p];
+		if (op == Code.load || op == Code.store) return c[p + 1] & 0xff;
+		return op >= Code.store0 ? op - Code.store0 : op - Code.load0;
+	}
+
+	private static boolean isLoad(int op) { return op >= Code.load && op <= Code.load3; }
+
+	private static boolean isStore(int op) { return op >= Code.store && op <= Code.store3; }
+
+	// Start of method m, after its enter
+	public static void begin(Obj m) {
+		caller = m;
+		base = Code.get(m.adr + 2) & 0xff;
+		depth = 0;
+		scanned = m.adr + 3; stack = 0;
+	}
+
+	// End of method m, after its jumps are relaxed: keep its code for inlining
+	public static void end(Obj m) {
+		Body b = new Body();
+		b.m = m;
+		b.code = Code.get(m.adr, Code.pc);
+		b.depth = depth;
+		b.fit = analyze(b);
+		bodies.put(m.adr, b);
+		caller = null;
+	}
+
+	// Check the code of b and find its last return; false if b cannot be inlined
+	private static boolean analyze(Body b) {
+		byte c[] = b.code;
+		int len = c.length;
+		if (len < 3 || c[0] != Code.enter) return false;
+		b.nPars = c[1] & 0xff; b.nVars = c[2] & 0xff;
+		b.clear = new boolean[b.nVars];
+		boolean instr[] = new boolean[len + 1], target[] = new boolean[len + 1], assigned[] = new boolean[b.nVars];
+		boolean jumps = false;
+		int returns = 0;
+		b.end = -1;
+		for (int p = 3; p < len; p += Peephole.length(c[p])) {
+			int op = c[p];
+			if (op < Code.load || op > Code.call_w || op == Code.enter || p + Peephole.length(op) > len) return false;
+			instr[p] = true;
+			if (isJump(op)) {
+				int t = target(c, p) - b.m.adr;
+				if (t < 3 || t >= len) return false;
+				target[t] = jumps = true;
+			} else if ((op == Code.call || op == Code.call_w) && target(c, p) == b.m.adr) return false; // recursive
+			else if (op == Code.exit) {
+				if (p + 1 >= len || c[p + 1] != Code.return_) return false;
+				returns++;
+				b.end = p;
+			} else if (op == Code.return_ && c[p - 1] != Code.exit) return false;
+		}
+		if (b.end < 0) return false;
+		for (int p = 3; p < len; p++)
+			if (target[p] && !instr[p]) return false;
+		// only a trap that is not reached may follow the last return
+		int after = b.end + 2;
+		if (after < len && (c[after] != Code.trap || after + 2 != len || target[after])) return false;
+		// variables read before they are assigned in the code up to the first jump
+		boolean straight = true;
+		for (int p = 3; p < b.end; p += Peephole.length(c[p])) {
+			int op = c[p];
+			straight &= !target[p] && !isJump(op);
+			if (isLoad(op) && !assigned[local(c, p)]) b.clear[local(c, p)] = true;
+			else if (isStore(op) && straight) assigned[local(c, p)] = true;
+		}
+		b.branches = jumps || returns > 1;
+		return b.end - 3 <= maxSize && b.depth < maxDepth;
+	}
+
+	// Depth of the expression stack at the end of the caller's code; -1 if
+	// unknown. The stack is empty at jumps, so the code can be scanned in order.
+	private static int stackDepth() {
+		if (scanned > Code.pc) { scanned = caller.adr + 3; stack = 0; }
+		while (scanned < Code.pc && stack >= 0) {
+			int op = Code.get(scanned);
+			switch (op) {
+				case Code.load: case Code.load0: case Code.load1: case Code.load2: case Code.load3:
+				case Code.getstatic: case Code.new_: case Code.read: case Code.bread:
+				case Code.const0: case Code.const1: case Code.const2: case Code.const3: case Code.const4: case Code.const5:
+				case Code.const_m1: case Code.const_:
+					stack++;
+					break;
+				case Code.store: case Code.store0: case Code.store1: case Code.store2: case Code.store3:
+				case Code.putstatic: case Code.pop: case Code.aload: case Code.baload:
+				case Code.add: case Code.sub: case Code.mul: case Code.div: case Code.rem: case Code.shl: case Code.shr:
+					stack--;
+					break;
+				case Code.putfield: case Code.print: case Code.bprint:
+					stack -= 2;
+					break;
+				case Code.astore: case Code.bastore:
+					stack -= 3;
+					break;
+				case Code.return_:
+					stack = 0;
+					break;
+				case Code.call: case Code.call_w: {
+					int adr = op == Code.call ? get2(Code.get(scanned, scanned + 3), 1) : get4(Code.get(scanned, scanned + 5), 1);
+					Body b = bodies.get(adr);
+					Obj m = adr == caller.adr ? caller : b != null ? b.m : null;
+					if (m == null) stack = -1;
+					else stack += (m.type == Tab.noType ? 0 : 1) - m.nPars;
+					break;
+				}
+				default:
+					if (isJump(op) && op != Code.jmp && op != Code.jmp_w) stack -= 2;
+			}
+			scanned += Peephole.length(op);
+		}
+		return stack;
+	}
+
+	private static void local(int short0, int op, int x) {
+		if (x <= 3) Code.put(short0 + x);
+		else { Code.put(op); Code.put(x); }
+	}
+
+	// Patch the jumps of the copy to the instruction at p of the callee
+	private static void place(HashMap<Integer, ArrayList<Integer>> forward, int p) {
+		ArrayList<Integer> list = forward.remove(p);
+		if (list != null)
+			for (int adr: list) Code.fixup(adr);
+	}
+
+	// Generate a copy of the code of m for a call of it whose arguments have
+	// been loaded; false if m is not inlined
+	static boolean inline(Obj m) {
+		Body b = bodies.get(m.adr);
+		if (caller == null || b == null || b.m != m || !b.fit) return false;
+		boolean function = m.type != Tab.noType;
+		int below = 0;	// values saved
+		if (b.branches) {
+			below = stackDepth() - b.nPars;
+			if (below < 0) return false;
+		}
+		boolean joins = b.branches || below > 0;	// the result goes through a local variable
+		int result = base + b.nVars, spill = function && joins ? result + 1 : result;
+		int frame = spill + below;
+		if (frame > Code.maxVars) return false;
+		if (frame > (Code.get(caller.adr + 2) & 0xff)) Code.put(caller.adr + 2, frame);
+		depth = Math.max(depth, b.depth + 1);
+		inlined++;
+		for (int k = b.nPars - 1; k >= 0; k--) local(Code.store0, Code.store, base + k);
+		for (int k = 0; k < below; k++) local(Code.store0, Code.store, spill + k);
+		for (int k = b.nPars; k < b.nVars; k++)
+			if (b.clear[k]) { Code.put(Code.const0); local(Code.store0, Code.store, base + k); }
+		byte c[] = b.code;
+		int at[] = new int[b.end];	// new address of every instruction of the callee
+		HashMap<Integer, ArrayList<Integer>> forward = new HashMap<>();	// jumps to later instructions
+		ArrayList<Integer> exits = new ArrayList<>();	// jumps to the end
+		for (int p = 3; p < b.end; p += Peephole.length(c[p])) {
+			int op = c[p];
+			at[p] = Code.pc;
+			place(forward, p);
+			if (isLoad(op)) local(Code.load0, Code.load, base + local(c, p));
+			else if (isStore(op)) local(Code.store0, Code.store, base + local(c, p));
+			else if (isJump(op)) {
+				int t = target(c, p) - b.m.adr;
+				if (op >= Code.jmp_w) op -= Code.wide;
+				if (t <= p) Code.jump(op, at[t]);
+				else {
+					Code.jump(op, 0);
+					forward.computeIfAbsent(t, x -> new ArrayList<>()).add(Code.pc - 2);
+				}
+			} else if (op == Code.exit) {
+				if (function) local(Code.store0, Code.store, result);
+				Code.jump(Code.jmp, 0);
+				exits.add(Code.pc - 2);
+			} else if (op != Code.return_)
+				for (int k = 0; k < Peephole.length(op); k++) Code.put(c[p + k]);
+		}
+		place(forward, b.end);
+		if (joins) {
+			if (function) local(Code.store0, Code.store, result);
+			for (int adr: exits) Code.fixup(adr);
+			for (int k = below - 1; k >= 0; k--) local(Code.load0, Code.load, spill + k);
+			if (function) local(Code.load0, Code.load, result);
+		}
+		return true;
+	}
+}
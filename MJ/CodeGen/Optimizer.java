@@ -0,0 +1,1606 @@
+/* MicroJava SSA Optimizer
+   =======================
+With -O2 the code of every method is optimized at the end of the method,
+before its jumps are relaxed:
+  1. The code is lifted into a control-flow graph of basic blocks. The
+     expression stack is empty at every jump target and after every
+     statement, so a block is a list of statements whose operands are
+     expression trees (evaluated in the order of the code), and it ends with a
+     jump, a return or a trap, or falls through to the next block. A
+     statement inside an expression (from an inlined call) makes the values
+     on the stack below it that have an effect values of their own.
+  2. The local variables become values in SSA form while lifting (Braun et al.,
+     Simple and Efficient Construction of Static Single Assignment Form): a
+     load is a use of the current value of the variable, a store of a computed
+     expression defines a new value, and a store of a variable or a constant
+     only gives the value another name (copy propagation). Phis join the
+     values where blocks meet.
+  3. Sparse conditional constant propagation: values that are constant on all
+     paths that can be taken become constants, conditional jumps with a
+     constant outcome become jumps or fall through, and blocks that can no
+     longer be reached are removed.
+  4. Global value numbering over the dominator tree: an expression (or part of
+     one) that an assignment has already computed on every path to it is
+     taken from that value.
+  5. With -loops, the natural loops (back edges to a block that dominates the
+     jump) are optimized, inner loops first. Expressions whose value does not
+     change in the loop are computed before it in a preheader: arithmetic,
+     global variables that the loop does not assign and calls no method, and
+     fields and array lengths of references that cannot be null there.
+     Induction variables multiplied by the same factor often enough become
+     a variable of their own that goes up by the product (strength reduction),
+     and inner loops that run a constant number of times are partially
+     unrolled. The loops changed are listed in report.
+  6. Dead code elimination: assignments whose value is not used, and the
+     expressions popped after a call whose result is not used, are removed if
+     they have no effect.
+  7. The values go back to local variables by coloring their interference
+     graph, preferring the variable that each value was assigned to, so that
+     most phis need no copies; the others become copies on the incoming edges.
+     The blocks are generated anew in their old order.
+Only expressions without effects (constants, locals, arithmetic that cannot
+trap) move, merge or disappear. Memory accesses, calls, input and output,
+allocations and divisions by a variable stay in their order. A method whose
+code does not have the expected shape is left as it is.
+*/
+package MJ.CodeGen;
+
+import java.util.*;
+import MJ.SymTab.*;
+
+public class Optimizer {
+	public static boolean on;					// -O2: optimize every method
+	public static boolean loops;			// -loops: optimize the loops too
+	public static int optimized, unfit;	// methods optimized and left as they are
+	public static ArrayList<String> report = new ArrayList<>();	// -loops: the loops changed
+
+	// constant lattice: not yet known, a constant (any int in between), not constant
+	private static final long Top = Long.MIN_VALUE, Bottom = Long.MAX_VALUE;
+
+	// A value of a local variable in SSA form
+	private static class Val {
+		static final int Param = 0, Phi = 1, Def = 2, Con = 3;	// Param: value at the method entry
+		int kind;
+		int var;			// variable that the value was assigned to
+		Node def;			// Def: the store that computes it
+		Block b;			// Phi, Def: its block
+		Val in[];			// Phi: value per predecessor of b
+		Val same;			// replaced by this value
+		long lat;			// constant lattice; Con: the constant
+		int vn = -1;	// value number
+		boolean live;
+		int id = -1;	// number among the values in local variables
+		int slot = -1;	// local variable in the new code
+		BitSet adj;		// ids of the interfering values
+
+		Val(int kind, int var) { this.kind = kind; this.var = var; }
+	}
+
+	// An expression or a statement
+	private static class Node {
+		int op;			// opcode; load: use of v (or of local val), store: definition of v (or local val)
+		int val;		// operand of the instruction
+		Val v;
+		Obj m;			// call: the method
+		Node kid[];	// operands in the order of evaluation
+
+		Node(int op, int val, Node... kid) { this.op = op; this.val = val; this.kid = kid; }
+	}
+
+	// A basic block
+	private static class Block {
+		int start, end, last;	// old code, last instruction
+		ArrayList<Node> stats = new ArrayList<>();
+		Node exit;						// jmp, jeq..jge, return_ or trap; null: falls through
+		Block succ[];					// next block (fall through or jmp), target of jeq..jge
+		ArrayList<Block> pred = new ArrayList<>();
+		ArrayList<Val> phis = new ArrayList<>();
+		ArrayList<Val> incomplete = new ArrayList<>();	// phis made before the block was sealed
+		Val cur[];						// value of every variable at the end
+		boolean filled, sealed, reached;
+		boolean edge[] = new boolean[2];	// edge to succ[i] can be taken
+		int rpo, visit;
+		Block idom;
+		ArrayList<Block> dom = new ArrayList<>();	// blocks that it dominates immediately
+		BitSet liveIn = new BitSet();
+		Node moves[][];				// copies on the edge to succ[i]
+		int adr = -1;					// new code
+		ArrayList<Integer> fixups = new ArrayList<>();
+	}
+
+	// Key of a value number
+	private static class Key {
+		final int op, val, a, b;
+
+		Key(int op, int val, int a, int b) { this.op = op; this.val = val; this.a = a; this.b = b; }
+
+		public boolean equals(Object o) {
+			Key k = (Key)o;
+			return op == k.op && val == k.val && a == k.a && b == k.b;
+		}
+
+		public int hashCode() { return ((op * 31 + val) * 31 + a) * 31 + b; }
+	}
+
+	@SuppressWarnings("serial")
+	private static class Unfit extends RuntimeException {}
+
+	private static final Unfit notFit = new Unfit();
+
+	private static HashMap<Integer, Obj> methodAt = new HashMap<>();	// methods by address
+
+	private static byte code[];	// old code of the method
+	private static int start;		// its address
+	private static int nPars, nVars;
+	private static Block entry;
+	private static ArrayList<Block> blocks;	// in the order of the old code
+	private static ArrayList<Block> order;	// reverse postorder
+	private static ArrayList<Val> vals;
+	private static Val params[], zero;	// values of the variables at the entry: parameters, 0
+	private static HashMap<Key, Integer> numbers;	// value numbers
+	private static HashMap<Integer, Val> avail;		// value by value number
+	private static int nextVn;
+	private static ArrayList<Val> locals;	// values in local variables
+	private static int nSlots;
+	private static Obj method;
+	private static int nextVar;		// variable of the next new value
+	private static HashMap<Integer, Integer> lines = new HashMap<>();	// source line of the loop at an address
+	private static ArrayList<String> changed;	// loops of the method changed
+
+	private static int get2(int p) { return (code[p] & 0xff) << 8 | code[p + 1] & 0xff; }
+
+	private static int get4(int p) { return get2(p) << 16 | get2(p + 2); }
+
+	private static boolean isJump(int op) { return op >= Code.jmp && op <= Code.jge || op >= Code.jmp_w && op <= Code.jge_w; }
+
+	private static boolean isCond(Node x) { return x != null && x.op >= Code.jeq && x.op <= Code.jge; }
+
+	private static Val newVal(int kind, int var) {
+		Val v = new Val(kind, var);
+		vals.add(v);
+		return v;
+	}
+
+	private static Val con(int c) {
+		Val v = newVal(Val.Con, -1);
+		v.lat = c;
+		return v;
+	}
+
+	private static Val find(Val v) {
+		while (v.same != null) v = v.same;
+		return v;
+	}
+
+	private static Node use(Val v) {
+		Node n = new Node(Code.load, 0);
+		n.v = v;
+		return n;
+	}
+
+	private static Node constant(int c) {
+		return new Node(Code.const_, c);
+	}
+
+	// True if evaluating n has no effect and cannot trap
+	private static boolean pure(Node n) {
+		switch (n.op) {
+			case Code.const_: case Code.load:
+				return true;
+			case Code.add: case Code.sub: case Code.mul: case Code.shl: case Code.shr:
+				return pure(n.kid[0]) && pure(n.kid[1]);
+			case Code.div: case Code.rem:
+				return n.kid[1].op == Code.const_ && n.kid[1].val != 0 && pure(n.kid[0]);
+			case Code.neg:
+				return pure(n.kid[0]);
+			default:
+				return false;
+		}
+	}
+
+	//----- control-flow graph
+
+	// Split the code into basic blocks
+	private static void build() {
+		int len = code.length;
+		if (len < 3 || code[0] != Code.enter) throw notFit;
+		nPars = code[1] & 0xff; nVars = code[2] & 0xff;
+		boolean leader[] = new boolean[len + 1], instr[] = new boolean[len + 1];
+		int target[] = new int[len];
+		for (int p = 0; p < len; p += Peephole.length(code[p])) {
+			int op = code[p];
+			if (op < Code.load || op > Code.call_w || p + Peephole.length(op) > len) throw notFit;
+			instr[p] = true;
+			int next = p + Peephole.length(op);
+			if (isJump(op)) {
+				int t = Code.target(start + p) - start;
+				if (t <= 0 || t >= len) throw notFit;
+				target[p] = t;
+				leader[t] = leader[next] = true;
+			} else if (op == Code.return_ || op == Code.trap) leader[next] = true;
+		}
+		Block at[] = new Block[len + 1];
+		blocks = new ArrayList<>();
+		Block b = null;
+		for (int p = 0; p < len; p += Peephole.length(code[p])) {
+			if (p == 0 || leader[p]) {
+				if (b != null) b.end = p;
+				b = new Block();
+				b.start = p;
+				at[p] = b; blocks.add(b);
+			}
+			b.last = p;
+		}
+		b.end = len;
+		for (int p = 0; p < len; p++)
+			if (leader[p] && !instr[p]) throw notFit;
+		for (Block x: blocks) {
+			int op = code[x.last];
+			Block next = at[x.end];
+			if (op == Code.jmp || op == Code.jmp_w) x.succ = new Block[] {at[target[x.last]]};
+			else if (op == Code.return_ || op == Code.trap) x.succ = new Block[0];
+			else if (next == null) throw notFit;
+			else if (isJump(op) && at[target[x.last]] != next) x.succ = new Block[] {next, at[target[x.last]]};
+			else x.succ = new Block[] {next};
+		}
+		entry = blocks.get(0);
+	}
+
+	// Reverse postorder of the blocks that can be reached; the others are removed
+	private static void sort() {
+		for (Block b: blocks) b.rpo = -1;
+		ArrayList<Block> post = new ArrayList<>();
+		ArrayDeque<Block> stack = new ArrayDeque<>();
+		entry.rpo = 0; entry.visit = 0;
+		stack.push(entry);
+		while (!stack.isEmpty()) {
+			Block b = stack.peek();
+			if (b.visit < b.succ.length) {
+				Block s = b.succ[b.visit++];
+				if (s.rpo < 0) { s.rpo = 0; s.visit = 0; stack.push(s); }
+			} else {
+				stack.pop();
+				post.add(b);
+			}
+		}
+		order = new ArrayList<>();
+		for (int i = post.size() - 1; i >= 0; i--) {
+			Block b = post.get(i);
+			b.rpo = order.size();
+			order.add(b);
+		}
+		blocks.removeIf(b -> b.rpo < 0);
+	}
+
+	//----- SSA construction
+
+	private static Val read(Block b, int x) {
+		Val v = b.cur[x];
+		if (v != null) return b.cur[x] = find(v);
+		if (b == entry) v = params[x];
+		else if (!b.sealed) {
+			v = phi(b, x);
+			b.incomplete.add(v);
+		} else if (b.pred.size() == 1) v = read(b.pred.get(0), x);
+		else {
+			v = phi(b, x);
+			b.cur[x] = v;
+			v = operands(v);
+		}
+		return b.cur[x] = v;
+	}
+
+	private static Val phi(Block b, int x) {
+		Val v = newVal(Val.Phi, x);
+		v.b = b;
+		b.phis.add(v);
+		return v;
+	}
+
+	private static Val operands(Val phi) {
+		phi.in = new Val[phi.b.pred.size()];
+		for (int i = 0; i < phi.in.length; i++) phi.in[i] = read(phi.b.pred.get(i), phi.var);
+		return trivial(phi);
+	}
+
+	// The value that replaces phi if it only joins one value, else phi
+	private static Val trivial(Val phi) {
+		Val same = null;
+		for (Val v: phi.in) {
+			v = find(v);
+			if (v == same || v == phi) continue;
+			if (same != null) return phi;
+			same = v;
+		}
+		if (same == null) same = zero; // only itself: not reached
+		phi.same = same;
+		return same;
+	}
+
+	// Remove the phis that have become trivial
+	private static void clean() {
+		boolean changed;
+		do {
+			changed = false;
+			for (Block b: order)
+				for (Val p: b.phis)
+					if (p.same == null && trivial(p) != p) changed = true;
+		} while (changed);
+		for (Block b: order) b.phis.removeIf(p -> p.same != null);
+	}
+
+	private static boolean predsFilled(Block b) {
+		for (Block p: b.pred) if (!p.filled) return false;
+		return true;
+	}
+
+	private static void seal(Block b) {
+		for (Val p: b.incomplete) operands(p);
+		b.incomplete.clear();
+		b.sealed = true;
+	}
+
+	private static Node pop(ArrayList<Node> stack) {
+		if (stack.isEmpty()) throw notFit;
+		return stack.remove(stack.size() - 1);
+	}
+
+	// Values left on the stack by a statement (in an inlined call, see Inliner)
+	// that have an effect become values of their own, computed before it
+	private static void settle(Block b, ArrayList<Node> stack) {
+		for (int i = 0; i < stack.size(); i++) {
+			Node n = stack.get(i);
+			if (pure(n)) continue;
+			Val d = newVal(Val.Def, -1);
+			d.def = new Node(Code.store, 0, n);
+			d.def.v = d;
+			d.b = b;
+			b.stats.add(d.def);
+			stack.set(i, use(d));
+		}
+	}
+
+	private static void stat(Block b, ArrayList<Node> stack, Node s) {
+		settle(b, stack);
+		b.stats.add(s);
+	}
+
+	private static void store(Block b, ArrayList<Node> stack, int x) {
+		if (x >= nVars) throw notFit;
+		Node e = pop(stack);
+		settle(b, stack);
+		if (e.op == Code.load) b.cur[x] = e.v;
+		else if (e.op == Code.const_) b.cur[x] = con(e.val);
+		else {
+			Val d = newVal(Val.Def, x);
+			d.def = new Node(Code.store, 0, e);
+			d.def.v = d;
+			d.b = b;
+			b.stats.add(d.def);
+			b.cur[x] = d;
+		}
+	}
+
+	private static Node load(Block b, int x) {
+		if (x >= nVars) throw notFit;
+		return use(read(b, x));
+	}
+
+	private static void call(Block b, ArrayList<Node> stack, int adr) {
+		Obj m = methodAt.get(adr);
+		if (m == null) throw notFit;
+		Node arg[] = new Node[m.nPars];
+		for (int i = m.nPars - 1; i >= 0; i--) arg[i] = pop(stack);
+		Node n = new Node(Code.call, adr, arg);
+		n.m = m;
+		if (m.type == Tab.noType) stat(b, stack, n); else stack.add(n);
+	}
+
+	// Lift the code of block b
+	private static void fill(Block b) {
+		ArrayList<Node> stack = new ArrayList<>();
+		for (int p = b.start; p < b.end; p += Peephole.length(code[p])) {
+			int op = code[p];
+			Node x, y, z;
+			switch (op) {
+				case Code.enter:
+					if (p != 0) throw notFit;
+					break;
+				case Code.load0: case Code.load1: case Code.load2: case Code.load3:
+					stack.add(load(b, op - Code.load0));
+					break;
+				case Code.load:
+					stack.add(load(b, code[p + 1] & 0xff));
+					break;
+				case Code.store0: case Code.store1: case Code.store2: case Code.store3:
+					store(b, stack, op - Code.store0);
+					break;
+				case Code.store:
+					store(b, stack, code[p + 1] & 0xff);
+					break;
+				case Code.const0: case Code.const1: case Code.const2: case Code.const3: case Code.const4: case Code.const5:
+					stack.add(constant(op - Code.const0));
+					break;
+				case Code.const_m1:
+					stack.add(constant(-1));
+					break;
+				case Code.const_:
+					stack.add(constant(get4(p + 1)));
+					break;
+				case Code.getstatic: case Code.new_:
+					stack.add(new Node(op, get2(p + 1)));
+					break;
+				case Code.getfield:
+					stack.add(new Node(op, get2(p + 1), pop(stack)));
+					break;
+				case Code.putstatic:
+					stat(b, stack, new Node(op, get2(p + 1), pop(stack)));
+					break;
+				case Code.putfield:
+					y = pop(stack); x = pop(stack);
+					stat(b, stack, new Node(op, get2(p + 1), x, y));
+					break;
+				case Code.add: case Code.sub: case Code.mul: case Code.div: case Code.rem: case Code.shl: case Code.shr:
+				case Code.aload: case Code.baload:
+					y = pop(stack); x = pop(stack);
+					stack.add(new Node(op, 0, x, y));
+					break;
+				case Code.neg: case Code.arraylength:
+					stack.add(new Node(op, 0, pop(stack)));
+					break;
+				case Code.newarray:
+					stack.add(new Node(op, code[p + 1] & 0xff, pop(stack)));
+					break;
+				case Code.astore: case Code.bastore:
+					z = pop(stack); y = pop(stack); x = pop(stack);
+					stat(b, stack, new Node(op, 0, x, y, z));
+					break;
+				case Code.pop:
+					stat(b, stack, new Node(op, 0, pop(stack)));
+					break;
+				case Code.read: case Code.bread:
+					stack.add(new Node(op, 0));
+					break;
+				case Code.print: case Code.bprint:
+					y = pop(stack); x = pop(stack);
+					stat(b, stack, new Node(op, 0, x, y));
+					break;
+				case Code.call:
+					call(b, stack, get2(p + 1));
+					break;
+				case Code.call_w:
+					call(b, stack, get4(p + 1));
+					break;
+				case Code.exit: // exit return
+					if (p + 1 >= b.end || code[p + 1] != Code.return_) throw notFit;
+					b.exit = stack.isEmpty() ? new Node(Code.return_, 0) : new Node(Code.return_, 0, pop(stack));
+					if (!stack.isEmpty()) throw notFit;
+					p++;
+					break;
+				case Code.trap:
+					if (!stack.isEmpty()) throw notFit;
+					b.exit = new Node(op, code[p + 1] & 0xff);
+					break;
+				case Code.jmp: case Code.jmp_w:
+					if (!stack.isEmpty()) throw notFit;
+					b.exit = new Node(Code.jmp, 0);
+					break;
+				case Code.jeq: case Code.jne: case Code.jlt: case Code.jle: case Code.jgt: case Code.jge:
+				case Code.jeq_w: case Code.jne_w: case Code.jlt_w: case Code.jle_w: case Code.jgt_w: case Code.jge_w:
+					y = pop(stack); x = pop(stack);
+					if (!stack.isEmpty()) throw notFit;
+					if (b.succ.length == 2) b.exit = new Node(op >= Code.jmp_w ? op - Code.wide : op, 0, x, y);
+					else { // jumps to the next block anyway
+						b.stats.add(new Node(Code.pop, 0, x));
+						b.stats.add(new Node(Code.pop, 0, y));
+					}
+					break;
+				default:
+					throw notFit;
+			}
+		}
+		if (!stack.isEmpty()) throw notFit;
+	}
+
+	// Lift the blocks in reverse postorder, so that all predecessors of a block
+	// except those at the end of loops have been lifted before it
+	private static void ssa() {
+		vals = new ArrayList<>();
+		zero = con(0);
+		params = new Val[nVars]; // the other variables are 0 in their local variable
+		for (int i = 0; i < nVars; i++) {
+			params[i] = newVal(Val.Param, i);
+			params[i].lat = i < nPars ? Bottom : 0;
+		}
+		for (Block b: order) {
+			b.cur = new Val[nVars];
+			for (Block s: b.succ) s.pred.add(b);
+		}
+		for (Block b: order) {
+			if (!b.sealed && predsFilled(b)) seal(b);
+			fill(b);
+			b.filled = true;
+			for (Block s: b.succ)
+				if (!s.sealed && predsFilled(s)) seal(s);
+		}
+		clean();
+	}
+
+	//----- sparse conditional constant propagation
+
+	private static boolean test(int op, int x, int y) {
+		switch (op) {
+			case Code.jeq: return x == y;
+			case Code.jne: return x != y;
+			case Code.jlt: return x < y;
+			case Code.jle: return x <= y;
+			case Code.jgt: return x > y;
+			default:       return x >= y;
+		}
+	}
+
+	private static long eval(Node n) {
+		switch (n.op) {
+			case Code.const_:
+				return n.val;
+			case Code.load:
+				return find(n.v).lat;
+			case Code.neg: {
+				long x = eval(n.kid[0]);
+				return x == Top || x == Bottom ? x : -(int)x;
+			}
+			case Code.add: case Code.sub: case Code.mul: case Code.div: case Code.rem: case Code.shl: {
+				long x = eval(n.kid[0]), y = eval(n.kid[1]);
+				if (x == Bottom || y == Bottom) return Bottom;
+				if (x == Top || y == Top) return Top;
+				if ((n.op == Code.div || n.op == Code.rem) && y == 0) return Bottom; // traps at run time
+				return Code.fold(n.op, (int)x, (int)y);
+			}
+			default:
+				return Bottom;
+		}
+	}
+
+	// Value of phi over the edges that can be taken
+	private static long meet(Val phi) {
+		long x = Top;
+		for (int i = 0; i < phi.in.length; i++) {
+			Block p = phi.b.pred.get(i);
+			if (!p.edge[p.succ[0] == phi.b ? 0 : 1]) continue;
+			long y = find(phi.in[i]).lat;
+			if (y == Top) continue;
+			if (x == Top) x = y; else if (x != y) return Bottom;
+		}
+		return x;
+	}
+
+	// Lower the lattice value of v to x; true if it changed
+	private static boolean lower(Val v, long x) {
+		long y = v.lat == Top ? x : x == Top || x == v.lat ? v.lat : Bottom;
+		if (y == v.lat) return false;
+		v.lat = y;
+		return true;
+	}
+
+	private static boolean reach(Block b, int i) {
+		if (b.edge[i]) return false;
+		b.edge[i] = true;
+		b.succ[i].reached = true;
+		return true;
+	}
+
+	private static void propagate() {
+		for (Val v: vals)
+			if (v.kind == Val.Phi || v.kind == Val.Def) v.lat = Top;
+		entry.reached = true;
+		boolean changed;
+		do {
+			changed = false;
+			for (Block b: order) {
+				if (!b.reached) continue;
+				for (Val p: b.phis) changed |= lower(p, meet(p));
+				for (Node s: b.stats)
+					if (s.op == Code.store) changed |= lower(s.v, eval(s.kid[0]));
+				if (isCond(b.exit)) {
+					long x = eval(b.exit.kid[0]), y = eval(b.exit.kid[1]);
+					if (x == Bottom || y == Bottom) changed |= reach(b, 0) | reach(b, 1);
+					else if (x != Top && y != Top) changed |= reach(b, test(b.exit.op, (int)x, (int)y) ? 1 : 0);
+				} else if (b.succ.length > 0) changed |= reach(b, 0);
+			}
+		} while (changed);
+	}
+
+	// Fold the constants in n
+	private static Node fold(Node n) {
+		if (n.op == Code.load) {
+			Val v = n.v = find(n.v);
+			return v.lat != Top && v.lat != Bottom ? constant((int)v.lat) : n;
+		}
+		for (int i = 0; i < n.kid.length; i++) n.kid[i] = fold(n.kid[i]);
+		switch (n.op) {
+			case Code.add: case Code.sub: case Code.mul: case Code.div: case Code.rem: case Code.shl: {
+				Node x = n.kid[0], y = n.kid[1];
+				if (y.op == Code.const_) {
+					if (x.op == Code.const_ && !((n.op == Code.div || n.op == Code.rem) && y.val == 0))
+						return constant(Code.fold(n.op, x.val, y.val));
+					if (y.val == 0 && (n.op == Code.add || n.op == Code.sub || n.op == Code.shl)
+						|| y.val == 1 && (n.op == Code.mul || n.op == Code.div)) return x;
+				} else if (x.op == Code.const_ && (n.op == Code.add && x.val == 0 || n.op == Code.mul && x.val == 1)) return y;
+				return n;
+			}
+			case Code.neg:
+				return n.kid[0].op == Code.const_ ? constant(-n.kid[0].val) : n;
+			default:
+				return n;
+		}
+	}
+
+	// Replace the constant values, fold the constant jumps and remove the blocks
+	// that are not reached
+	private static void prune() {
+		for (int i = 0, n = vals.size(); i < n; i++) {
+			Val v = vals.get(i);
+			if ((v.kind == Val.Phi || v.kind == Val.Def) && v.same == null && v.lat != Top && v.lat != Bottom)
+				v.same = con((int)v.lat);
+		}
+		for (Block b: order) {
+			if (!b.reached || !isCond(b.exit)) continue;
+			if (!b.edge[0] && !b.edge[1]) throw notFit;
+			if (!b.edge[0]) { b.exit = new Node(Code.jmp, 0); b.succ = new Block[] {b.succ[1]}; }
+			else if (!b.edge[1]) { b.exit = null; b.succ = new Block[] {b.succ[0]}; }
+		}
+		for (Block b: order) {
+			if (!b.reached) continue;
+			ArrayList<Block> pred = new ArrayList<>();
+			for (Block p: b.pred)
+				if (p.reached && Arrays.asList(p.succ).contains(b)) pred.add(p);
+			if (pred.size() == b.pred.size()) continue;
+			for (Val phi: b.phis) {
+				Val in[] = new Val[pred.size()];
+				for (int i = 0; i < in.length; i++) in[i] = phi.in[b.pred.indexOf(pred.get(i))];
+				phi.in = in;
+			}
+			b.pred = pred;
+		}
+		for (Block b: blocks) if (!b.reached) b.succ = new Block[0];
+		sort();
+		clean();
+		for (Block b: order) {
+			for (Node s: b.stats) {
+				for (int i = 0; i < s.kid.length; i++) s.kid[i] = fold(s.kid[i]);
+				if (s.op == Code.store && s.v.same == null) { // maybe a copy or a constant now
+					Node e = s.kid[0];
+					if (e.op == Code.load) s.v.same = e.v;
+					else if (e.op == Code.const_) s.v.same = con(e.val);
+				}
+			}
+			if (b.exit != null)
+				for (int i = 0; i < b.exit.kid.length; i++) b.exit.kid[i] = fold(b.exit.kid[i]);
+		}
+	}
+
+	//----- global value numbering
+
+	private static Block intersect(Block a, Block b) {
+		while (a != b) {
+			while (a.rpo > b.rpo) a = a.idom;
+			while (b.rpo > a.rpo) b = b.idom;
+		}
+		return a;
+	}
+
+	// Immediate dominators (Cooper, Harvey, Kennedy: A Simple, Fast Dominance Algorithm)
+	private static void dominators() {
+		entry.idom = entry;
+		boolean changed;
+		do {
+			changed = false;
+			for (Block b: order) {
+				if (b == entry) continue;
+				Block d = null;
+				for (Block p: b.pred)
+					if (p.idom != null) d = d == null ? p : intersect(p, d);
+				if (d != b.idom) { b.idom = d; changed = true; }
+			}
+		} while (changed);
+		for (Block b: order)
+			if (b != entry) b.idom.dom.add(b);
+	}
+
+	private static int number(int op, int val, int a, int b) {
+		Key k = new Key(op, val, a, b);
+		Integer n = numbers.get(k);
+		if (n == null) numbers.put(k, n = nextVn++);
+		return n;
+	}
+
+	// Value number of the pure expression n
+	private static int vn(Node n) {
+		switch (n.op) {
+			case Code.const_:
+				return number(Code.const_, n.val, 0, 0);
+			case Code.load: {
+				Val v = n.v = find(n.v);
+				if (v.kind == Val.Con) return number(Code.const_, (int)v.lat, 0, 0);
+				if (v.vn < 0) v.vn = nextVn++;
+				return v.vn;
+			}
+			case Code.add: case Code.mul: { // commutative
+				int a = vn(n.kid[0]), b = vn(n.kid[1]);
+				return number(n.op, 0, Math.min(a, b), Math.max(a, b));
+			}
+			case Code.neg:
+				return number(n.op, 0, vn(n.kid[0]), 0);
+			default:
+				return number(n.op, 0, vn(n.kid[0]), vn(n.kid[1]));
+		}
+	}
+
+	// Replace the largest parts of n that are available in a value by a use of it
+	private static Node reuse(Node n) {
+		if (n.op == Code.load || n.op == Code.const_) return n;
+		if (pure(n)) {
+			Val v = avail.get(vn(n));
+			if (v != null) return use(v);
+		}
+		for (int i = 0; i < n.kid.length; i++) n.kid[i] = reuse(n.kid[i]);
+		return n;
+	}
+
+	// Number the values of b and of the blocks that it dominates
+	private static void number(Block b, ArrayList<Integer> added) {
+		int mark = added.size();
+		for (Node s: b.stats) {
+			for (int i = 0; i < s.kid.length; i++) s.kid[i] = reuse(s.kid[i]);
+			if (s.op == Code.store && s.v.same == null && pure(s.kid[0])) {
+				int k = vn(s.kid[0]);
+				Val v = avail.get(k);
+				if (v != null) s.v.same = v; // computed before
+				else {
+					s.v.vn = k;
+					avail.put(k, s.v);
+					added.add(k);
+				}
+			}
+		}
+		if (b.exit != null)
+			for (int i = 0; i < b.exit.kid.length; i++) b.exit.kid[i] = reuse(b.exit.kid[i]);
+		for (Block d: b.dom) number(d, added);
+		while (added.size() > mark) avail.remove(added.remove(added.size() - 1));
+	}
+
+	private static void numbering() {
+		numbers = new HashMap<>();
+		avail = new HashMap<>();
+		nextVn = 0;
+		number(entry, new ArrayList<>());
+	}
+
+	//----- loops
+
+	// A natural loop
+	private static class Loop {
+		Block head, pre;				// pre: the only block before the loop; it goes on to head
+		HashSet<Block> body = new HashSet<>();				// with head
+		ArrayList<Block> latches = new ArrayList<>();	// blocks that jump back to head
+		boolean calls;					// the loop calls methods
+		HashSet<Integer> statics = new HashSet<>(), fields = new HashSet<>();	// stored in the loop
+		HashSet<Val> nonNull = new HashSet<>();	// references dereferenced before the loop
+		HashSet<Node> first = new HashSet<>();	// evaluated first whenever head is
+		ArrayList<Node> hoisted = new ArrayList<>();	// expressions computed in pre
+		ArrayList<Val> hoistedVal = new ArrayList<>();
+		int unrolled, reduced;
+	}
+
+	private static boolean dominates(Block a, Block b) {
+		while (b != a && b != entry) b = b.idom;
+		return b == a;
+	}
+
+	// The natural loops, inner loops first; the body of a loop is its head and
+	// the blocks from which a jump back to the head is reached without passing it
+	private static ArrayList<Loop> findLoops() {
+		LinkedHashMap<Block, Loop> at = new LinkedHashMap<>();
+		for (Block t: order)
+			for (Block h: t.succ) {
+				if (!dominates(h, t)) continue;
+				Loop L = at.get(h);
+				if (L == null) {
+					L = new Loop();
+					L.head = h; L.body.add(h);
+					at.put(h, L);
+				}
+				L.latches.add(t);
+				ArrayDeque<Block> work = new ArrayDeque<>();
+				if (L.body.add(t)) work.push(t);
+				while (!work.isEmpty())
+					for (Block p: work.pop().pred)
+						if (L.body.add(p)) work.push(p);
+			}
+		ArrayList<Loop> loops = new ArrayList<>(at.values());
+		loops.sort((x, y) -> x.body.size() - y.body.size());
+		return loops;
+	}
+
+	// Give L a block before the loop that only goes on to its head, splitting
+	// the edge into the loop if necessary; false if the loop has several entries
+	private static boolean preheader(Loop L, ArrayList<Loop> loops) {
+		Block h = L.head, p = null;
+		for (Block x: h.pred)
+			if (!L.body.contains(x)) {
+				if (p != null) return false;
+				p = x;
+			}
+		if (p == null) return false;
+		if (p.succ.length == 1) {
+			L.pre = p;
+			return true;
+		}
+		Block x = new Block();
+		x.start = h.start; x.reached = true;
+		x.succ = new Block[] {h}; x.pred.add(p);
+		x.idom = p; h.idom = x;
+		p.succ[p.succ[0] == h ? 0 : 1] = x;
+		h.pred.set(h.pred.indexOf(p), x);
+		blocks.add(blocks.indexOf(h), x);
+		for (Loop M: loops)
+			if (M.body.contains(p) && M.body.contains(h)) M.body.add(x);
+		L.pre = x;
+		return true;
+	}
+
+	private static void effects(Node n, Loop L) {
+		if (n.op == Code.call) L.calls = true;
+		else if (n.op == Code.putstatic) L.statics.add(n.val);
+		else if (n.op == Code.putfield) L.fields.add(n.val);
+		for (Node k: n.kid) effects(k, L);
+	}
+
+	// Add the locals that n dereferences to refs
+	private static void derefs(Node n, HashSet<Val> refs) {
+		for (Node k: n.kid) derefs(k, refs);
+		switch (n.op) {
+			case Code.getfield: case Code.putfield: case Code.aload: case Code.astore:
+			case Code.baload: case Code.bastore: case Code.arraylength:
+				if (n.kid[0].op == Code.load) refs.add(find(n.kid[0].v));
+		}
+	}
+
+	// Add the nodes of n that are evaluated before anything that can trap or
+	// has an effect to set; false if n can trap or has an effect
+	private static boolean first(Node n, HashSet<Node> set) {
+		for (Node k: n.kid)
+			if (!first(k, set)) return false;
+		set.add(n);
+		switch (n.op) {
+			case Code.const_: case Code.load: case Code.store: case Code.getstatic:
+			case Code.add: case Code.sub: case Code.mul: case Code.shl: case Code.shr: case Code.neg:
+				return true;
+			case Code.div: case Code.rem:
+				return n.kid[1].op == Code.const_ && n.kid[1].val != 0;
+			default:
+				return false;
+		}
+	}
+
+	// What the loop changes and what is known when it is entered
+	private static void inspect(Loop L) {
+		for (Block b: L.body) {
+			for (Node s: b.stats) effects(s, L);
+			if (b.exit != null) effects(b.exit, L);
+		}
+		for (Block d = L.pre; ; d = d.idom) {
+			for (Node s: d.stats) derefs(s, L.nonNull);
+			if (d.exit != null) derefs(d.exit, L.nonNull);
+			if (d == entry) break;
+		}
+		for (Val v: vals)
+			if (v.kind == Val.Def && v.same == null && (v.def.kid[0].op == Code.new_ || v.def.kid[0].op == Code.newarray))
+				L.nonNull.add(v);
+		Block h = L.head;
+		boolean ok = true;
+		for (Node s: h.stats)
+			if (ok) ok = first(s, L.first);
+		if (ok && h.exit != null) first(h.exit, L.first);
+	}
+
+	private static boolean nonNull(Node ref, Loop L) {
+		return ref.op == Code.load && L.nonNull.contains(find(ref.v));
+	}
+
+	// True if n has the same value in every iteration of L and can be evaluated
+	// before the loop
+	private static boolean invariant(Node n, Loop L) {
+		switch (n.op) {
+			case Code.const_:
+				return true;
+			case Code.load: {
+				Val v = find(n.v);
+				return v.kind == Val.Con || v.kind == Val.Param || !L.body.contains(v.b);
+			}
+			case Code.add: case Code.sub: case Code.mul: case Code.shl: case Code.shr:
+				return invariant(n.kid[0], L) && invariant(n.kid[1], L);
+			case Code.div: case Code.rem:
+				return n.kid[1].op == Code.const_ && n.kid[1].val != 0 && invariant(n.kid[0], L);
+			case Code.neg:
+				return invariant(n.kid[0], L);
+			case Code.getstatic:
+				return !L.calls && !L.statics.contains(n.val);
+			case Code.getfield:
+				return !L.calls && !L.fields.contains(n.val) && invariant(n.kid[0], L)
+					&& (nonNull(n.kid[0], L) || L.first.contains(n));
+			case Code.arraylength:
+				return invariant(n.kid[0], L) && (nonNull(n.kid[0], L) || L.first.contains(n));
+			default:
+				return false;
+		}
+	}
+
+	private static boolean equal(Node a, Node b) {
+		if (a.op != b.op || a.val != b.val || a.kid.length != b.kid.length) return false;
+		if (a.op == Code.load && find(a.v) != find(b.v)) return false;
+		for (int i = 0; i < a.kid.length; i++)
+			if (!equal(a.kid[i], b.kid[i])) return false;
+		return true;
+	}
+
+	// A new value of variable var that e computes in b before statement i
+	private static Val define(Block b, int i, Node e, int var) {
+		Val v = newVal(Val.Def, var);
+		v.b = b; v.lat = Bottom;
+		v.def = new Node(Code.store, 0, e);
+		v.def.v = v;
+		b.stats.add(i, v.def);
+		return v;
+	}
+
+	// Value of the invariant expression e, computed at the end of the preheader
+	private static Val hoist(Node e, Loop L) {
+		for (int i = 0; i < L.hoisted.size(); i++)
+			if (equal(L.hoisted.get(i), e)) return L.hoistedVal.get(i);
+		Val v = define(L.pre, L.pre.stats.size(), e, -1);
+		L.hoisted.add(e); L.hoistedVal.add(v);
+		return v;
+	}
+
+	// Compute the largest invariant parts of n before the loop
+	private static Node lift(Node n, Loop L) {
+		if (n.kid.length == 0) return n;
+		if (invariant(n, L)) return use(hoist(n, L));
+		for (int i = 0; i < n.kid.length; i++) n.kid[i] = lift(n.kid[i], L);
+		return n;
+	}
+
+	// Loop-invariant code motion: assignments and expressions of at least two
+	// instructions whose value does not change in the loop move to the preheader
+	private static void hoist(Loop L) {
+		inspect(L);
+		for (Block b: blocks) {
+			if (!L.body.contains(b)) continue;
+			for (int i = 0; i < b.stats.size(); i++) {
+				Node s = b.stats.get(i);
+				if (s.op == Code.store && s.v.same != null) continue; // removed later
+				if (s.op == Code.store && s.kid[0].kid.length > 0 && invariant(s.kid[0], L)) {
+					b.stats.remove(i--);
+					Val v = null;
+					for (int k = 0; k < L.hoisted.size() && v == null; k++)
+						if (equal(L.hoisted.get(k), s.kid[0])) v = L.hoistedVal.get(k);
+					if (v != null) s.v.same = v;
+					else {
+						L.pre.stats.add(s);
+						s.v.b = L.pre;
+						L.hoisted.add(s.kid[0]); L.hoistedVal.add(s.v);
+					}
+				} else
+					for (int k = 0; k < s.kid.length; k++) s.kid[k] = lift(s.kid[k], L);
+			}
+			if (b.exit != null)
+				for (int k = 0; k < b.exit.kid.length; k++) b.exit.kid[k] = lift(b.exit.kid[k], L);
+		}
+	}
+
+	private static boolean leaf(Node n, Loop L) {
+		return n.op == Code.const_ || n.op == Code.load && invariant(n, L);
+	}
+
+	private static boolean isUse(Node n, Val i) {
+		return n.op == Code.load && find(n.v) == i;
+	}
+
+	// Step c of the induction variable i if e is i + c, c + i or i - c with an
+	// invariant c, else null
+	private static Node step(Node e, Val i, Loop L) {
+		if (e.op == Code.add || e.op == Code.sub) {
+			if (isUse(e.kid[0], i) && leaf(e.kid[1], L)) return e.kid[1];
+			if (e.op == Code.add && isUse(e.kid[1], i) && leaf(e.kid[0], L)) return e.kid[0];
+		}
+		return null;
+	}
+
+	// Factor f if n is i * f, f * i or i << c (f = 2^c) with an invariant f, else null
+	private static Node factor(Node n, Val i, Loop L) {
+		if (n.op == Code.mul) {
+			if (isUse(n.kid[0], i) && leaf(n.kid[1], L)) return n.kid[1];
+			if (isUse(n.kid[1], i) && leaf(n.kid[0], L)) return n.kid[0];
+		} else if (n.op == Code.shl && isUse(n.kid[0], i) && n.kid[1].op == Code.const_)
+			return constant(1 << n.kid[1].val);
+		return null;
+	}
+
+	// Count the products of i in n by factor
+	private static void count(Node n, Val i, Loop L, ArrayList<Node> factors, ArrayList<Integer> counts) {
+		Node f = factor(n, i, L);
+		if (f == null) {
+			for (Node k: n.kid) count(k, i, L, factors, counts);
+			return;
+		}
+		for (int k = 0; k < factors.size(); k++)
+			if (equal(factors.get(k), f)) { counts.set(k, counts.get(k) + 1); return; }
+		factors.add(f); counts.add(1);
+	}
+
+	// Replace the products i * f in n by j
+	private static Node replace(Node n, Val i, Node f, Val j, Loop L) {
+		Node g = factor(n, i, L);
+		if (g != null && equal(g, f)) return use(j);
+		for (int k = 0; k < n.kid.length; k++) n.kid[k] = replace(n.kid[k], i, f, j, L);
+		return n;
+	}
+
+	// The value of e in the preheader: a constant, an existing value or a new one
+	private static Val value(Node e, Loop L, int var) {
+		e = fold(e);
+		if (e.op == Code.const_) return con(e.val);
+		if (e.op == Code.load) return find(e.v);
+		return define(L.pre, L.pre.stats.size(), e, var);
+	}
+
+	private static Node copy(Node n) {
+		Node c = new Node(n.op, n.val, new Node[n.kid.length]);
+		for (int k = 0; k < n.kid.length; k++) c.kid[k] = copy(n.kid[k]);
+		c.v = n.v; c.m = n.m;
+		return c;
+	}
+
+	// Strength reduction: if the induction variable i (a phi of the head that
+	// becomes i + c or i - c at the end of the loop) is multiplied by the same
+	// invariant f at least three times, a new phi j = i * f replaces the products
+	// and goes up by c * f with i. A multiplication costs as much as an
+	// addition in the VM, so it only pays off if it saves more instructions than
+	// the update of j costs.
+	private static void reduce(Loop L) {
+		Block h = L.head;
+		if (h.pred.size() != 2 || L.latches.size() != 1) return;
+		int pi = h.pred.indexOf(L.pre), ti = 1 - pi;
+		for (Val i: new ArrayList<>(h.phis)) {
+			Val next = find(i.in[ti]);
+			if (next.kind != Val.Def || !L.body.contains(next.b)) continue;
+			Node e = next.def.kid[0], c = step(e, i, L);
+			if (c == null) continue;
+			ArrayList<Node> factors = new ArrayList<>();
+			ArrayList<Integer> counts = new ArrayList<>();
+			for (Block b: L.body) {
+				for (Node s: b.stats) count(s, i, L, factors, counts);
+				if (b.exit != null) count(b.exit, i, L, factors, counts);
+			}
+			for (int k = 0; k < factors.size(); k++) {
+				if (counts.get(k) < 3) continue;
+				Node f = factors.get(k);
+				int x = nextVar++;
+				Val j = newVal(Val.Phi, x);
+				j.b = h; j.lat = Bottom;
+				j.in = new Val[2];
+				j.in[pi] = value(new Node(Code.mul, 0, use(i.in[pi]), copy(f)), L, x);
+				Val d = value(new Node(Code.mul, 0, copy(c), copy(f)), L, -1);
+				for (Block b: L.body) {
+					for (Node s: b.stats) replace(s, i, f, j, L);
+					if (b.exit != null) replace(b.exit, i, f, j, L);
+				}
+				j.in[ti] = define(next.b, next.b.stats.indexOf(next.def) + 1, new Node(e.op, 0, use(j), use(d)), x);
+				h.phis.add(j);
+				L.reduced++;
+			}
+		}
+	}
+
+	private static Val mapped(HashMap<Val, Val> map, Val v) {
+		v = find(v);
+		Val w = map.get(v);
+		return w != null ? w : v;
+	}
+
+	private static Node copy(Node n, HashMap<Val, Val> map) {
+		Node c = new Node(n.op, n.val, new Node[n.kid.length]);
+		for (int k = 0; k < n.kid.length; k++) c.kid[k] = copy(n.kid[k], map);
+		c.m = n.m;
+		if (n.v != null) c.v = n.op == Code.store ? map.get(n.v) : mapped(map, n.v);
+		return c;
+	}
+
+	private static int size(Node n) {
+		int s = 1;
+		for (Node k: n.kid) s += size(k);
+		return s;
+	}
+
+	// The first phi of h that n uses
+	private static Val phiOf(Node n, Block h) {
+		if (n.op == Code.load) {
+			Val v = find(n.v);
+			return v.kind == Val.Phi && v.b == h ? v : null;
+		}
+		for (Node k: n.kid) {
+			Val v = phiOf(k, h);
+			if (v != null) return v;
+		}
+		return null;
+	}
+
+	// Value of the pure expression n if i is x and all other values are
+	// constants, else Bottom
+	private static long eval(Node n, Val i, int x) {
+		switch (n.op) {
+			case Code.const_:
+				return n.val;
+			case Code.load: {
+				Val v = find(n.v);
+				return v == i ? x : v.kind == Val.Con || v.kind == Val.Param ? v.lat : Bottom;
+			}
+			case Code.neg: {
+				long a = eval(n.kid[0], i, x);
+				return a == Bottom ? a : -(int)a;
+			}
+			case Code.add: case Code.sub: case Code.mul: case Code.div: case Code.rem: case Code.shl: {
+				long a = eval(n.kid[0], i, x), b = eval(n.kid[1], i, x);
+				if (a == Bottom || b == Bottom || (n.op == Code.div || n.op == Code.rem) && b == 0) return Bottom;
+				return Code.fold(n.op, (int)a, (int)b);
+			}
+			default:
+				return Bottom;
+		}
+	}
+
+	// Partial unrolling: the body of an inner loop that runs a constant number of
+	// times t (its head only tests a counter i that goes from a constant by a
+	// constant step) is repeated u times, where u divides t, so that the head
+	// is tested t / u + 1 times. The values of the head's phis in copy k are
+	// those at the end of copy k - 1.
+	private static void unroll(Loop L, ArrayList<Loop> loops) {
+		Block h = L.head;
+		if (L.pre == null || h.pred.size() != 2 || L.latches.size() != 1 || !h.stats.isEmpty() || !isCond(h.exit)) return;
+		for (Loop M: loops)
+			if (M != L && L.body.contains(M.head)) return;
+		int pi = h.pred.indexOf(L.pre), ti = 1 - pi;
+		Block t = L.latches.get(0);
+		int in = L.body.contains(h.succ[0]) ? 0 : 1;
+		Block first = h.succ[in];
+		if (first == h || !L.body.contains(first) || L.body.contains(h.succ[1 - in]) || first.pred.size() != 1) return;
+		ArrayList<Block> body = new ArrayList<>();
+		int last = -1, size = 0;
+		for (int k = 0; k < blocks.size(); k++) {
+			Block b = blocks.get(k);
+			if (b == h || !L.body.contains(b)) continue;
+			for (Block s: b.succ)
+				if (!L.body.contains(s)) return; // leaves the loop elsewhere
+			body.add(b);
+			last = k;
+			for (Node s: b.stats) size += size(s);
+			if (b.exit != null) size += size(b.exit);
+		}
+		// the counter and the number of iterations
+		Val i = phiOf(h.exit, h);
+		if (i == null) return;
+		Val init = find(i.in[pi]), next = find(i.in[ti]);
+		if (init.kind != Val.Con && init.kind != Val.Param || init.lat == Bottom) return;
+		if (next.kind != Val.Def || !L.body.contains(next.b)) return;
+		Node e = next.def.kid[0], c = step(e, i, L);
+		if (c == null || c.op != Code.const_) return;
+		int trips = 0;
+		for (int x = (int)init.lat; ; x = Code.fold(e.op, x, c.val)) {
+			long a = eval(h.exit.kid[0], i, x), b = eval(h.exit.kid[1], i, x);
+			if (a == Bottom || b == Bottom) return;
+			if ((test(h.exit.op, (int)a, (int)b) ? 1 : 0) != in) break;
+			if (++trips > 1 << 16) return;
+		}
+		int u = 0, delta = e.op == Code.sub ? -c.val : c.val;
+		for (int k: new int[] {4, 3, 2})
+			if (trips > 0 && trips % k == 0 && size * k <= 256) { u = k; break; }
+		if (u == 0) return;
+		// copies 2..u
+		HashMap<Val, Val> map = new HashMap<>();
+		Block latch[] = new Block[u], into[] = new Block[u];	// per copy
+		latch[0] = t;
+		for (int k = 1; k < u; k++) {
+			HashMap<Val, Val> prev = map;
+			map = new HashMap<>();
+			for (Val p: h.phis) map.put(p, mapped(prev, p.in[ti]));
+			HashMap<Block, Block> bmap = new HashMap<>();
+			for (Block b: body) {
+				Block c2 = new Block();
+				c2.start = b.start; c2.reached = true;
+				bmap.put(b, c2);
+				for (Val p: b.phis) {
+					Val q = newVal(Val.Phi, p.var);
+					q.b = c2; q.lat = Bottom;
+					c2.phis.add(q);
+					map.put(p, q);
+				}
+				for (Node s: b.stats)
+					if (s.op == Code.store && s.v.same == null) {
+						Val d = newVal(Val.Def, s.v.var);
+						d.b = c2; d.lat = Bottom;
+						map.put(s.v, d);
+					}
+			}
+			for (Block b: body) {
+				Block c2 = bmap.get(b);
+				for (Node s: b.stats)
+					if (s.op != Code.store || s.v.same == null) {
+						Node n = copy(s, map);
+						if (n.op == Code.store) n.v.def = n;
+						c2.stats.add(n);
+					}
+				if (b.exit != null) c2.exit = copy(b.exit, map);
+				c2.succ = new Block[b.succ.length];
+				for (int j = 0; j < b.succ.length; j++) c2.succ[j] = b.succ[j] == h ? h : bmap.get(b.succ[j]);
+				for (Block p: b.pred) c2.pred.add(p == h ? latch[k - 1] : bmap.get(p));
+				for (Val p: b.phis) {
+					Val q = map.get(p);
+					q.in = new Val[p.in.length];
+					for (int j = 0; j < q.in.length; j++) q.in[j] = mapped(map, p.in[j]);
+				}
+			}
+			// the counter of copy k from i, so that those of the copies before are
+			// only computed if the body uses them
+			map.get(next).def.kid[0] = new Node(Code.add, 0, use(i), constant((k + 1) * delta));
+			for (Block b: body) blocks.add(++last, bmap.get(b));
+			latch[k] = bmap.get(t); into[k] = bmap.get(first);
+		}
+		for (int k = 0; k < u - 1; k++)
+			for (int j = 0; j < latch[k].succ.length; j++)
+				if (latch[k].succ[j] == h) latch[k].succ[j] = into[k + 1];
+		for (Val p: h.phis) p.in[ti] = mapped(map, p.in[ti]);
+		h.pred.set(ti, latch[u - 1]);
+		L.unrolled = u;
+	}
+
+	// Optimize the loops, inner loops first, and list those that changed
+	private static void loops() {
+		ArrayList<Loop> loops = findLoops();
+		for (Loop L: loops)
+			if (preheader(L, loops)) {
+				hoist(L);
+				reduce(L);
+			}
+		for (Loop L: loops) unroll(L, loops);
+		for (Loop L: loops) {
+			int n = L.hoisted.size();
+			if (n + L.reduced + L.unrolled == 0) continue;
+			Integer line = lines.get(start + L.head.start);
+			StringBuilder s = new StringBuilder("-- loop in " + method.name);
+			s.append(line != null ? " at line " + line : " at address " + (start + L.head.start)).append(':');
+			String sep = " ";
+			if (n > 0) { s.append(sep).append(n).append(" hoisted"); sep = ", "; }
+			if (L.reduced > 0) { s.append(sep).append(L.reduced).append(" reduced"); sep = ", "; }
+			if (L.unrolled > 0) s.append(sep).append("unrolled ").append(L.unrolled).append(" times");
+			changed.add(s.toString());
+		}
+		sort();
+	}
+
+	//----- dead code elimination
+
+	private static void live(Val v, ArrayList<Val> work) {
+		v = find(v);
+		if (!v.live && v.kind != Val.Con) {
+			v.live = true;
+			work.add(v);
+		}
+	}
+
+	private static void mark(Node n, ArrayList<Val> work) {
+		if (n.op == Code.load) live(n.v, work);
+		else for (Node k: n.kid) mark(k, work);
+	}
+
+	private static void sweep() {
+		ArrayList<Val> work = new ArrayList<>();
+		for (Block b: order) {
+			for (Node s: b.stats)
+				if (s.op == Code.store ? s.v.same == null && !pure(s.kid[0]) : s.op != Code.pop || !pure(s.kid[0]))
+					mark(s, work);
+			if (b.exit != null) mark(b.exit, work);
+		}
+		while (!work.isEmpty()) {
+			Val v = work.remove(work.size() - 1);
+			if (v.kind == Val.Phi) for (Val w: v.in) live(w, work);
+			else if (v.kind == Val.Def) mark(v.def, work);
+		}
+		for (Block b: order) {
+			b.phis.removeIf(p -> !p.live);
+			for (int i = 0; i < b.stats.size(); i++) {
+				Node s = b.stats.get(i);
+				if (s.op == Code.store && !s.v.live) {
+					if (s.v.same != null || pure(s.kid[0])) b.stats.remove(i--);
+					else b.stats.set(i, new Node(Code.pop, 0, s.kid[0])); // keep the effects
+				} else if (s.op == Code.pop && pure(s.kid[0])) b.stats.remove(i--);
+			}
+		}
+	}
+
+	//----- back to local variables
+
+	private static void use(BitSet live, Val v) {
+		v = find(v);
+		if (v.kind == Val.Con) return;
+		if (v.id < 0) throw notFit;
+		live.set(v.id);
+	}
+
+	private static void uses(BitSet live, Node n) {
+		if (n.op == Code.load) use(live, n.v);
+		else for (Node k: n.kid) uses(live, k);
+	}
+
+	private static void interfere(Val v, BitSet live) {
+		for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1))
+			if (i != v.id) {
+				v.adj.set(i);
+				locals.get(i).adj.set(v.id);
+			}
+	}
+
+	// Values live at the end of b: those live at the start of its successors and
+	// the operands of their phis that come from b
+	private static BitSet liveOut(Block b) {
+		BitSet live = new BitSet();
+		for (Block s: b.succ) {
+			live.or(s.liveIn);
+			int j = s.pred.indexOf(b);
+			for (Val p: s.phis) use(live, p.in[j]);
+		}
+		return live;
+	}
+
+	// Go backwards through b from the values live at its end to those live at
+	// its start; if interfering, a value defined interferes with the values live
+	// after its definition
+	private static void transfer(Block b, BitSet live, boolean interfering) {
+		if (b.exit != null) uses(live, b.exit);
+		for (int i = b.stats.size() - 1; i >= 0; i--) {
+			Node s = b.stats.get(i);
+			if (s.op == Code.store) {
+				if (interfering) interfere(s.v, live);
+				live.clear(s.v.id);
+			}
+			uses(live, s);
+		}
+		for (Val p: b.phis) // defined together at the start
+			if (interfering) interfere(p, live);
+		for (Val p: b.phis) live.clear(p.id);
+	}
+
+	// Give every value a local variable
+	private static void allocate() {
+		locals = new ArrayList<>();
+		for (Val p: params) locals.add(p);
+		for (Block b: order) {
+			locals.addAll(b.phis);
+			for (Node s: b.stats)
+				if (s.op == Code.store) locals.add(s.v);
+		}
+		for (int i = 0; i < locals.size(); i++) {
+			Val v = locals.get(i);
+			v.id = i; v.adj = new BitSet();
+		}
+		boolean changed;
+		do {
+			changed = false;
+			for (int i = order.size() - 1; i >= 0; i--) {
+				Block b = order.get(i);
+				BitSet live = liveOut(b);
+				transfer(b, live, false);
+				if (!live.equals(b.liveIn)) { b.liveIn = live; changed = true; }
+			}
+		} while (changed);
+		for (Block b: order) transfer(b, liveOut(b), true);
+		// color in the order of the definitions, preferring the old variable and
+		// for phis the variable of an operand
+		nSlots = nPars;
+		for (Val v: locals) {
+			if (v.kind == Val.Param) { // stays where enter puts it
+				v.slot = v.var;
+				if (v.live) nSlots = Math.max(nSlots, v.slot + 1);
+				continue;
+			}
+			BitSet used = new BitSet();
+			for (int i = v.adj.nextSetBit(0); i >= 0; i = v.adj.nextSetBit(i + 1))
+				if (locals.get(i).slot >= 0) used.set(locals.get(i).slot);
+			int s = v.var < 0 || used.get(v.var) ? -1 : v.var;
+			if (s < 0 && v.kind == Val.Phi)
+				for (Val w: v.in) {
+					w = find(w);
+					if (w.kind != Val.Con && w.slot >= 0 && !used.get(w.slot)) { s = w.slot; break; }
+				}
+			if (s < 0) s = used.nextClearBit(0);
+			v.slot = s;
+			nSlots = Math.max(nSlots, s + 1);
+		}
+	}
+
+	private static Node move(int dst, int src, Val v) {
+		Node x = v != null && v.kind == Val.Con ? constant((int)v.lat) : new Node(Code.load, src);
+		return new Node(Code.store, dst, x);
+	}
+
+	// Copies into the phis of s on the edge from b as a sequence of moves; a
+	// cycle of copies goes through the local variable temp
+	private static Node[] moves(Block b, Block s, int temp) {
+		ArrayList<Node> list = new ArrayList<>();
+		int j = s.pred.indexOf(b), n = 0;
+		int dst[] = new int[s.phis.size()], src[] = new int[s.phis.size()];
+		Val val[] = new Val[s.phis.size()];
+		for (Val p: s.phis) {
+			Val v = find(p.in[j]);
+			if (v.kind == Val.Con || v.slot != p.slot) {
+				dst[n] = p.slot; val[n] = v; src[n] = v.kind == Val.Con ? -1 : v.slot;
+				n++;
+			}
+		}
+		boolean done[] = new boolean[n];
+		for (int left = n; left > 0; ) {
+			boolean progress = false;
+			for (int i = 0; i < n; i++) {
+				if (done[i]) continue;
+				boolean blocked = false;
+				for (int k = 0; k < n && !blocked; k++) blocked = !done[k] && k != i && src[k] == dst[i];
+				if (!blocked) {
+					list.add(move(dst[i], src[i], val[i]));
+					done[i] = true; left--; progress = true;
+				}
+			}
+			if (!progress) {
+				int i = 0;
+				while (done[i]) i++;
+				list.add(move(temp, dst[i], null));
+				for (int k = 0; k < n; k++)
+					if (!done[k] && src[k] == dst[i]) { src[k] = temp; val[k] = null; }
+			}
+		}
+		return list.toArray(new Node[0]);
+	}
+
+	//----- code generation
+
+	private static void local(int short0, int op, int slot) {
+		if (slot <= 3) Code.put(short0 + slot);
+		else { Code.put(op); Code.put(slot); }
+	}
+
+	private static void emit(Node n) {
+		if (n.op == Code.load) {
+			Val v = n.v == null ? null : find(n.v);
+			if (v != null && v.kind == Val.Con) Code.load(new Operand((int)v.lat));
+			else local(Code.load0, Code.load, v == null ? n.val : v.slot);
+			return;
+		}
+		if (n.op == Code.const_) {
+			Code.load(new Operand(n.val));
+			return;
+		}
+		for (Node k: n.kid) emit(k);
+		switch (n.op) {
+			case Code.store:
+				local(Code.store0, Code.store, n.v == null ? n.val : n.v.slot);
+				break;
+			case Code.getstatic: case Code.putstatic: case Code.getfield: case Code.putfield: case Code.new_:
+				Code.put(n.op); Code.put2(n.val);
+				break;
+			case Code.newarray: case Code.trap:
+				Code.put(n.op); Code.put(n.val);
+				break;
+			case Code.call:
+				Code.putCall(n.val);
+				break;
+			case Code.return_:
+				Code.put(Code.exit); Code.put(Code.return_);
+				break;
+			default:
+				Code.put(n.op);
+		}
+	}
+
+	private static void place(Block b) {
+		b.adr = Code.pc;
+		for (int f: b.fixups) Code.fixup(f);
+	}
+
+	private static void jump(int op, Block b) {
+		if (b.adr >= 0) Code.jump(op, b.adr);
+		else {
+			Code.jump(op, 0);
+			b.fixups.add(Code.pc - 2);
+		}
+	}
+
+	private static void generate() {
+		boolean temp = false;
+		for (Block b: blocks) {
+			b.moves = new Node[b.succ.length][];
+			for (int i = 0; i < b.succ.length; i++) {
+				b.moves[i] = moves(b, b.succ[i], nSlots);
+				for (Node m: b.moves[i]) temp |= m.val == nSlots || m.kid[0].op == Code.load && m.kid[0].val == nSlots;
+			}
+		}
+		int size = temp ? nSlots + 1 : nSlots;
+		if (size > Code.maxVars) throw notFit;
+		Code.restart(start);
+		Code.put(Code.enter); Code.put(nPars); Code.put(size);
+		ArrayList<Block> stubs = new ArrayList<>(); // edge blocks for the copies on taken conditional jumps
+		for (int i = 0; i < blocks.size(); i++) {
+			Block b = blocks.get(i), next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+			place(b);
+			for (Node s: b.stats) emit(s);
+			if (b.exit == null || b.exit.op == Code.jmp) {
+				for (Node m: b.moves[0]) emit(m);
+				if (b.succ[0] != next) jump(Code.jmp, b.succ[0]);
+			} else if (isCond(b.exit)) {
+				emit(b.exit.kid[0]); emit(b.exit.kid[1]);
+				Block t = b.succ[1];
+				if (b.moves[1].length > 0) {
+					Block stub = new Block();
+					stub.succ = new Block[] {t};
+					stub.moves = new Node[][] {b.moves[1]};
+					stubs.add(stub);
+					t = stub;
+				}
+				jump(b.exit.op, t);
+				for (Node m: b.moves[0]) emit(m);
+				if (b.succ[0] != next) jump(Code.jmp, b.succ[0]);
+			} else emit(b.exit);
+		}
+		for (Block s: stubs) {
+			place(s);
+			for (Node m: s.moves[0]) emit(m);
+			jump(Code.jmp, s.succ[0]);
+		}
+	}
+
+	//------------------------------------
+
+	// The loop at address adr starts in the given source line
+	public static void loop(int adr, int line) {
+		lines.put(adr, line);
+	}
+
+	// Optimize the code of method m, which runs from m.adr to Code.pc
+	public static void method(Obj m) {
+		methodAt.put(m.adr, m);
+		method = m;
+		start = m.adr;
+		code = Code.get(start, Code.pc);
+		changed = new ArrayList<>();
+		try {
+			build();
+			nextVar = nVars;
+			sort();
+			ssa();
+			propagate();
+			prune();
+			dominators();
+			numbering();
+			if (loops) loops();
+			sweep();
+			allocate();
+			generate();
+			optimized++;
+			report.addAll(changed);
+		} catch (Unfit e) {
+			unfit++;
+		}
+		code = null; blocks = order = null; vals = locals = null;
+		entry = null; params = null; numbers = null; avail = null;
+		method = null; changed = null;
+		lines.clear();
+	}
+}
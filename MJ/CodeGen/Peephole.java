@@ -0,0 +1,181 @@
+/* MicroJava Peephole Optimizer
+   ============================
+Cleans up the code of a whole program after parsing, before it is written:
+  - jumps to unconditional jumps go to the final target directly
+  - a conditional jump over an unconditional jump becomes the inverse
+    conditional jump to the target of the unconditional one
+  - unconditional jumps to the next instruction are removed
+  - code behind jmp, return and trap that no jump or call reaches is removed
+  - instruction pairs without effect are removed: const0 add, const0 sub,
+    const1 mul, const1 div, neg neg, and load n store n or getstatic n
+    putstatic n (an assignment x = x)
+The passes are repeated until nothing changes. A pair is only removed if no
+jump goes to its second instruction; a jump to a removed instruction goes to
+the next one that is kept. Every enter (method entry) is kept.
+Jumps and calls get their narrow or wide form anew for the new addresses
+(branch relaxation as in Code.relax, over the whole program).
+*/
+package MJ.CodeGen;
+
+import java.util.Arrays;
+
+public class Peephole {
+	public static int removedInstrs, removedBytes;	// by the last run
+	public static int map[];	// new address of every old instruction address and of the end
+
+	private static int n;				// number of instructions
+	private static int adr[];		// old address of each instruction
+	private static int op[];		// opcode; the narrow one for wide jumps and calls
+	private static int val[];		// load, store, getstatic, putstatic: address; const: value;
+															// jumps and calls: target instruction
+	private static boolean dead[], label[];
+	private static final int inverse[] = {1, 0, 5, 4, 3, 2};	// of the compare operators
+
+	private static boolean isJump(int op) { return op >= Code.jmp && op <= Code.jge; }
+
+	// Length of the instruction with opcode op in the code
+	static int length(int op) {
+		switch (op) {
+			case Code.load: case Code.store: case Code.newarray: case Code.trap:
+				return 2;
+			case Code.getstatic: case Code.putstatic: case Code.getfield: case Code.putfield:
+			case Code.new_: case Code.enter:
+			case Code.jmp: case Code.jeq: case Code.jne: case Code.jlt: case Code.jle: case Code.jgt: case Code.jge:
+			case Code.call:
+				return 3;
+			case Code.const_:
+			case Code.jmp_w: case Code.jeq_w: case Code.jne_w: case Code.jlt_w: case Code.jle_w: case Code.jgt_w: case Code.jge_w:
+			case Code.call_w:
+				return 5;
+			default:
+				return 1;
+		}
+	}
+
+	private static int get2(byte[] c, int p) { return (c[p] & 0xff) << 8 | c[p + 1] & 0xff; }
+
+	private static int get4(byte[] c, int p) { return get2(c, p) << 16 | get2(c, p + 2); }
+
+	// Split code[0..len-1] into instructions; false if a jump or call target is not an instruction
+	private static boolean decode(byte[] code, int len) {
+		int at[] = new int[len + 1]; // instruction at each address, -1 inside an instruction
+		Arrays.fill(at, -1);
+		n = 0;
+		for (int p = 0; p < len; p += length(code[p])) n++;
+		adr = new int[n + 1]; op = new int[n + 1]; val = new int[n + 1];
+		dead = new boolean[n + 1]; label = new boolean[n + 1];
+		int i = 0;
+		for (int p = 0; p < len; p += length(code[p]), i++) {
+			int x = code[p];
+			adr[i] = p; at[p] = i;
+			if (x >= Code.load0 && x <= Code.load3) { op[i] = Code.load; val[i] = x - Code.load0; }
+			else if (x >= Code.store0 && x <= Code.store3) { op[i] = Code.store; val[i] = x - Code.store0; }
+			else if (x >= Code.const0 && x <= Code.const5) { op[i] = Code.const_; val[i] = x - Code.const0; }
+			else if (x == Code.const_m1) { op[i] = Code.const_; val[i] = -1; }
+			else if (x == Code.const_) { op[i] = x; val[i] = get4(code, p + 1); }
+			else if (x == Code.load || x == Code.store) { op[i] = x; val[i] = code[p + 1] & 0xff; }
+			else if (x == Code.getstatic || x == Code.putstatic) { op[i] = x; val[i] = get2(code, p + 1); }
+			else if (x >= Code.jmp_w) { op[i] = x - Code.wide; val[i] = get4(code, p + 1); }
+			else if (isJump(x) || x == Code.call) { op[i] = x; val[i] = get2(code, p + 1); }
+			else op[i] = x;
+		}
+		adr[n] = len; at[len] = n; op[n] = Code.trap; // end of the code
+		for (i = 0; i < n; i++)
+			if (isJump(op[i]) || op[i] == Code.call) {
+				int t = val[i];
+				if (t < 0 || t > len || at[t] < 0) return false;
+				val[i] = at[t];
+			}
+		return true;
+	}
+
+	// First instruction from i on that is kept
+	private static int live(int i) {
+		while (dead[i]) i++;
+		return i;
+	}
+
+	private static boolean isConst(int i, int v) { return op[i] == Code.const_ && val[i] == v; }
+
+	// One pass over all instructions; true if something changed
+	private static boolean pass(int main) {
+		Arrays.fill(label, false);
+		label[main] = true;
+		for (int i = 0; i < n; i++)
+			if (!dead[i] && (isJump(op[i]) || op[i] == Code.call)) label[val[i] = live(val[i])] = true;
+			else if (op[i] == Code.enter) label[i] = true;
+		boolean changed = false;
+		for (int i = 0; i < n; i++) {
+			if (dead[i]) continue;
+			int j = live(i + 1), x = op[i];
+			if (isJump(x)) {
+				val[i] = live(val[i]);
+				for (int k = 0; k < n && op[val[i]] == Code.jmp && val[val[i]] != val[i]; k++) { // jump to a jump
+					val[i] = live(val[val[i]]); changed = true;
+					label[val[i]] = true;
+				}
+				if (x == Code.jmp && val[i] == j) { dead[i] = true; changed = true; continue; }
+				if (x != Code.jmp && op[j] == Code.jmp && !label[j] && val[i] == live(j + 1)) { // over a jmp
+					op[i] = Code.jeq + inverse[x - Code.jeq]; val[i] = val[j];
+					dead[j] = true; changed = true;
+					continue;
+				}
+			}
+			if (x == Code.jmp || x == Code.return_ || x == Code.trap) { // unreachable code behind it
+				for (; j < n && !label[j]; j = live(j + 1)) { dead[j] = true; changed = true; }
+				continue;
+			}
+			if (j < n && !label[j]) {
+				int y = op[j];
+				if (isConst(i, 0) && (y == Code.add || y == Code.sub)
+					|| isConst(i, 1) && (y == Code.mul || y == Code.div)
+					|| x == Code.neg && y == Code.neg
+					|| x == Code.load && y == Code.store && val[i] == val[j]
+					|| x == Code.getstatic && y == Code.putstatic && val[i] == val[j]) {
+					dead[i] = dead[j] = true; changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	// Optimize code[0..len-1] with the main method at mainPc; returns the new code
+	public static byte[] optimize(byte[] code, int len, int mainPc) {
+		removedInstrs = removedBytes = 0;
+		map = new int[len + 1];
+		if (!decode(code, len)) { // not generated by Code; left alone
+			for (int p = 0; p <= len; p++) map[p] = p;
+			return Arrays.copyOf(code, len);
+		}
+		int main = 0;
+		while (adr[main] < mainPc) main++;
+		while (pass(main)) ;
+		// sizes and addresses: widen the jumps and calls whose targets are too far until all fit
+		int size[] = new int[n], newAdr[] = new int[n + 1];
+		for (int i = 0; i < n; i++) size[i] = dead[i] ? 0 : isJump(op[i]) || op[i] == Code.call ? 3 : length(code[adr[i]]);
+		boolean changed;
+		do {
+			for (int i = 0; i < n; i++) newAdr[i + 1] = newAdr[i] + size[i];
+			changed = false;
+			for (int i = 0; i < n; i++)
+				if (!dead[i] && (isJump(op[i]) || op[i] == Code.call) && size[i] == 3 && newAdr[val[i]] >= Code.farAdr) {
+					size[i] = 5; changed = true;
+				}
+		} while (changed);
+		// new code
+		byte b[] = new byte[newAdr[n]];
+		for (int i = 0; i < n; i++) {
+			int p = newAdr[i];
+			if (dead[i]) removedInstrs++;
+			else if (isJump(op[i]) || op[i] == Code.call) {
+				int t = newAdr[val[i]];
+				if (size[i] == 3) { b[p] = (byte)op[i]; b[p + 1] = (byte)(t >> 8); b[p + 2] = (byte)t; }
+				else { b[p] = (byte)(op[i] + Code.wide); b[p + 1] = (byte)(t >> 24); b[p + 2] = (byte)(t >> 16); b[p + 3] = (byte)(t >> 8); b[p + 4] = (byte)t; }
+			} else
+				System.arraycopy(code, adr[i], b, p, size[i]);
+		}
+		removedBytes = len - b.length;
+		for (int i = n; i >= 0; i--) map[adr[i]] = newAdr[live(i)];
+		return b;
+	}
+}
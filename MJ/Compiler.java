@@ -1,37 +1,102 @@
-/* MicroJava Main Class  (HM 23-03-09)
-   ====================
-*/
-package MJ;
-
-import java.io.*;
-import MJ.CodeGen.*;
-
-public class Compiler {
-
-	private static String objFileName(String s) {
-		int i = s.lastIndexOf('.');
-		if (i < 0) return s + ".obj"; else return s.substring(0, i) + ".obj";
-	}
-
-	// Main procedure of MicroJava compiler
-	public static void main(String args[]) {
-		if (args.length > 0) {
-			String source = args[0];
-			String output = objFileName(source);
-			try {
-				Scanner.init(new InputStreamReader(new FileInputStream(source)));
-				Parser.parse();
-				if (Parser.errors == 0) {
-					try {
-						Code.write(new FileOutputStream(output));
-					} catch (IOException e) {
-						System.out.println("-- cannot open output file "+output);
-					}
-				}
-			} catch (IOException e) {
-				System.out.println("-- cannot open input file " + source);
-			}
-		} else System.out.println("-- synopsis: java MJ.Compiler <inputfileName>");
-	}
-
+/* MicroJava Main Class  (HM 23-03-09)
+   ====================
+Syntax: java MJ.Compiler file.mj [-parallel] [-O2] [-loops] [-inline[=size[,depth]]]
+With -parallel the source is scanned in chunks on all processors before
+parsing (see Scanner.scanParallel), which pays off for sources of many MB.
+With -O2 the code of every method is optimized in SSA form at the end of the
+method (see CodeGen.Optimizer). -loops implies -O2 and also optimizes the
+loops: invariant code motion, strength reduction and partial unrolling. The
+loops changed are listed.
+With -inline calls of small methods are replaced by copies of their code (see
+CodeGen.Inliner); size is the largest method body inlined in bytes, depth
+the deepest nesting of copies.
+If there are no errors, the code is cleaned up by the peephole optimizer (see
+CodeGen.Peephole) before it is listed and written to file.obj. The code
+address and name of every method go to file.sym, from which MJ.Run -profile
+names the methods.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import MJ.CodeGen.*;
+import MJ.SymTab.*;
+
+public class Compiler {
+
+	private static String objFileName(String s) {
+		int i = s.lastIndexOf('.');
+		if (i < 0) return s + ".obj"; else return s.substring(0, i) + ".obj";
+	}
+
+	// Write the lines "address name" for the methods of the program (see Profiler)
+	private static void writeSymbols(String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+		try {
+			for (Obj p = Tab.curScope.locals; p != null; p = p.next)
+				if (p.kind == Obj.Prog)
+					for (Obj m = p.locals; m != null; m = m.next)
+						if (m.kind == Obj.Meth) out.println(m.adr + " " + m.name);
+		} finally {
+			out.close();
+		}
+	}
+
+	// Main procedure of MicroJava compiler
+	public static void main(String args[]) {
+		if (args.length > 0) {
+			String source = args[0];
+			String output = objFileName(source);
+			boolean parallel = false;
+			for (int i = 1; i < args.length; i++)
+				if (args[i].equals("-parallel")) parallel = true;
+				else if (args[i].equals("-O2")) Optimizer.on = true;
+				else if (args[i].equals("-loops")) Optimizer.on = Optimizer.loops = true;
+				else if (args[i].startsWith("-inline")) {
+					Inliner.on = true;
+					if (args[i].startsWith("-inline=")) {
+						String h[] = args[i].substring(8).split(",");
+						Inliner.maxSize = Integer.parseInt(h[0]);
+						if (h.length > 1) Inliner.maxDepth = Integer.parseInt(h[1]);
+					}
+				}
+			try {
+				Scanner.init(new File(source));
+				if (parallel) {
+					Tokens t = new Tokens();
+					Scanner.scanParallel(t);
+					Parser.parse(t);
+				} else
+					Parser.parse();
+				if (Parser.errors == 0) Code.optimize();
+				Tab.dumpScope(Tab.curScope.locals);
+				if (Parser.errors == 0) {
+					if (Optimizer.on)
+						System.out.println("-- O2: " + Optimizer.optimized + " methods optimized, "
+							+ Optimizer.unfit + " left as they are");
+					for (String s: Optimizer.report) System.out.println(s);
+					if (Inliner.on) System.out.println("-- inline: " + Inliner.inlined + " calls inlined");
+					System.out.println("-- peephole: " + Peephole.removedInstrs + " instructions, "
+						+ Peephole.removedBytes + " bytes removed");
+					Code.decode();
+					try {
+						Code.write(FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+							StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+					} catch (IOException e) {
+						System.out.println("-- cannot open output file "+output);
+					}
+					String symbols = output.substring(0, output.length() - 4) + ".sym";
+					try {
+						writeSymbols(symbols);
+					} catch (IOException e) {
+						System.out.println("-- cannot write symbol file " + symbols);
+					}
+				}
+			} catch (IOException e) {
+				System.out.println("-- cannot open input file " + source);
+			}
+		} else System.out.println("-- synopsis: java MJ.Compiler <inputfileName> [-parallel] [-O2] [-loops] [-inline[=size[,depth]]]");
+	}
+
 }
\ No newline at end of file
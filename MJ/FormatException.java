@@ -0,0 +1,10 @@
+/* MicroJava Object File Error
+   ===========================
+Thrown when an object file is malformed or its code cannot be pre-decoded.
+*/
+package MJ;
+
+@SuppressWarnings("serial")
+public class FormatException extends Exception {
+	FormatException(String s) { super(s); }
+}
@@ -0,0 +1,160 @@
+/* MicroJava Superinstructions
+   ===========================
+Load-time pass that fuses frequent instruction sequences of a verified Image
+into superinstructions, so that Run.execute() dispatches once per sequence.
+Only the dispatch opcodes xop[] are rewritten: a superinstruction at index i
+reads the operands of the fused instructions from a[i+1], a[i+2], ... and
+continues behind the sequence. The original instructions stay in place, so
+jumps into the middle of a sequence, the Verifier and the Jit are unaffected,
+and the object file format does not change.
+
+A pattern is only used if every adjacent opcode pair in it makes up at least
+1% of the pairs in the given profile (see Run option -pairs); without a
+profile all patterns are used.
+*/
+package MJ;
+
+import java.io.*;
+import java.util.*;
+
+public class Fusion {
+	static final int  // superinstructions (dispatch opcodes behind Image.badAdr)
+		loadload     = 56,	// load a; load b
+		loadconst    = 57,	// load a; const k
+		loadstore    = 58,	// load a; store b
+		storeload    = 59,	// store a; load a
+		addconst     = 60,	// const k; add
+		subconst     = 61,	// const k; sub
+		mulconst     = 62,	// const k; mul
+		loadloadadd  = 63,	// load a; load b; add
+		loadconstadd = 64,	// load a; const k; add
+		inc          = 65,	// load a; const k; add; store a
+		loadconstjcc = 66,	// load a; const k; jeq..jge t
+		loadloadjcc  = 67,	// load a; load b; jeq..jge t
+		loadloadaload    = 68,	// load a; load i; aload
+		getstaticloadaload = 69,	// getstatic g; load i; aload
+		first = loadload, last = getstaticloadaload;
+
+	static final int jcc = -1; // stands for any of jeq..jge in a pattern
+
+	// patterns in the order in which they are tried (longer ones first)
+	private static final int patterns[][] = {
+		{inc, Run.load, Run.const_, Run.add, Run.store},
+		{loadconstjcc, Run.load, Run.const_, jcc},
+		{loadloadjcc, Run.load, Run.load, jcc},
+		{getstaticloadaload, Run.getstatic, Run.load, Run.aload},
+		{loadloadaload, Run.load, Run.load, Run.aload},
+		{loadloadadd, Run.load, Run.load, Run.add},
+		{loadconstadd, Run.load, Run.const_, Run.add},
+		{addconst, Run.const_, Run.add},
+		{subconst, Run.const_, Run.sub},
+		{mulconst, Run.const_, Run.mul},
+		{loadstore, Run.load, Run.store},
+		{storeload, Run.store, Run.load},
+		{loadload, Run.load, Run.load},
+		{loadconst, Run.load, Run.const_},
+	};
+
+	static final String names[] = {
+		"load load", "load const", "load store", "store load", "const add", "const sub", "const mul",
+		"load load add", "load const add", "load const add store", "load const jcc", "load load jcc",
+		"load load aload", "getstatic load aload"
+	};
+
+	// Length of the sequence fused by superinstruction op
+	static int length(int op) {
+		for (int[] p: patterns) if (p[0] == op) return p.length - 1;
+		return 1;
+	}
+
+	private static boolean matches(Image img, int i, int[] p) {
+		if (i + p.length - 1 > img.n) return false;
+		for (int k = 1; k < p.length; k++) {
+			int op = img.op[i + k - 1];
+			if (p[k] == jcc ? op < Run.jeq || op > Run.jge : op != p[k]) return false;
+		}
+		if (p[0] == inc || p[0] == storeload) return img.a[i] == img.a[i + p.length - 2];
+		return true;
+	}
+
+	private static boolean enabled(int[] p, long[] pairs) {
+		if (pairs == null) return true;
+		long total = 0;
+		for (long c: pairs) total += c;
+		for (int k = 1; k < p.length - 1; k++) {
+			long c = 0;
+			if (p[k + 1] == jcc) {
+				for (int op = Run.jeq; op <= Run.jge; op++) c += pairs[p[k] * 64 + op];
+			} else c = pairs[p[k] * 64 + p[k + 1]];
+			if (c * 100 < total) return false;
+		}
+		return true;
+	}
+
+	// Rewrite the dispatch opcodes of the verified image img
+	static void fuse(Image img, long[] pairs) {
+		img.sites = new int[last + 1];
+		List<int[]> use = new ArrayList<int[]>();
+		for (int[] p: patterns) if (enabled(p, pairs)) use.add(p);
+		for (int i = 0; i < img.n; i++) {
+			if (img.method[i] < 0) continue; // unreachable
+			for (int[] p: use)
+				if (matches(img, i, p)) {
+					img.xop[i] = p[0];
+					img.sites[p[0]]++;
+					break;
+				}
+		}
+	}
+
+	// Read an opcode pair profile written by Run option -pairs
+	static long[] readPairs(String fileName) throws IOException {
+		long pairs[] = new long[64 * 64];
+		Map<String, Integer> code = new HashMap<String, Integer>();
+		for (int op = 1; op <= Run.trap; op++) code.put(name(op), op);
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = line.trim().split("\\s+");
+				if (f.length != 3 || !code.containsKey(f[0]) || !code.containsKey(f[1])) continue;
+				pairs[code.get(f[0]) * 64 + code.get(f[1])] += Long.parseLong(f[2]);
+			}
+		} finally {
+			in.close();
+		}
+		return pairs;
+	}
+
+	// Write the opcode pair counts pairs[op1 * 64 + op2], most frequent first
+	static void writePairs(long[] pairs, String fileName) throws IOException {
+		Integer idx[] = new Integer[pairs.length];
+		for (int i = 0; i < idx.length; i++) idx[i] = i;
+		Arrays.sort(idx, (x, y) -> Long.compare(pairs[y], pairs[x]));
+		PrintWriter out = new PrintWriter(new FileWriter(fileName));
+		for (int i: idx)
+			if (pairs[i] > 0) out.println(name(i / 64) + " " + name(i % 64) + " " + pairs[i]);
+		out.close();
+	}
+
+	static String name(int op) {
+		return op > 0 && op <= Run.trap ? Run.opcode[op].trim() : "op" + op;
+	}
+
+	// Print the fused sites and executions per superinstruction; hits[i] counts
+	// the executions of the superinstruction at index i
+	static void report(Image img, int[] hits) {
+		long saved = 0, total = 0;
+		long perOp[] = new long[last + 1];
+		for (int i = 0; i < img.n; i++)
+			if (img.xop[i] >= first) perOp[img.xop[i]] += hits[i];
+		System.out.println("\n-- superinstructions: sites executions dispatches-saved");
+		for (int op = first; op <= last; op++) {
+			if (img.sites[op] == 0) continue;
+			long s = perOp[op] * (length(op) - 1);
+			saved += s; total += perOp[op];
+			System.out.printf("%-22s %6d %12d %12d%n", names[op - first], img.sites[op], perOp[op], s);
+		}
+		System.out.printf("%-22s %6s %12d %12d%n", "total", "", total, saved);
+	}
+}
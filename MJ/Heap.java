@@ -0,0 +1,197 @@
+/* MicroJava Heap Manager
+   ======================
+Manages the heap of a Machine with a mark-sweep garbage collector and lets it grow up to
+maxSize words. Every block starts with a header word followed by its payload;
+the address of an object or array is the address of its first payload word,
+so the layout seen by MicroJava code is unchanged:
+  heap[h]       header: payload size | markBit | noScanBit | freeBit
+  heap[h+1..]   payload (fields, or array length followed by the elements)
+heap[0] is not part of any block and stays 0 (the length of the null array).
+
+Object files carry no type information, so the collector cannot tell
+references from integers. It treats every word in the roots (data[],
+stack[0..esp), local[0..sp) of the Machine) and in scanned payloads as a reference if it is
+the address of an allocated block; a bit set of block addresses makes this
+test exact with respect to block boundaries. Since such a word might also be
+an integer, blocks are never moved: free blocks are coalesced during the
+sweep and reused by bump allocation. Byte arrays cannot hold references and
+are not scanned.
+*/
+package MJ;
+
+import java.util.*;
+
+public class Heap {
+	static final int
+		markBit   = 0x80000000,	// block reached during marking
+		noScanBit = 0x40000000,	// block contains no references
+		freeBit   = 0x20000000,	// block is free
+		sizeMask  = 0x1fffffff;
+
+	private final Machine vm;	// owner of the heap
+	int maxSize;							// limit for the heap size in words
+	boolean stats;						// print statistics of every collection
+	private long starts[];		// bit set of the addresses of allocated blocks
+	private int cur, limit;		// bump allocation in heap[cur..limit)
+	private int freeList;			// first free block (header index), linked by heap[h+1]; 0 = none
+	private int markStack[] = new int[256];
+
+	// statistics
+	int collections;
+	long totalPause, maxPause;	// in ns
+	long reclaimed;							// words
+	int live;										// words in allocated blocks after the last collection
+
+	Heap(Machine vm, int size, int max) {
+		this.vm = vm;
+		if (size > max) size = Math.max(max, 2);	// a small limit also bounds the initial heap
+		maxSize = Math.max(size, max);
+		vm.heap = new int[size];
+		starts = new long[(size >> 6) + 1];
+		freeList = 0;
+		cur = 1; limit = size;
+	}
+
+	// Allocate a zeroed block with size payload words; returns its address
+	int alloc(int size, boolean noScan) throws VMError {
+		if (size < 0 || size > sizeMask) throw new VMError("invalid allocation size");
+		int n = size + 1;
+		if (limit - cur < n && !refill(n)) {
+			collect();
+			if (!refill(n)) {
+				grow(n);
+				if (!refill(n)) throw new VMError("heap overflow");
+			}
+		}
+		int heap[] = vm.heap;
+		int h = cur;
+		cur += n;
+		heap[h] = noScan ? size | noScanBit : size;
+		Arrays.fill(heap, h + 1, h + n, 0);
+		starts[(h + 1) >> 6] |= 1L << (h + 1);
+		return h + 1;
+	}
+
+	private boolean isBlock(int adr) {
+		return adr > 1 && adr < vm.heap.length && (starts[adr >> 6] & 1L << adr) != 0;
+	}
+
+	// Turn heap[h..end) into a free block
+	private void free(int h, int end) {
+		vm.heap[h] = freeBit | (end - h - 1);
+	}
+
+	// Find a free block of at least n words for bump allocation
+	private boolean refill(int n) {
+		int heap[] = vm.heap;
+		if (cur < limit) free(cur, limit);
+		cur = limit = 0;
+		int prev = 0;
+		for (int h = freeList; h != 0; prev = h, h = heap[h + 1]) {
+			int len = (heap[h] & sizeMask) + 1;
+			if (len >= n) {
+				if (prev == 0) freeList = heap[h + 1]; else heap[prev + 1] = heap[h + 1];
+				cur = h; limit = h + len;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Append a free block behind the heap so that it has room for at least n more words
+	private void grow(int n) {
+		int old = vm.heap.length;
+		if (old == maxSize) return;
+		int size = (int)Math.min(maxSize, Math.max(2L * old, (long)old + n));
+		vm.heap = Arrays.copyOf(vm.heap, size);
+		starts = Arrays.copyOf(starts, (size >> 6) + 1);
+		free(old, size);
+		if (size - old >= 2) { vm.heap[old + 1] = freeList; freeList = old; }
+	}
+
+	//----- garbage collection
+
+	private void mark(int adr) {
+		int heap[] = vm.heap;
+		int sp = 0;
+		markStack[sp++] = adr;
+		while (sp > 0) {
+			adr = markStack[--sp];
+			int h = adr - 1;
+			if (heap[h] < 0) continue; // already marked
+			heap[h] |= markBit;
+			if ((heap[h] & noScanBit) != 0) continue;
+			int end = adr + (heap[h] & sizeMask);
+			for (int i = adr; i < end; i++) {
+				int v = heap[i];
+				if (isBlock(v) && heap[v - 1] >= 0) {
+					if (sp == markStack.length) markStack = Arrays.copyOf(markStack, 2 * sp);
+					markStack[sp++] = v;
+				}
+			}
+		}
+	}
+
+	private void markArea(int[] area, int len) {
+		for (int i = 0; i < len; i++)
+			if (isBlock(area[i])) mark(area[i]);
+	}
+
+	void collect() {
+		long start = System.nanoTime();
+		int heap[] = vm.heap;
+		if (cur < limit) free(cur, limit);
+		cur = limit = 0;
+		markArea(vm.data, vm.data.length);
+		markArea(vm.stack, vm.esp);
+		markArea(vm.local, vm.sp);
+		// sweep: clear marks, coalesce unmarked and free blocks into an address-ordered free list
+		long dead = 0;
+		int liveWords = 0, last = 0, run = -1;
+		freeList = 0;
+		for (int h = 1; h < heap.length; ) {
+			int hdr = heap[h], len = (hdr & sizeMask) + 1;
+			if (hdr < 0) { // marked
+				heap[h] = hdr & ~markBit;
+				liveWords += len;
+				if (run >= 0) { last = link(run, h, last); run = -1; }
+			} else {
+				if ((hdr & freeBit) == 0) {
+					dead += len;
+					starts[(h + 1) >> 6] &= ~(1L << (h + 1));
+				}
+				if (run < 0) run = h;
+			}
+			h += len;
+		}
+		if (run >= 0) link(run, heap.length, last);
+		live = liveWords;
+		reclaimed += dead;
+		// grow if the live data fill more than 3/4 of the heap
+		if ((long)liveWords * 4 > 3L * heap.length) grow(heap.length);
+		long pause = System.nanoTime() - start;
+		collections++;
+		totalPause += pause;
+		if (pause > maxPause) maxPause = pause;
+		if (stats) {
+			vm.flush();
+			vm.log.printf("%n-- gc %d: %.3f ms, reclaimed %d bytes, live %d bytes, heap %d bytes%n",
+				collections, pause / 1e6, 4 * dead, 4L * liveWords, 4L * vm.heap.length);
+		}
+	}
+
+	// Make heap[h..end) a free block and append it to the free list behind last
+	private int link(int h, int end, int last) {
+		int heap[] = vm.heap;
+		free(h, end);
+		if (end - h < 2) return last; // too small to hold a link
+		heap[h + 1] = 0;
+		if (last == 0) freeList = h; else heap[last + 1] = h;
+		return h;
+	}
+
+	void printStats() {
+		vm.log.printf("%n-- gc: %d collections, pause total %.3f ms, max %.3f ms, reclaimed %d bytes, live %d bytes, heap %d bytes%n",
+			collections, totalPause / 1e6, maxPause / 1e6, 4 * reclaimed, 4L * live, 4L * vm.heap.length);
+	}
+}
@@ -0,0 +1,164 @@
+/* MicroJava VM Input/Output
+   =========================
+The read, bread, print and bprint instructions of all interpreter loops and
+of compiled code go through Machine.io. IO keeps an input and an output buffer;
+subclasses only say where input comes from (fill) and where full output
+buffers go (drain):
+  Streams  buffered InputStream/OutputStream; the default is System.in/System.out
+  Memory   input from a byte array, output collected in memory (for embedding)
+Output is written when the buffer is full, when Streams needs new input (so
+that prompts appear before the program waits) and by flush(), which the VM
+calls when the program ends, traps or fails.
+Characters are written as UTF-8, like System.out.print((char)val).
+*/
+package MJ;
+
+import java.io.*;
+
+public abstract class IO {
+	byte in[];			// input buffer; in[inPos..inEnd) not yet read
+	int inPos, inEnd;
+	byte out[];			// output buffer; out[0..outPos) not yet written
+	int outPos;
+
+	IO(byte[] in, int inEnd, int outSize) {
+		this.in = in; this.inEnd = inEnd;
+		out = new byte[outSize];
+	}
+
+	// Make new input available in in[inPos..inEnd); false at the end of the input
+	abstract boolean fill() throws IOException;
+
+	// Make room for at least n bytes behind out[outPos]
+	abstract void drain(int n) throws IOException;
+
+	// Write all buffered output
+	abstract void flush() throws IOException;
+
+	// Next input byte or -1 at the end of the input
+	int read() throws IOException {
+		if (inPos == inEnd && !fill()) return -1;
+		return in[inPos++] & 0xff;
+	}
+
+	// Skip to the next digit and read a decimal number; a '-' directly in front
+	// of it makes it negative. The byte behind the number is consumed.
+	int readInt() throws IOException {
+		int prev = ' ', b = read();
+		while (b < '0' || b > '9') {
+			if (b < 0) throw new EOFException();
+			prev = b; b = read();
+		}
+		int val = b - '0';
+		for (;;) {
+			while (inPos < inEnd) { // scan the buffer without calling read()
+				b = in[inPos++];
+				if (b < '0' || b > '9') return prev == '-' ? -val : val;
+				val = 10 * val + b - '0';
+			}
+			if (!fill()) return prev == '-' ? -val : val;
+		}
+	}
+
+	private void pad(int n) throws IOException {
+		while (n > 0) {
+			if (outPos == out.length) drain(1);
+			int k = Math.min(n, out.length - outPos);
+			for (int i = 0; i < k; i++) out[outPos++] = ' ';
+			n -= k;
+		}
+	}
+
+	// Print val right-aligned in width columns
+	void printInt(int val, int width) throws IOException {
+		int len = val < 0 ? 1 : 0; // number of characters of val
+		for (int v = val; ; v /= 10) { len++; if (v > -10 && v < 10) break; }
+		pad(width - len);
+		if (out.length - outPos < len) drain(len);
+		int p = outPos + len;
+		outPos = p;
+		int v = val < 0 ? val : -val; // negative, so that MIN_VALUE works
+		do { out[--p] = (byte)('0' - v % 10); v /= 10; } while (v != 0);
+		if (val < 0) out[--p] = '-';
+	}
+
+	// Print (char)val right-aligned in width columns
+	void printChar(int val, int width) throws IOException {
+		char c = (char)val;
+		pad(width - 1);
+		if (out.length - outPos < 3) drain(3);
+		if (c < 0x80) out[outPos++] = (byte)c;
+		else if (c < 0x800) {
+			out[outPos++] = (byte)(0xc0 | c >> 6);
+			out[outPos++] = (byte)(0x80 | c & 0x3f);
+		} else if (Character.isSurrogate(c)) out[outPos++] = '?'; // as the UTF-8 encoder does
+		else {
+			out[outPos++] = (byte)(0xe0 | c >> 12);
+			out[outPos++] = (byte)(0x80 | c >> 6 & 0x3f);
+			out[outPos++] = (byte)(0x80 | c & 0x3f);
+		}
+	}
+
+	//----- implementations
+
+	public static class Streams extends IO {
+		static final int bufSize = 8192;
+		private InputStream src;
+		private OutputStream dst;
+
+		public Streams(InputStream src, OutputStream dst, int bufSize) {
+			super(new byte[bufSize], 0, bufSize);
+			this.src = src; this.dst = dst;
+		}
+
+		public Streams(InputStream src, OutputStream dst) {
+			this(src, dst, bufSize);
+		}
+
+		boolean fill() throws IOException {
+			flush();
+			int n = src.read(in, 0, in.length);
+			if (n <= 0) return false;
+			inPos = 0; inEnd = n;
+			return true;
+		}
+
+		void drain(int n) throws IOException {
+			dst.write(out, 0, outPos);
+			outPos = 0;
+			if (n > out.length) out = new byte[n];
+		}
+
+		void flush() throws IOException {
+			if (outPos > 0) dst.write(out, 0, outPos);
+			outPos = 0;
+			dst.flush();
+		}
+	}
+
+	public static class Memory extends IO {
+		public Memory(byte[] input) {
+			super(input, input.length, 256);
+		}
+
+		public Memory(String input) {
+			this(input.getBytes());
+		}
+
+		boolean fill() { return false; }
+
+		void drain(int n) {
+			out = java.util.Arrays.copyOf(out, Math.max(2 * out.length, outPos + n));
+		}
+
+		void flush() {}
+
+		public byte[] output() {
+			return java.util.Arrays.copyOf(out, outPos);
+		}
+
+		public String toString() {
+			return new String(out, 0, outPos);
+		}
+	}
+}
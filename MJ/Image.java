@@ -0,0 +1,141 @@
+/* MicroJava Pre-decoded Code Image
+   ================================
+The byte code of an object file translated into parallel int arrays so that
+the interpreter does not have to decode operands on every execution.
+Instruction i has the opcode op[i] and the operands a[i] and b[i]:
+  load, store          a = local address (load0..3 and store0..3 are folded in)
+  getstatic, putstatic a = global address
+  getfield, putfield   a = field offset
+  const_               a = value (const0..5 and const_m1 are folded in)
+  new_                 a = size in words
+  newarray             a = 0 (byte elements) or 1 (word elements)
+  jmp, jeq..jge, call  a = index of the target instruction (jmp_w, jeq_w..jge_w
+                       and call_w are folded in)
+  enter                a = number of parameters, b = number of locals
+  trap                 a = trap code
+  0 (illegal opcode)   a = the illegal opcode
+adr[i] is the code address of instruction i. Behind the last instruction
+there is an extra instruction badAdr that every jump or call to an address
+that is not the start of an instruction is mapped to.
+Images that passed the Verifier can be run by Run.execute() without checks.
+*/
+package MJ;
+
+public class Image {
+	static final int  // internal instruction codes
+		badAdr = 55;   // invalid jump target or end of code reached
+
+	final int op[];      // opcodes
+	final int xop[];     // opcodes dispatched on by Run.execute (op[] plus superinstructions, see Fusion)
+	final int a[];       // first operand
+	final int b[];       // second operand
+	final int adr[];     // code address of each instruction
+	final int n;         // number of instructions (without badAdr)
+	final int start;     // index of the first instruction of main()
+	final int dataSize;  // size of global data area
+	int need[], res[], method[]; // set by the Verifier if the image passed verification
+	int sites[];         // number of fused sequences per superinstruction (set by Fusion)
+
+	private Image(int n, int start, int dataSize) {
+		op = new int[n + 1]; xop = new int[n + 1]; a = new int[n + 1]; b = new int[n + 1]; adr = new int[n + 1];
+		this.n = n; this.start = start; this.dataSize = dataSize;
+	}
+
+	// Returns the instruction index of code address pc or n (badAdr) if there is none
+	int index(int pc) {
+		int lo = 0, hi = n - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (adr[mid] < pc) lo = mid + 1;
+			else if (adr[mid] > pc) hi = mid - 1;
+			else return mid;
+		}
+		return n;
+	}
+
+	// Length of the instruction with opcode op (including the opcode byte)
+	static int length(int op) {
+		switch (op) {
+			case Run.load: case Run.store: case Run.newarray: case Run.trap:
+				return 2;
+			case Run.getstatic: case Run.putstatic: case Run.getfield: case Run.putfield:
+			case Run.new_: case Run.enter:
+			case Run.jmp: case Run.jeq: case Run.jne: case Run.jlt: case Run.jle: case Run.jgt: case Run.jge:
+			case Run.call:
+				return 3;
+			case Run.const_:
+			case Run.jmp_w: case Run.jeq_w: case Run.jne_w: case Run.jlt_w: case Run.jle_w: case Run.jgt_w: case Run.jge_w:
+			case Run.call_w:
+				return 5;
+			default:
+				return 1;
+		}
+	}
+
+	private static int get(byte[] code, int pc) {
+		return code[pc];
+	}
+
+	private static int get2(byte[] code, int pc) {
+		return (short)((code[pc] << 8) + (code[pc + 1] & 0xff));
+	}
+
+	private static int get4(byte[] code, int pc) {
+		return (get2(code, pc) << 16) + (get2(code, pc + 2) & 0xffff);
+	}
+
+	// Translate the byte code code[0..codeSize-1] into a pre-decoded image
+	static Image predecode(byte[] code, int codeSize, int startPC, int dataSize) throws FormatException {
+		int n = 0, start = -1;
+		for (int pc = 0; pc < codeSize; pc += length(code[pc])) {
+			if (pc == startPC) start = n;
+			n++;
+		}
+		if (start < 0) throw new FormatException("startPC not at an instruction");
+		Image img = new Image(n, start, dataSize);
+		int pc = 0;
+		for (int i = 0; i < n; i++) {
+			int op = code[pc];
+			if (pc + length(op) > codeSize) throw new FormatException("incomplete instruction at address " + pc);
+			img.adr[i] = pc;
+			switch (op) {
+				case Run.load0: case Run.load1: case Run.load2: case Run.load3:
+					img.op[i] = Run.load; img.a[i] = op - Run.load0; break;
+				case Run.store0: case Run.store1: case Run.store2: case Run.store3:
+					img.op[i] = Run.store; img.a[i] = op - Run.store0; break;
+				case Run.const0: case Run.const1: case Run.const2: case Run.const3: case Run.const4: case Run.const5:
+					img.op[i] = Run.const_; img.a[i] = op - Run.const0; break;
+				case Run.const_m1:
+					img.op[i] = Run.const_; img.a[i] = -1; break;
+				case Run.const_:
+					img.op[i] = op; img.a[i] = get4(code, pc + 1); break;
+				case Run.jmp_w: case Run.jeq_w: case Run.jne_w: case Run.jlt_w: case Run.jle_w: case Run.jgt_w: case Run.jge_w:
+				case Run.call_w:
+					img.op[i] = op - Run.wide; img.a[i] = get4(code, pc + 1); break;
+				case Run.load: case Run.store: case Run.newarray: case Run.trap:
+					img.op[i] = op; img.a[i] = get(code, pc + 1); break;
+				case Run.enter:
+					img.op[i] = op; img.a[i] = get(code, pc + 1); img.b[i] = get(code, pc + 2); break;
+				default:
+					if (op <= 0 || op > Run.trap) { // reported when executed
+						img.op[i] = 0; img.a[i] = op;
+					} else {
+						img.op[i] = op;
+						if (length(op) == 3) img.a[i] = get2(code, pc + 1);
+					}
+			}
+			pc += length(op);
+		}
+		img.op[n] = badAdr; img.adr[n] = codeSize;
+		System.arraycopy(img.op, 0, img.xop, 0, n + 1);
+		// map jump and call targets to instruction indices
+		for (int i = 0; i < n; i++) {
+			switch (img.op[i]) {
+				case Run.jmp: case Run.jeq: case Run.jne: case Run.jlt: case Run.jle: case Run.jgt: case Run.jge:
+				case Run.call:
+					img.a[i] = img.index(img.a[i]);
+			}
+		}
+		return img;
+	}
+}
@@ -0,0 +1,336 @@
+/* MicroJava Incremental Compiler
+   ==============================
+Keeps a compiled source in memory and brings the tokens, the symbol table,
+the code and the error messages up to date after a text edit, for editors
+that compile on every keystroke or save:
+  - re-lexing starts at the last token before the edit and stops as soon as
+    a new token begins where an old token behind the edit began; the tokens
+    in between replace the damaged ones, the later ones are only moved
+  - if the changed tokens are inside one method declaration behind its
+    formal parameters, only that method is parsed again, against the global
+    declarations before it, which are reused from the previous parse. Its
+    code replaces the old one in the code buffer; the code of the later
+    methods moves, and their jump and call addresses are relocated
+  - if the tokens did not change (white space and comments), nothing is parsed
+  - otherwise the whole token buffer is parsed again (without re-lexing)
+Error messages are kept per token and method, so those of unchanged methods
+survive a partial parse and their positions follow the edits. Messages of the
+Scanner are printed while re-lexing.
+The compiler's state is static (Tab, Code), so there is one session at a time
+and nothing else must compile in between.
+
+Syntax: java MJ.Incremental file.mj
+compiles file.mj and then reads commands from standard input:
+  edit offset removed n   followed by n bytes on the next line: replace
+                          the removed bytes at offset with the n bytes
+  write                   write file.obj if there are no errors
+  quit
+After every command the current error messages and the time are printed.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import static MJ.Token.*;
+import MJ.CodeGen.*;
+import MJ.SymTab.*;
+
+public class Incremental {
+	private byte src[];				// current source
+	private int len;					// its length in bytes
+	private final Tokens tokens = new Tokens();	// tokens of the whole source
+	private final Tokens relexed = new Tokens();	// tokens of the damaged region
+	private Scope universe;		// predeclared names
+	private int codeEnd;			// end of the code of all methods
+
+	// method declarations in source order
+	private int nMeth;
+	private Obj meth[] = new Obj[64];
+	private int first[] = new int[64];	// first token of each method
+	private int end[] = new int[64];		// token after each method
+	private int dist[] = new int[64];		// Parser.errDist (at most 3) before each method
+	private int endDist[] = new int[64];	// and after it
+
+	// error messages: token, method (-1: outside methods) and text
+	private int nErr;
+	private int errTok[] = new int[16], errMeth[] = new int[16];
+	private String errMsg[] = new String[16];
+	private int cur = -1;			// method that is being parsed
+
+	public String action;			// how the last edit was compiled: "tokens", "method name" or "program"
+
+	public Incremental(byte[] b, int len) {
+		src = Arrays.copyOf(b, len); this.len = len;
+		Scanner.init(src, len);
+		tokens.clear();
+		parse();
+		while (tokens.kind(tokens.n - 1) != eof) tokens.fill(tokens.n);
+	}
+
+	public int errors() { return nErr; }
+
+	//---------- called by the Parser
+
+	void method(int first) {
+		if (nMeth == meth.length) {
+			meth = Arrays.copyOf(meth, 2 * nMeth);
+			this.first = Arrays.copyOf(this.first, 2 * nMeth); end = Arrays.copyOf(end, 2 * nMeth);
+			dist = Arrays.copyOf(dist, 2 * nMeth); endDist = Arrays.copyOf(endDist, 2 * nMeth);
+		}
+		cur = nMeth;
+		this.first[cur] = first; dist[cur] = Math.min(Parser.errDist, 3);
+	}
+
+	void methodEnd(int end, Obj m) {
+		this.end[cur] = end; meth[cur] = m; endDist[cur] = Math.min(Parser.errDist, 3);
+		nMeth++;
+		cur = -1;
+	}
+
+	void error(int tok, String msg) {
+		if (nErr == errTok.length) {
+			errTok = Arrays.copyOf(errTok, 2 * nErr); errMeth = Arrays.copyOf(errMeth, 2 * nErr);
+			errMsg = Arrays.copyOf(errMsg, 2 * nErr);
+		}
+		errTok[nErr] = tok; errMeth[nErr] = cur; errMsg[nErr] = msg;
+		nErr++;
+	}
+
+	//---------- parsing
+
+	// Parse all tokens
+	private void parse() {
+		nMeth = 0; nErr = 0; cur = -1;
+		Parser.session = this;
+		try {
+			Parser.parse(tokens);
+		} finally {
+			Parser.session = null;
+		}
+		universe = Tab.curScope;
+		codeEnd = Code.pc;
+	}
+
+	// Parse method i again; false if it does not end where it ended before or
+	// if the error messages after it could change
+	private boolean parse(int i) {
+		int a = meth[i].adr, b = i + 1 < nMeth ? meth[i + 1].adr : codeEnd;
+		byte tail[] = Code.get(b, codeEnd);
+		int k = 0;
+		for (int e = 0; e < nErr; e++)
+			if (errMeth[e] != i) { errTok[k] = errTok[e]; errMeth[k] = errMeth[e]; errMsg[k] = errMsg[e]; k++; }
+		nErr = k;
+		Scope scope = new Scope(); // the global scope as it was before method i
+		scope.outer = universe;
+		scope.locals = meth[i].next;
+		scope.nVars = Code.dataSize;
+		Tab.curScope = scope; Tab.curLevel = 0;
+		Code.pc = a;
+		cur = i;
+		Parser.session = this;
+		try {
+			if (Parser.parseMethod(tokens, first[i], dist[i]) != end[i] || Math.min(Parser.errDist, 3) != endDist[i]
+				|| Code.pc + tail.length > Code.maxSize) return false;
+			meth[i].locals = scope.locals.locals;
+			// move and relocate the code of the later methods. A jump or call is wide
+			// if its target is Code.farAdr or above, and the later methods were relaxed
+			// for their old addresses (see Code.relax). If the code moves up, a wide one
+			// stays wide and a narrow one must still reach its target; if it moves
+			// down, there must be no wide one, as relaxation could make it narrow now
+			int d = Code.pc - b;
+			for (int p = 0; d != 0 && p < tail.length; p += Image.length(tail[p])) {
+				int op = tail[p];
+				if (op >= Code.jmp && op <= Code.jge || op == Code.call) {
+					int adr = (tail[p + 1] & 0xff) << 8 | tail[p + 2] & 0xff;
+					if (adr >= b) {
+						adr += d;
+						if (adr >= Code.farAdr) return false;
+						tail[p + 1] = (byte)(adr >> 8); tail[p + 2] = (byte)adr;
+					}
+				} else if (op >= Code.jmp_w && op <= Code.call_w) {
+					int adr = (tail[p + 1] & 0xff) << 24 | (tail[p + 2] & 0xff) << 16 | (tail[p + 3] & 0xff) << 8 | tail[p + 4] & 0xff;
+					if (adr >= b) {
+						if (d < 0) return false;
+						adr += d;
+						tail[p + 1] = (byte)(adr >> 24); tail[p + 2] = (byte)(adr >> 16); tail[p + 3] = (byte)(adr >> 8); tail[p + 4] = (byte)adr;
+					}
+				}
+			}
+			Code.put(tail);
+			for (int m = i + 1; m < nMeth; m++) meth[m].adr += d;
+			if (Code.mainPc >= b) Code.mainPc += d;
+			codeEnd = Code.pc;
+			return true;
+		} finally {
+			Parser.session = null;
+			cur = -1;
+			Tab.curScope = universe; Tab.curLevel = -1;
+		}
+	}
+
+	//---------- edits
+
+	// Index of the last token that starts before p, or 0 if there is none
+	private int tokenBefore(int p) {
+		int lo = 0, hi = tokens.n - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (tokens.start[mid] < p) lo = mid; else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// Index of the method whose tokens include token t, or -1
+	private int methodAt(int t) {
+		int lo = 0, hi = nMeth - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (first[mid] <= t) lo = mid; else hi = mid - 1;
+		}
+		return nMeth > 0 && first[lo] <= t && t < end[lo] ? lo : -1;
+	}
+
+	// Replace the removed bytes at offset with the bytes b[0..n-1]; returns the number of errors
+	public int edit(int offset, int removed, byte[] b, int n) {
+		if (offset < 0 || removed < 0 || offset + removed > len) throw new IllegalArgumentException("edit outside the source");
+		// new source
+		int delta = n - removed, newLen = len + delta;
+		byte s[] = newLen <= src.length ? src : Arrays.copyOf(src, Math.max(newLen, 2 * src.length));
+		System.arraycopy(src, offset + removed, s, offset + n, len - offset - removed);
+		System.arraycopy(b, 0, s, offset, n);
+		src = s; len = newLen;
+		// re-lex from token r up to the first token behind the edit that starts where old token j started
+		int r = tokenBefore(offset), j = r;
+		if (tokens.start[r] < offset) Scanner.init(src, len, tokens.start[r], tokens.line[r]);
+		else Scanner.init(src, len); // the edit is before the first token
+		relexed.clear();
+		for (;;) {
+			Scanner.next(relexed);
+			int last = relexed.n - 1, p = relexed.start[last];
+			if (p >= offset + n) {
+				while (tokens.start[j] < p - delta) j++;
+				if (tokens.start[j] == p - delta) break;
+			}
+		}
+		int m = relexed.n - 1, k = m - (j - r);
+		int same = 0; // unchanged tokens at the start of the re-lexed ones
+		while (same < m && same < j - r && relexed.kind[same] == tokens.kind[r + same]
+			&& relexed.len[same] == tokens.len[r + same] && relexed.numVal[same] == tokens.numVal[r + same]) same++;
+		int changed = methodAt(r + same); // the changed tokens are all in this method, or -1
+		if (changed >= 0 && j > end[changed]) changed = -1;
+		tokens.replace(r, j, relexed, m, delta, relexed.line[m] - tokens.line[j], relexed.col[m] - tokens.col[j]);
+		if (k != 0) {
+			for (int i = 0; i < nMeth; i++) {
+				if (first[i] >= j) first[i] += k;
+				if (end[i] >= j) end[i] += k;
+			}
+			for (int e = 0; e < nErr; e++) if (errTok[e] >= j) errTok[e] += k;
+		}
+		// parse
+		if (same == m && m == j - r) {
+			action = "tokens";
+			return nErr;
+		}
+		if (changed >= 0 && codeEnd <= Code.maxSize) {
+			int h = first[changed];
+			while (h < r + same && tokens.kind[h] != rpar) h++; // end of the method header
+			if (h < r + same) {
+				action = "method " + meth[changed].name;
+				if (parse(changed)) return nErr;
+			}
+		}
+		action = "program";
+		parse();
+		return nErr;
+	}
+
+	// Print the error messages in source order
+	public void report(PrintStream out) {
+		Integer order[] = new Integer[nErr];
+		for (int e = 0; e < nErr; e++) order[e] = e;
+		Arrays.sort(order, (x, y) -> errTok[x] - errTok[y]);
+		for (int e: order)
+			out.println("-- line " + tokens.line[errTok[e]] + " col " + tokens.col[errTok[e]] + ": " + errMsg[e]);
+	}
+
+	// Write the object file, optimized as by the Compiler; the code buffer of the
+	// session is kept
+	public void write(OutputStream s) {
+		byte code[] = Code.get(0, codeEnd);
+		int mainPc = Code.mainPc, adr[] = new int[nMeth];
+		for (int i = 0; i < nMeth; i++) adr[i] = meth[i].adr;
+		Code.optimize();
+		Code.write(s);
+		Code.pc = 0; Code.put(code);
+		Code.mainPc = mainPc;
+		for (int i = 0; i < nMeth; i++) meth[i].adr = adr[i];
+	}
+
+	// The source as it is now
+	public byte[] source() {
+		return Arrays.copyOf(src, len);
+	}
+
+	//---------- editor interface
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder b = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n') b.append((char)c);
+		return c < 0 && b.length() == 0 ? null : b.toString().trim();
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length == 0) {
+			System.out.println("-- synopsis: java MJ.Incremental <inputfileName>");
+			return;
+		}
+		String source = args[0];
+		int i = source.lastIndexOf('.');
+		String output = (i < 0 ? source : source.substring(0, i)) + ".obj";
+		byte b[];
+		try {
+			b = Files.readAllBytes(Paths.get(source));
+		} catch (IOException e) {
+			System.out.println("-- cannot open input file " + source);
+			return;
+		}
+		long t = System.nanoTime();
+		Incremental c = new Incremental(b, b.length);
+		c.action = "program";
+		InputStream in = new BufferedInputStream(System.in);
+		for (;;) {
+			c.report(System.out);
+			System.out.printf("-- %d errors, %s, %.3f ms%n", c.errors(), c.action, (System.nanoTime() - t) / 1e6);
+			System.out.flush();
+			String cmd = readLine(in);
+			if (cmd == null || cmd.equals("quit")) break;
+			t = System.nanoTime();
+			String w[] = cmd.split("\\s+");
+			try {
+				if (w[0].equals("edit") && w.length == 4) {
+					int n = Integer.parseInt(w[3]);
+					byte ins[] = new byte[n];
+					for (int k = 0; k < n; k++) {
+						int x = in.read();
+						if (x < 0) throw new EOFException();
+						ins[k] = (byte)x;
+					}
+					readLine(in); // end of the inserted bytes
+					t = System.nanoTime();
+					c.edit(Integer.parseInt(w[1]), Integer.parseInt(w[2]), ins, n);
+				} else if (w[0].equals("write")) {
+					if (c.errors() == 0) c.write(new FileOutputStream(output));
+					c.action = "written to " + output;
+				} else {
+					System.out.println("-- unknown command: " + cmd);
+					c.action = "nothing";
+				}
+			} catch (IllegalArgumentException e) {
+				System.out.println("-- " + e.getMessage());
+				c.action = "nothing";
+			}
+		}
+	}
+}
@@ -0,0 +1,548 @@
+/* MicroJava Just-In-Time Compiler
+   ===============================
+Translates hot methods of a verified Image into JVM byte code so that HotSpot
+can compile them further. The interpreter (Machine.execute) counts method entries
+and backward jumps; when a method has been entered callThreshold times or one
+of its loops has jumped back loopThreshold times, the method is translated into
+a hidden class that implements Jit.Method.
+
+Compiled code shares all VM state with the interpreter: locals live in the
+frame on the method stack local[], globals in data[], objects in heap[], and
+return addresses are pushed and popped as in the interpreter. Only the
+expression stack of the running method is kept on the JVM operand stack; it is
+written to stack[] before calls and returns so that the callee (interpreted or
+compiled) finds its arguments there, and before allocations so that the
+garbage collector sees it. A compiled method can be entered at its
+enter instruction or, from a running interpreted activation, at the header of
+a loop whose expression stack is empty (on-stack replacement).
+Compiled code gets the running Machine as an argument, so it can be shared by
+all Machines that run the same Program.
+The generated class files have version 49 so that they need no stack maps.
+*/
+package MJ;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class Jit {
+	static final int
+		callThreshold = 1000,		// method entries before the method is compiled
+		loopThreshold = 10000;	// backward jumps to a loop header before its method is compiled
+
+	interface Method { // a compiled MicroJava method
+		// entry < 0: the method is called and executes its enter instruction;
+		// entry >= 0: continue the running activation at the loop header entry.
+		// Returns the instruction index to continue with in the caller or -1 if
+		// main() returned.
+		int run(Machine vm, int entry) throws VMError;
+	}
+
+	private final Image img;
+	// compiled code per method entry. Machines in other threads read it without a
+	// lock, so it is set with a volatile write after the method's osr[] entries;
+	// whoever sees the code also sees them. A stale failed[] only leads into
+	// compile(), which checks again under the lock.
+	private final AtomicReferenceArray<Method> compiled;
+	private final boolean failed[];	// method entry could not be compiled
+	private final boolean osr[];			// compiled code can be entered at this loop header
+	private final int count[];				// executions of enter instructions and loop headers
+
+	Jit(Image img) {
+		this.img = img;
+		compiled = new AtomicReferenceArray<Method>(img.n + 1);
+		failed = new boolean[img.n + 1];
+		osr = new boolean[img.n + 1];
+		count = new int[img.n + 1];
+	}
+
+	// Called by the interpreter of vm at the enter instruction m.
+	// Returns the compiled code of the method or null.
+	// Machines running in parallel share the counters; a lost update only
+	// delays the compilation a little.
+	Method entry(int m, Machine vm) {
+		Method c = compiled.get(m);
+		if (c == null && !failed[m] && ++count[m] >= callThreshold) {
+			compile(m, vm);
+			c = compiled.get(m);
+		}
+		return c;
+	}
+
+	// Called by the interpreter at a jump from instruction i back to instruction h.
+	// Returns compiled code that can be entered at h or null.
+	Method backEdge(int i, int h, Machine vm) {
+		int m = img.method[i];
+		Method c = compiled.get(m);
+		if (c == null) {
+			if (failed[m] || ++count[h] < loopThreshold) return null;
+			compile(m, vm);
+			c = compiled.get(m);
+		}
+		return c != null && osr[h] ? c : null;
+	}
+
+	private synchronized void compile(int m, Machine vm) {
+		if (compiled.get(m) != null || failed[m]) return; // done by another Machine
+		try {
+			byte[] cls = new Translator(m).translate();
+			if (cls == null) { failed[m] = true; return; } // too large for a JVM method
+			MethodHandles.Lookup l = MethodHandles.lookup().defineHiddenClass(cls, true);
+			compiled.set(m, (Method)l.findConstructor(l.lookupClass(), MethodType.methodType(void.class)).invoke());
+		} catch (Throwable e) {
+			failed[m] = true;
+			vm.flush();
+			vm.log.println("-- jit: method at address " + img.adr[m] + " not compiled: " + e);
+		}
+	}
+
+	//----- run time support called from compiled code; vm is the running Machine
+
+	static void enter(int psize, int lsize, int need, int at, Machine vm) throws VMError {
+		int local[] = vm.local, stack[] = vm.stack;
+		if (vm.sp + lsize + 2 > Run.mStackSize) throw new VMError("method stack overflow", at);
+		if (vm.esp + need > Run.eStackSize) throw new VMError("expression stack overflow", at);
+		local[vm.sp++] = vm.fp;
+		int fp = vm.fp = vm.sp;
+		for (int i = 0; i < lsize; i++) local[vm.sp++] = 0;
+		for (int i = psize - 1; i >= 0; i--) local[fp + i] = stack[--vm.esp];
+	}
+
+	static void exit(Machine vm) {
+		vm.sp = vm.fp;
+		vm.fp = vm.local[--vm.sp];
+	}
+
+	static int ret(Machine vm) {
+		return vm.sp == 0 ? -1 : vm.local[--vm.sp];
+	}
+
+	static void call(int m, int ret, Machine vm) throws VMError {
+		vm.local[vm.sp++] = ret;
+		Method c = vm.prog.jit.compiled.get(m);
+		if (c != null) c.run(vm, -1);
+		else vm.execute(vm.prog.image, m, vm.sp - 1);
+	}
+
+	static int getfield(int adr, int off, int at, Machine vm) throws VMError {
+		if (adr == 0) throw new VMError("null reference used", at);
+		return vm.heap[adr + off];
+	}
+
+	static void putfield(int adr, int val, int off, int at, Machine vm) throws VMError {
+		if (adr == 0) throw new VMError("null reference used", at);
+		vm.heap[adr + off] = val;
+	}
+
+	static int div(int x, int y, int at) throws VMError {
+		if (y == 0) throw new VMError("division by zero", at);
+		return x / y;
+	}
+
+	static int rem(int x, int y, int at) throws VMError {
+		if (y == 0) throw new VMError("division by zero", at);
+		return x % y;
+	}
+
+	static int alloc(int size, int at, Machine vm) throws VMError {
+		try {
+			return vm.alloc(size);
+		} catch (VMError e) {
+			e.adr = at; throw e;
+		}
+	}
+
+	static int newarray(int len, int kind, int at, Machine vm) throws VMError {
+		try {
+			return vm.newArray(kind, len);
+		} catch (VMError e) {
+			e.adr = at; throw e;
+		}
+	}
+
+	private static VMError arrayError(int adr, int at) {
+		VMError e = Machine.arrayError(adr);
+		e.adr = at;
+		return e;
+	}
+
+	static int aload(int adr, int idx, int at, Machine vm) throws VMError {
+		int heap[] = vm.heap;
+		if (idx < 0 || idx >= heap[adr]) throw arrayError(adr, at);
+		return heap[adr + 1 + idx];
+	}
+
+	static void astore(int adr, int idx, int val, int at, Machine vm) throws VMError {
+		int heap[] = vm.heap;
+		if (idx < 0 || idx >= heap[adr]) throw arrayError(adr, at);
+		heap[adr + 1 + idx] = val;
+	}
+
+	static int baload(int adr, int idx, int at, Machine vm) throws VMError {
+		int heap[] = vm.heap;
+		if (idx < 0 || idx >= heap[adr]) throw arrayError(adr, at);
+		return Run.getByte(heap[adr + 1 + idx/4], idx % 4);
+	}
+
+	static void bastore(int adr, int idx, int val, int at, Machine vm) throws VMError {
+		int heap[] = vm.heap;
+		if (idx < 0 || idx >= heap[adr]) throw arrayError(adr, at);
+		heap[adr + 1 + idx/4] = Run.setByte(heap[adr + 1 + idx/4], idx % 4, (byte)val);
+	}
+
+	static int arraylength(int adr, int at, Machine vm) throws VMError {
+		if (adr == 0) throw new VMError("null reference used", at);
+		return vm.heap[adr];
+	}
+
+	static int read(int at, Machine vm) throws VMError {
+		try {
+			return vm.readInt();
+		} catch (IOException e) {
+			throw new VMError("end of input", at);
+		}
+	}
+
+	static int bread(int at, Machine vm) throws VMError {
+		try {
+			return vm.io.read();
+		} catch (IOException e) {
+			throw new VMError("end of input", at);
+		}
+	}
+
+	static void print(int val, int width, int at, Machine vm) throws VMError {
+		try {
+			vm.printInt(val, width);
+		} catch (VMError e) {
+			e.adr = at; throw e;
+		}
+	}
+
+	static void bprint(int val, int width, int at, Machine vm) throws VMError {
+		try {
+			vm.printChar(val, width);
+		} catch (VMError e) {
+			e.adr = at; throw e;
+		}
+	}
+
+	static VMError trap(int code, int at) {
+		return new VMError("trap(" + code + ")", at);
+	}
+
+	//----- translation of a method into a class file
+
+	private class Translator {
+		// JVM instruction codes
+		static final int
+			aconst_null = 1, iconst_0 = 3, bipush = 16, sipush = 17, ldc = 18, ldc_w = 19,
+			iload = 21, aload = 25, aload_0 = 42, iaload = 46, istore = 54, astore = 58, iastore = 79,
+			pop = 87, iadd = 96, isub = 100, imul = 104, ineg = 116, ishl = 120, ishr = 122,
+			ifge = 156, if_icmpeq = 159, goto_ = 167, lookupswitch = 171, ireturn = 172, return_ = 177,
+			getfield = 180, putfield = 181, invokespecial = 183, invokestatic = 184, athrow = 191;
+		// JVM locals of the generated method
+		static final int vm = 1, entry = 2, fp = 3, base = 4, local = 5, stack = 6, data = 7, tmp = 8, length = 9;
+
+		static final String jit = "MJ/Jit", machine = "MJ/Machine";
+
+		int m;						// index of the enter instruction of the method
+		int depth[];			// stack height before each instruction; -1 if not in the method
+		int start[];			// JVM code offset of each instruction
+		ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		Map<String, Integer> poolIdx = new HashMap<String, Integer>();
+		int poolSize = 1;
+		byte[] code = new byte[1024];
+		int pc;						// next free byte in code
+		List<int[]> fixups = new ArrayList<int[]>(); // {operand position, opcode position, instruction, bytes}
+
+		Translator(int m) {
+			this.m = m;
+			depth = Verifier.depths(img, m);
+			start = new int[img.n + 1];
+		}
+
+		//--- constant pool
+
+		int constant(String key, byte[] entry) {
+			Integer idx = poolIdx.get(key);
+			if (idx == null) {
+				idx = poolSize++;
+				pool.write(entry, 0, entry.length);
+				poolIdx.put(key, idx);
+			}
+			return idx;
+		}
+
+		int utf8(String s) {
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			try {
+				DataOutputStream out = new DataOutputStream(b);
+				out.writeByte(1); out.writeUTF(s);
+			} catch (IOException e) {}
+			return constant("U" + s, b.toByteArray());
+		}
+
+		int ref(int tag, int x, int y) {
+			byte[] b = {(byte)tag, (byte)(x >> 8), (byte)x, (byte)(y >> 8), (byte)y};
+			return constant("R" + tag + ":" + x + ":" + y, b);
+		}
+
+		int cls(String name) {
+			int n = utf8(name);
+			return constant("C" + name, new byte[] {7, (byte)(n >> 8), (byte)n});
+		}
+
+		int member(int tag, String cls, String name, String desc) {
+			return ref(tag, cls(cls), ref(12, utf8(name), utf8(desc)));
+		}
+
+		int integer(int val) {
+			return constant("I" + val, new byte[] {3, (byte)(val >> 24), (byte)(val >> 16), (byte)(val >> 8), (byte)val});
+		}
+
+		//--- code emission
+
+		void put(int x) {
+			if (pc == code.length) code = Arrays.copyOf(code, 2 * pc);
+			code[pc++] = (byte)x;
+		}
+
+		void put2(int x) { put(x >> 8); put(x); }
+
+		void put4(int x) { put2(x >> 16); put2(x); }
+
+		void put(int op, int x) { put(op); put(x); }
+
+		void put2(int op, int x) { put(op); put2(x); }
+
+		void pushInt(int val) {
+			if (-1 <= val && val <= 5) put(iconst_0 + val);
+			else if (-128 <= val && val <= 127) put(bipush, val);
+			else if (-32768 <= val && val <= 32767) put2(sipush, val);
+			else {
+				int idx = integer(val);
+				if (idx < 256) put(ldc, idx); else put2(ldc_w, idx);
+			}
+		}
+
+		void invoke(String name, String desc) {
+			put2(invokestatic, member(10, jit, name, desc));
+		}
+
+		// helper that also gets the running Machine
+		void invokeVM(String name, String desc) {
+			put(aload, vm);
+			invoke(name, desc.replace(")", "LMJ/Machine;)"));
+		}
+
+		void getVM(String name, String desc) {
+			put(aload, vm); put2(getfield, member(9, machine, name, desc));
+		}
+
+		// the Machine and the value are on the stack
+		void putVM(String name, String desc) {
+			put2(putfield, member(9, machine, name, desc));
+		}
+
+		// jump with opcode op to instruction i
+		void jump(int op, int i) {
+			int at = pc;
+			put(op); fixups.add(new int[] {pc, at, i, 2}); put2(0);
+		}
+
+		// index into an int array held in JVM local arr: arr, reg + k
+		void element(int arr, int reg, int k) {
+			put(aload, arr); put(iload, reg);
+			if (k != 0) { pushInt(k); put(iadd); }
+		}
+
+		// store the top n values of the JVM stack to stack[base..base+n-1] and set esp behind them
+		void spill(int n) {
+			for (int j = n - 1; j >= 0; j--) {
+				put(istore, tmp); element(stack, base, j); put(iload, tmp); put(iastore);
+			}
+			put(aload, vm); put(iload, base); pushInt(n); put(iadd); putVM("esp", "I");
+		}
+
+		// load n values from stack[base..base+n-1] and reset esp to base
+		void reload(int n) {
+			for (int j = 0; j < n; j++) { element(stack, base, j); put(iaload); }
+			put(aload, vm); put(iload, base); putVM("esp", "I");
+		}
+
+		void frameRegs() {
+			getVM("fp", "I"); put(istore, fp);
+			getVM("esp", "I"); put(istore, base);
+		}
+
+		// translate instruction i
+		void instr(int i) {
+			int a = img.a[i], at = img.adr[i], d = depth[i];
+			switch (img.op[i]) {
+				case Run.load:
+					element(local, fp, a); put(iaload); break;
+				case Run.store:
+					put(istore, tmp); element(local, fp, a); put(iload, tmp); put(iastore); break;
+				case Run.getstatic:
+					put(aload, data); pushInt(a); put(iaload); break;
+				case Run.putstatic:
+					put(istore, tmp); put(aload, data); pushInt(a); put(iload, tmp); put(iastore); break;
+				case Run.getfield:
+					pushInt(a); pushInt(at); invokeVM("getfield", "(III)I"); break;
+				case Run.putfield:
+					pushInt(a); pushInt(at); invokeVM("putfield", "(IIII)V"); break;
+				case Run.const_:
+					pushInt(a); break;
+				case Run.add: put(iadd); break;
+				case Run.sub: put(isub); break;
+				case Run.mul: put(imul); break;
+				case Run.neg: put(ineg); break;
+				case Run.shl: put(ishl); break;
+				case Run.shr: put(ishr); break;
+				case Run.div:
+					pushInt(at); invoke("div", "(III)I"); break;
+				case Run.rem:
+					pushInt(at); invoke("rem", "(III)I"); break;
+				case Run.new_: // the collector only sees values in stack[]
+					spill(d);
+					pushInt(a); pushInt(at); invokeVM("alloc", "(II)I");
+					put(istore, tmp); reload(d); put(iload, tmp);
+					break;
+				case Run.newarray:
+					put(istore, length); spill(d - 1); put(iload, length); // spill() uses tmp
+					pushInt(a); pushInt(at); invokeVM("newarray", "(III)I");
+					put(istore, tmp); reload(d - 1); put(iload, tmp);
+					break;
+				case Run.aload:
+					pushInt(at); invokeVM("aload", "(III)I"); break;
+				case Run.astore:
+					pushInt(at); invokeVM("astore", "(IIII)V"); break;
+				case Run.baload:
+					pushInt(at); invokeVM("baload", "(III)I"); break;
+				case Run.bastore:
+					pushInt(at); invokeVM("bastore", "(IIII)V"); break;
+				case Run.arraylength:
+					pushInt(at); invokeVM("arraylength", "(II)I"); break;
+				case Run.pop:
+					put(pop); break;
+				case Run.jmp:
+					jump(goto_, a); break;
+				case Run.jeq: jump(if_icmpeq, a); break;
+				case Run.jne: jump(if_icmpeq + 1, a); break;
+				case Run.jlt: jump(if_icmpeq + 2, a); break;
+				case Run.jge: jump(if_icmpeq + 3, a); break;
+				case Run.jgt: jump(if_icmpeq + 4, a); break;
+				case Run.jle: jump(if_icmpeq + 5, a); break;
+				case Run.call:
+					spill(d);
+					pushInt(a); pushInt(i + 1); invokeVM("call", "(II)V");
+					reload(d - img.a[a] + img.res[a]);
+					break;
+				case Run.return_:
+					spill(d);
+					invokeVM("ret", "()I"); put(ireturn);
+					break;
+				case Run.exit:
+					invokeVM("exit", "()V"); break;
+				case Run.read:
+					pushInt(at); invokeVM("read", "(I)I"); break;
+				case Run.bread:
+					pushInt(at); invokeVM("bread", "(I)I"); break;
+				case Run.print:
+					pushInt(at); invokeVM("print", "(III)V"); break;
+				case Run.bprint:
+					pushInt(at); invokeVM("bprint", "(III)V"); break;
+				case Run.trap:
+					pushInt(a); pushInt(at); invoke("trap", "(II)LMJ/VMError;"); put(athrow); break;
+				default:
+					throw new IllegalStateException("unexpected opcode " + img.op[i]);
+			}
+		}
+
+		// Returns the class file or null if the method is too large
+		byte[] translate() throws IOException {
+			int maxDepth = 0;
+			List<Integer> headers = new ArrayList<Integer>();
+			for (int i = 0; i < img.n; i++) {
+				if (depth[i] < 0) continue;
+				if (depth[i] > maxDepth) maxDepth = depth[i];
+				int op = img.op[i], t = img.a[i];
+				if (op >= Run.jmp && op <= Run.jge && t <= i && depth[t] == 0 && t != m && !headers.contains(t))
+					headers.add(t);
+			}
+			Collections.sort(headers);
+			// prologue
+			getVM("local", "[I"); put(astore, local);
+			getVM("stack", "[I"); put(astore, stack);
+			getVM("data", "[I"); put(astore, data);
+			put(iload, entry);
+			int osrJump = pc;
+			put2(ifge, 0);
+			pushInt(img.a[m]); pushInt(img.b[m]); pushInt(img.need[m]); pushInt(img.adr[m]);
+			invokeVM("enter", "(IIII)V");
+			frameRegs();
+			jump(goto_, m + 1);
+			// entry at a loop header
+			code[osrJump + 1] = (byte)((pc - osrJump) >> 8); code[osrJump + 2] = (byte)(pc - osrJump);
+			frameRegs();
+			put(iload, entry);
+			int sw = pc;
+			put(lookupswitch);
+			while (pc % 4 != 0) put(0);
+			int dflt = pc;
+			put4(0); put4(headers.size());
+			for (int h: headers) {
+				put4(h); fixups.add(new int[] {pc, sw, h, 4}); put4(0);
+			}
+			int badEntry = pc;
+			put(aconst_null); put(athrow);
+			code[dflt] = 0; code[dflt + 1] = 0; code[dflt + 2] = (byte)((badEntry - sw) >> 8); code[dflt + 3] = (byte)(badEntry - sw);
+			// body
+			for (int i = 0; i < img.n; i++)
+				if (depth[i] >= 0 && i != m) {
+					start[i] = pc;
+					instr(i);
+				}
+			if (pc > 32767) return null;
+			for (int[] f: fixups) {
+				int off = start[f[2]] - f[1];
+				if (f[3] == 4) { code[f[0]] = (byte)(off >> 24); code[f[0] + 1] = (byte)(off >> 16); code[f[0] + 2] = (byte)(off >> 8); code[f[0] + 3] = (byte)off; }
+				else { code[f[0]] = (byte)(off >> 8); code[f[0] + 1] = (byte)off; }
+			}
+			for (int h: headers) osr[h] = true;
+			return classFile(maxDepth + 6);
+		}
+
+		byte[] classFile(int maxStack) throws IOException {
+			int thisCls = cls("MJ/Compiled"), superCls = cls("java/lang/Object"), intf = cls("MJ/Jit$Method");
+			int init = utf8("<init>"), initDesc = utf8("()V"), objInit = member(10, "java/lang/Object", "<init>", "()V");
+			int runName = utf8("run"), runDesc = utf8("(LMJ/Machine;I)I"), codeAttr = utf8("Code");
+			ByteArrayOutputStream b = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(b);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0); out.writeShort(49);
+			out.writeShort(poolSize); pool.writeTo(out);
+			out.writeShort(0x0030); // final super
+			out.writeShort(thisCls); out.writeShort(superCls);
+			out.writeShort(1); out.writeShort(intf);
+			out.writeShort(0); // fields
+			out.writeShort(2); // methods
+			// public <init>() { super(); }
+			out.writeShort(0x0001); out.writeShort(init); out.writeShort(initDesc);
+			out.writeShort(1); out.writeShort(codeAttr);
+			out.writeInt(12 + 5); out.writeShort(1); out.writeShort(1);
+			out.writeInt(5); out.writeByte(aload_0); out.writeByte(invokespecial); out.writeShort(objInit); out.writeByte(return_);
+			out.writeShort(0); out.writeShort(0);
+			// public int run(int entry)
+			out.writeShort(0x0001); out.writeShort(runName); out.writeShort(runDesc);
+			out.writeShort(1); out.writeShort(codeAttr);
+			out.writeInt(12 + pc); out.writeShort(maxStack); out.writeShort(length + 1);
+			out.writeInt(pc); out.write(code, 0, pc);
+			out.writeShort(0); out.writeShort(0);
+			out.writeShort(0); // class attributes
+			return b.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/* MicroJava Job Executor
+   ======================
+Runs many short MicroJava jobs in one warm JVM. A job is a Program, which is
+shared by all jobs that run it, plus the job's input. Every job gets its own
+Machine with in-memory input and output (IO.Memory), so jobs cannot see each
+other's state. Jobs run on an ExecutorService: by default a pool with one
+thread per processor; any other executor can be passed in, e.g. one with a
+virtual thread per task on Java 21.
+
+Syntax: java MJ.Jobs fileName [-jobs=n] [-threads=n] [-predecode] [-jit] [-fuse] [-input=file]
+runs n copies of the program, prints the output of the first one and the
+throughput, and checks that all copies printed the same.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class Jobs {
+	static final int
+		jobHeapSize = 1024;	// initial heap size of a job in words; grows as needed
+
+	public static class Result {
+		public final byte output[];	// program output
+		public final String log;			// VM messages
+		public final VMError error;	// error that ended the program; null if main() returned
+		public final long time;			// run time in ns
+
+		Result(byte[] output, String log, VMError error, long time) {
+			this.output = output; this.log = log; this.error = error; this.time = time;
+		}
+	}
+
+	private final ExecutorService pool;
+	public int maxHeap = Run.maxHeapSize;	// limit for the heap size of a job in words
+
+	public Jobs(ExecutorService pool) {
+		this.pool = pool;
+	}
+
+	public Jobs(int threads) {
+		this(Executors.newFixedThreadPool(threads));
+	}
+
+	public Jobs() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	// Run prog with the given input on a new Machine
+	public Result run(Program prog, byte[] input) {
+		IO.Memory io = new IO.Memory(input);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		Machine vm = new Machine(prog, io, jobHeapSize, maxHeap);
+		vm.log = new PrintStream(log);
+		long start = System.nanoTime();
+		vm.run();
+		long time = System.nanoTime() - start;
+		vm.log.flush();
+		return new Result(io.output(), log.toString(), vm.error, time);
+	}
+
+	public Future<Result> submit(Program prog, byte[] input) {
+		return pool.submit(() -> run(prog, input));
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public static void main(String[] arg) throws Exception {
+		String fileName = null, inputFile = null;
+		int jobs = 1000, threads = Runtime.getRuntime().availableProcessors(), options = 0;
+		for (int i = 0; i < arg.length; i++) {
+			if (arg[i].startsWith("-jobs=")) jobs = Integer.parseInt(arg[i].substring(6));
+			else if (arg[i].startsWith("-threads=")) threads = Integer.parseInt(arg[i].substring(9));
+			else if (arg[i].startsWith("-input=")) inputFile = arg[i].substring(7);
+			else if (arg[i].equals("-predecode")) options |= Program.predecode | Program.verify;
+			else if (arg[i].equals("-jit")) options |= Program.predecode | Program.verify | Program.compile;
+			else if (arg[i].equals("-fuse")) options |= Program.predecode | Program.verify | Program.fuse;
+			else fileName = arg[i];
+		}
+		if (fileName == null) {
+			System.out.println("Syntax: java MJ.Jobs filename [-jobs=n] [-threads=n] [-predecode] [-jit] [-fuse] [-input=file]");
+			return;
+		}
+		Program prog;
+		try {
+			prog = Program.load(fileName, options, null);
+		} catch (IOException e) {
+			System.out.println("-- cannot read file " + fileName);
+			return;
+		} catch (FormatException e) {
+			System.out.println("-- corrupted object file " + fileName + ": " + e.getMessage());
+			return;
+		}
+		if (prog.verifyError != null) System.out.println("-- verification failed: " + prog.verifyError + "; running with checks");
+		byte input[] = inputFile == null ? new byte[0] : Files.readAllBytes(Paths.get(inputFile));
+		Jobs exec = new Jobs(threads);
+		long start = System.nanoTime();
+		List<Future<Result>> results = new ArrayList<Future<Result>>();
+		for (int i = 0; i < jobs; i++) results.add(exec.submit(prog, input));
+		Result first = results.get(0).get();
+		int differ = 0, failed = 0;
+		long cpu = 0;
+		for (Future<Result> f: results) {
+			Result r = f.get();
+			if (!Arrays.equals(r.output, first.output) || !r.log.equals(first.log)) differ++;
+			if (r.error != null) failed++;
+			cpu += r.time;
+		}
+		long total = System.nanoTime() - start;
+		exec.shutdown();
+		System.out.write(first.output);
+		System.out.print(first.log);
+		System.out.printf("%n-- %d jobs on %d threads: %.1f ms, %.0f jobs/s, %.3f ms per job%n",
+			jobs, threads, total / 1e6, jobs / (total / 1e9), cpu / 1e6 / jobs);
+		if (failed > 0) System.out.println("-- " + failed + " jobs ended with an exception");
+		if (differ > 0) System.out.println("-- " + differ + " jobs produced different output");
+	}
+}
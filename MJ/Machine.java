@@ -0,0 +1,965 @@
+/* MicroJava Machine
+   =================
+One execution of a Program: global data, heap, expression and method stack,
+registers and the program's input and output. The Program (code, pre-decoded
+image and compiled methods) is not changed by running it, so any number of
+Machines can run the same Program at the same time, each in its own thread
+(see Jobs). A Machine runs its program once.
+VM messages (exceptions, debug output, GC statistics) go to log.
+*/
+package MJ;
+
+import java.io.*;
+
+public class Machine {
+	final Program prog;	// the program being run (shared)
+	final byte code[];	// code array (shared)
+	int data[];					// global data
+	int heap[];					// dynamic heap (see Heap)
+	int stack[];				// expression stack
+	int local[];				// method stack
+	int pc;							// program counter
+	int loc;						// instruction index of the running basic block in the image loops (see Sampler)
+	int fp, sp;					// frame pointer, stack pointer on method stack
+	int esp;						// expression stack pointer
+	boolean debug;			// debug output on or off
+	long pairs[];				// opcode pair counts of a checked run: pairs[op1 * 64 + op2]
+	int hits[];					// executions of the superinstruction at each instruction index
+	Profiler prof;			// exact profile of a checked run (see Profiler)
+	IO io;							// program input and output
+	public PrintStream log = System.out; // VM messages
+	final Heap gc;			// manages heap[]
+	public VMError error;	// error that ended the program; null if main() returned
+
+	public Machine(Program prog, IO io, int heapSize, int maxHeap) {
+		this.prog = prog;
+		this.io = io;
+		code = prog.code;
+		data  = new int[prog.dataSize];		// global data as specified in classfile
+		stack = new int[Run.eStackSize];	// expression stack
+		local = new int[Run.mStackSize];	// method stack
+		gc = new Heap(this, heapSize, maxHeap);	// growing, garbage collected heap
+		if (prog.image != null && prog.image.sites != null) hits = new int[prog.image.n + 1];
+	}
+
+	// Run the program to its end; the program output is flushed afterwards
+	public void run() {
+		Image img = prog.image;
+		if (img == null) interpret();
+		else if (img.need == null || debug || pairs != null || prof != null) interpretPredecoded(img);
+		else execute(img);
+		if (prof != null) prof.finish();
+		flush();
+	}
+
+  //----- expression stack
+
+  void push(int val) throws VMError {
+		if (esp == Run.eStackSize) throw new VMError("expression stack overflow");
+		stack[esp++] = val;
+  }
+
+  int pop() throws VMError {
+		if (esp == 0) throw new VMError("expression stack underflow");
+    return stack[--esp];
+  }
+
+  //----- method stack
+
+  void PUSH(int val) throws VMError {
+		if (sp == Run.mStackSize) throw new VMError("method stack overflow");
+		local[sp++] = val;
+	}
+
+	int POP() throws VMError {
+		if (sp == 0) throw new VMError("method stack underflow");
+		return local[--sp];
+	}
+
+	//----- instruction fetch
+
+  byte next() {
+    return code[pc++];
+  }
+
+  short next2() {
+		return (short)(((next() << 8) + (next() & 0xff)) << 16 >> 16);
+	}
+
+  int next4() {
+		return (next2() << 16) + (next2() & 0xffff);
+	}
+
+  //----- VM internals
+
+  int alloc(int size) throws VMError { // allocate zeroed heap block of size words
+    return gc.alloc(size, false);
+  }
+
+  int readInt() throws IOException { // read int from the VM input
+    return io.readInt();
+  }
+
+  void printInt(int val, int width) throws VMError { // print val right-aligned in width columns
+		try {
+			io.printInt(val, width);
+		} catch (IOException e) {
+			throw new VMError("output error");
+		}
+	}
+
+	void printChar(int val, int width) throws VMError { // print (char)val right-aligned in width columns
+		try {
+			io.printChar(val, width);
+		} catch (IOException e) {
+			throw new VMError("output error");
+		}
+	}
+
+	void flush() { // write buffered program output, e.g. before VM messages
+		try {
+			io.flush();
+		} catch (IOException e) {}
+	}
+
+	private void fail(VMError e, int adr) { // record and report the error that ended the program
+		if (e.adr < 0) e.adr = adr;
+		error = e;
+		flush();
+		log.println("\n-- exception at address " + e.adr + ": " + e.getMessage());
+	}
+
+	int newArray(int kind, int len) throws VMError { // kind 0: byte elements, else word elements
+		int adr;
+		if (kind == 0) adr = gc.alloc(1 + ((len+3)>>2), true); else adr = alloc(1 + len);
+		heap[adr] = len;
+		return adr;
+	}
+
+	//----- debug output
+
+  void printNum(int val, int n) {
+		String s = Integer.toString(val);
+		int len = s.length();
+		while (len < n) {log.print(" "); len++;}
+		log.print(s);
+	}
+
+  void printInstr() {
+		flush();
+		int op = code[pc - 1];
+		String instr = op > 0 && op <= Run.call_w ? Run.opcode[op] : "???     ";
+		printNum(pc - 1, 4);
+		log.print(": " + instr + "| ");
+	}
+
+	void printStack() {
+		for (int i = 0; i < esp; i++) log.print(stack[i] + " ");
+		log.println();
+	}
+
+	//----- actual interpretation
+
+	void interpret() {
+		int op, adr, val, val2, off, idx, len, i;
+		pc = prog.startPC;
+		try {
+			for (;;) { // terminated by return instruction
+				op = next();
+				if (debug) printInstr();
+				switch(op) {
+
+					// load/store local variables
+					case Run.load:
+						push(local[fp + next()]);
+						break;
+					case Run.load0: case Run.load1: case Run.load2: case Run.load3:
+						op -= Run.load0; // mapping on range 0..3
+						push(local[fp + op]);
+						break;
+					case Run.store:
+						local[fp + next()] = pop();
+						break;
+					case Run.store0: case Run.store1: case Run.store2: case Run.store3:
+						op -= Run.store0; // mapping on range 0..3
+						local[fp + op] = pop();
+						break;
+
+					// load/store global variables
+					case Run.getstatic:
+						push(data[next2()]);
+						break;
+					case Run.putstatic:
+						data[next2()] = pop();
+						break;
+
+					// load/store object fields
+					case Run.getfield:
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						push(heap[adr + next2()]);
+						break;
+					case Run.putfield:
+						val = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						heap[adr + next2()] = val;
+						break;
+
+					// load constants
+					case Run.const0: case Run.const1: case Run.const2: case Run.const3: case Run.const4: case Run.const5:
+						push(op - Run.const0); // map opcode to 0..5
+						break;
+					case Run.const_m1:
+						push(-1);
+						break;
+					case Run.const_:
+						push(next4());
+						break;
+
+					// arithmetic operations
+					case Run.add:
+						push(pop() + pop());
+						break;
+					case Run.sub:
+						push(-pop() + pop());
+						break;
+					case Run.mul:
+						push(pop() * pop());
+						break;
+					case Run.div:
+						val = pop();
+						if (val == 0) throw new VMError("division by zero");
+						push(pop() / val);
+						break;
+					case Run.rem:
+						val = pop();
+						if (val == 0) throw new VMError("division by zero");
+						push(pop() % val);
+						break;
+					case Run.neg:
+						push(-pop());
+						break;
+					case Run.shl:
+						val = pop();
+						push(pop() << val);
+						break;
+					case Run.shr:
+						val = pop();
+						push(pop() >> val);
+						break;
+
+					// object creation
+					case Run.new_:
+						push(alloc(next2()));
+						break;
+					case Run.newarray:
+						val = next();
+						push(newArray(val, pop()));
+						break;
+
+					// array access
+					case Run.aload:
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						push(heap[adr+1+idx]);
+						break;
+					case Run.astore:
+						val = pop();
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						heap[adr+1+idx] = val;
+						break;
+					case Run.baload:
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						push(Run.getByte(heap[adr + 1 + idx/4], idx % 4));
+						break;
+					case Run.bastore:
+						val = pop();
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						heap[adr + 1 + idx/4] = Run.setByte(heap[adr + 1 + idx/4], idx % 4, (byte)val);
+						break;
+					case Run.arraylength:
+						adr = pop();
+						if (adr==0) throw new VMError("null reference used");
+						push(heap[adr]);
+						break;
+
+					// stack manipulation
+					case Run.pop:
+						pop();
+						break;
+
+					// jumps
+					case Run.jmp:
+						adr = next2();
+						pc = adr;
+						break;
+					case Run.jmp_w:
+						adr = next4();
+						pc = adr;
+						break;
+					case Run.jeq: case Run.jne: case Run.jlt: case Run.jle: case Run.jgt: case Run.jge:
+					case Run.jeq_w: case Run.jne_w: case Run.jlt_w: case Run.jle_w: case Run.jgt_w: case Run.jge_w:
+						if (op >= Run.jeq_w) { adr = next4(); op -= Run.wide; }
+						else adr = next2();
+						val2 = pop(); val = pop();
+						boolean cond = false;
+						switch(op) {
+							case Run.jeq: cond = val == val2; break;
+							case Run.jne: cond = val != val2; break;
+							case Run.jlt: cond = val < val2;  break;
+							case Run.jle: cond = val <= val2; break;
+							case Run.jgt: cond = val > val2;  break;
+							case Run.jge: cond = val >= val2; break;
+						}
+						if (cond) pc = adr;
+						break;
+
+					// method calls
+					case Run.call:
+						adr = next2();
+						PUSH(pc);
+						pc = adr;
+						break;
+					case Run.call_w:
+						adr = next4();
+						PUSH(pc);
+						pc = adr;
+						break;
+					case Run.return_:
+						if (sp == 0) return; else pc = POP();
+						break;
+					case Run.enter:
+						int psize = next();
+						int lsize = next();
+						PUSH(fp);
+						fp = sp;
+						for (i = 0; i < lsize; i++) PUSH(0);
+						for (i = psize - 1; i >= 0; i--) local[fp + i] = pop();
+						break;
+					case Run.exit:
+						sp = fp;
+						fp = POP();
+						break;
+
+					// IO
+					case Run.read:
+						try {
+							val = readInt();
+							push(val);
+						} catch (IOException ex) {
+							throw new VMError("end of input");
+						}
+						break;
+					case Run.print:
+						len = pop();
+						val = pop();
+						printInt(val, len);
+						break;
+					case Run.bread:
+						try {
+							push(io.read());
+						} catch (IOException ex) {
+							throw new VMError("end of input");
+						}
+						break;
+					case Run.bprint:
+						len = pop();
+						val = pop();
+						printChar(val, len);
+						break;
+					case Run.trap:
+						throw new VMError("trap(" + next() + ")");
+					default:
+						throw new VMError("wrong opcode " + op);
+				}
+				if (debug) printStack();
+			}
+		} catch (VMError e) {
+			fail(e, pc - 1);
+		}
+	}
+
+	//----- interpretation of the pre-decoded image
+
+	void interpretPredecoded(Image img) {
+		int op[] = img.op, a[] = img.a, b[] = img.b;
+		int adr, val, val2, idx, len, i;
+		int ip = img.start;	// index of the next instruction
+		int cur = ip;				// index of the current instruction
+		int prev = 0;				// previous opcode (for the pair profile)
+		try {
+			for (;;) { // terminated by return instruction
+				cur = loc = ip++;
+				if (debug) { pc = img.adr[cur] + 1; printInstr(); }
+				if (pairs != null) { pairs[prev * 64 + op[cur]]++; prev = op[cur]; }
+				if (prof != null) prof.instr(this, cur);
+				switch (op[cur]) {
+
+					// load/store local variables
+					case Run.load:
+						push(local[fp + a[cur]]);
+						break;
+					case Run.store:
+						local[fp + a[cur]] = pop();
+						break;
+
+					// load/store global variables
+					case Run.getstatic:
+						push(data[a[cur]]);
+						break;
+					case Run.putstatic:
+						data[a[cur]] = pop();
+						break;
+
+					// load/store object fields
+					case Run.getfield:
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						push(heap[adr + a[cur]]);
+						break;
+					case Run.putfield:
+						val = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						heap[adr + a[cur]] = val;
+						break;
+
+					// load constants
+					case Run.const_:
+						push(a[cur]);
+						break;
+
+					// arithmetic operations
+					case Run.add:
+						push(pop() + pop());
+						break;
+					case Run.sub:
+						push(-pop() + pop());
+						break;
+					case Run.mul:
+						push(pop() * pop());
+						break;
+					case Run.div:
+						val = pop();
+						if (val == 0) throw new VMError("division by zero");
+						push(pop() / val);
+						break;
+					case Run.rem:
+						val = pop();
+						if (val == 0) throw new VMError("division by zero");
+						push(pop() % val);
+						break;
+					case Run.neg:
+						push(-pop());
+						break;
+					case Run.shl:
+						val = pop();
+						push(pop() << val);
+						break;
+					case Run.shr:
+						val = pop();
+						push(pop() >> val);
+						break;
+
+					// object creation
+					case Run.new_:
+						push(alloc(a[cur]));
+						break;
+					case Run.newarray:
+						push(newArray(a[cur], pop()));
+						break;
+
+					// array access
+					case Run.aload:
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						push(heap[adr+1+idx]);
+						break;
+					case Run.astore:
+						val = pop();
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						heap[adr+1+idx] = val;
+						break;
+					case Run.baload:
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						push(Run.getByte(heap[adr + 1 + idx/4], idx % 4));
+						break;
+					case Run.bastore:
+						val = pop();
+						idx = pop();
+						adr = pop();
+						if (adr == 0) throw new VMError("null reference used");
+						len = heap[adr];
+						if (idx < 0 || idx >= len) throw new VMError("index out of bounds");
+						heap[adr + 1 + idx/4] = Run.setByte(heap[adr + 1 + idx/4], idx % 4, (byte)val);
+						break;
+					case Run.arraylength:
+						adr = pop();
+						if (adr==0) throw new VMError("null reference used");
+						push(heap[adr]);
+						break;
+
+					// stack manipulation
+					case Run.pop:
+						pop();
+						break;
+
+					// jumps
+					case Run.jmp:
+						ip = a[cur];
+						break;
+					case Run.jeq:
+						val2 = pop(); val = pop();
+						if (val == val2) ip = a[cur];
+						break;
+					case Run.jne:
+						val2 = pop(); val = pop();
+						if (val != val2) ip = a[cur];
+						break;
+					case Run.jlt:
+						val2 = pop(); val = pop();
+						if (val < val2) ip = a[cur];
+						break;
+					case Run.jle:
+						val2 = pop(); val = pop();
+						if (val <= val2) ip = a[cur];
+						break;
+					case Run.jgt:
+						val2 = pop(); val = pop();
+						if (val > val2) ip = a[cur];
+						break;
+					case Run.jge:
+						val2 = pop(); val = pop();
+						if (val >= val2) ip = a[cur];
+						break;
+
+					// method calls; the method stack holds instruction indices as return addresses
+					case Run.call:
+						PUSH(ip);
+						ip = a[cur];
+						break;
+					case Run.return_:
+						if (sp == 0) return; else ip = POP();
+						break;
+					case Run.enter:
+						PUSH(fp);
+						fp = sp;
+						for (i = 0; i < b[cur]; i++) PUSH(0);
+						for (i = a[cur] - 1; i >= 0; i--) local[fp + i] = pop();
+						break;
+					case Run.exit:
+						sp = fp;
+						fp = POP();
+						break;
+
+					// IO
+					case Run.read:
+						try {
+							push(readInt());
+						} catch (IOException ex) {
+							throw new VMError("end of input");
+						}
+						break;
+					case Run.print:
+						len = pop();
+						printInt(pop(), len);
+						break;
+					case Run.bread:
+						try {
+							push(io.read());
+						} catch (IOException ex) {
+							throw new VMError("end of input");
+						}
+						break;
+					case Run.bprint:
+						len = pop();
+						printChar(pop(), len);
+						break;
+					case Run.trap:
+						throw new VMError("trap(" + a[cur] + ")");
+					case Image.badAdr:
+						throw new VMError("jump into an instruction or past the end of the code");
+					default:
+						throw new VMError("wrong opcode " + a[cur]);
+				}
+				if (debug) printStack();
+			}
+		} catch (VMError e) {
+			fail(e, img.adr[cur]);
+		}
+	}
+
+	//----- check-free interpretation of a verified image
+
+	// The Verifier has shown that the expression stack never underflows, that
+	// locals and globals are addressed within their areas and that jumps hit
+	// instructions. Stack overflow is checked once per call in enter, using the
+	// stack need of the method computed by the Verifier. A null array has the
+	// length heap[0] == 0, so the index check also catches null arrays.
+	void execute(Image img) {
+		try {
+			execute(img, img.start, -1);
+		} catch (VMError e) {
+			fail(e, -1);
+		}
+	}
+
+	// Execute from instruction ip until a return instruction pops the method
+	// stack down to stop (used when compiled code calls an interpreted method)
+	// or main() returns. Returns the index of the next instruction or -1 if
+	// the program ended. With -jit, enter and backward jumps count how often they
+	// run and hand over to compiled code for hot methods.
+	int execute(Image img, int ip, int stop) throws VMError {
+		int op[] = img.op, xop[] = img.xop, a[] = img.a, b[] = img.b, need[] = img.need;
+		int stack[] = this.stack, local[] = this.local, data[] = this.data, hits[] = this.hits;
+		int esp = this.esp, sp = this.sp, fp = this.fp;
+		int adr, val, idx, len, i;
+		Jit jit = prog.jit;
+		Jit.Method m;
+		int cur = ip;				// index of the current instruction
+		try {
+			for (;;) { // terminated by return instruction
+				cur = ip++;
+				switch (xop[cur]) {
+
+					// load/store local variables
+					case Run.load:
+						stack[esp++] = local[fp + a[cur]];
+						break;
+					case Run.store:
+						local[fp + a[cur]] = stack[--esp];
+						break;
+
+					// load/store global variables
+					case Run.getstatic:
+						stack[esp++] = data[a[cur]];
+						break;
+					case Run.putstatic:
+						data[a[cur]] = stack[--esp];
+						break;
+
+					// load/store object fields
+					case Run.getfield:
+						adr = stack[esp - 1];
+						if (adr == 0) throw new VMError("null reference used");
+						stack[esp - 1] = heap[adr + a[cur]];
+						break;
+					case Run.putfield:
+						val = stack[--esp];
+						adr = stack[--esp];
+						if (adr == 0) throw new VMError("null reference used");
+						heap[adr + a[cur]] = val;
+						break;
+
+					// load constants
+					case Run.const_:
+						stack[esp++] = a[cur];
+						break;
+
+					// arithmetic operations
+					case Run.add:
+						esp--; stack[esp - 1] += stack[esp];
+						break;
+					case Run.sub:
+						esp--; stack[esp - 1] -= stack[esp];
+						break;
+					case Run.mul:
+						esp--; stack[esp - 1] *= stack[esp];
+						break;
+					case Run.div:
+						val = stack[--esp];
+						if (val == 0) throw new VMError("division by zero");
+						stack[esp - 1] /= val;
+						break;
+					case Run.rem:
+						val = stack[--esp];
+						if (val == 0) throw new VMError("division by zero");
+						stack[esp - 1] %= val;
+						break;
+					case Run.neg:
+						stack[esp - 1] = -stack[esp - 1];
+						break;
+					case Run.shl:
+						esp--; stack[esp - 1] <<= stack[esp];
+						break;
+					case Run.shr:
+						esp--; stack[esp - 1] >>= stack[esp];
+						break;
+
+					// object creation
+					case Run.new_: // the collector scans stack[0..esp) and local[0..sp)
+						this.esp = esp; this.sp = sp;
+						stack[esp++] = alloc(a[cur]);
+						break;
+					case Run.newarray:
+						this.esp = esp; this.sp = sp;
+						stack[esp - 1] = newArray(a[cur], stack[esp - 1]);
+						break;
+
+					// array access
+					case Run.aload:
+						idx = stack[--esp];
+						adr = stack[esp - 1];
+						if (idx < 0 || idx >= heap[adr]) throw arrayError(adr);
+						stack[esp - 1] = heap[adr+1+idx];
+						break;
+					case Run.astore:
+						val = stack[--esp];
+						idx = stack[--esp];
+						adr = stack[--esp];
+						if (idx < 0 || idx >= heap[adr]) throw arrayError(adr);
+						heap[adr+1+idx] = val;
+						break;
+					case Run.baload:
+						idx = stack[--esp];
+						adr = stack[esp - 1];
+						if (idx < 0 || idx >= heap[adr]) throw arrayError(adr);
+						stack[esp - 1] = Run.getByte(heap[adr + 1 + idx/4], idx % 4);
+						break;
+					case Run.bastore:
+						val = stack[--esp];
+						idx = stack[--esp];
+						adr = stack[--esp];
+						if (idx < 0 || idx >= heap[adr]) throw arrayError(adr);
+						heap[adr + 1 + idx/4] = Run.setByte(heap[adr + 1 + idx/4], idx % 4, (byte)val);
+						break;
+					case Run.arraylength:
+						adr = stack[esp - 1];
+						if (adr == 0) throw new VMError("null reference used");
+						stack[esp - 1] = heap[adr];
+						break;
+
+					// stack manipulation
+					case Run.pop:
+						esp--;
+						break;
+
+					// jumps
+					case Run.jmp:
+						ip = loc = a[cur];
+						if (jit != null && ip <= cur && (m = jit.backEdge(cur, ip, this)) != null) {
+							this.esp = esp; this.sp = sp; this.fp = fp;
+							ip = m.run(this, ip);
+							esp = this.esp; sp = this.sp; fp = this.fp;
+							if (ip < 0 || sp == stop) return ip;
+						}
+						break;
+					case Run.jeq:
+						esp -= 2;
+						if (stack[esp] == stack[esp + 1]) ip = a[cur];
+						loc = ip;
+						break;
+					case Run.jne:
+						esp -= 2;
+						if (stack[esp] != stack[esp + 1]) ip = a[cur];
+						loc = ip;
+						break;
+					case Run.jlt:
+						esp -= 2;
+						if (stack[esp] < stack[esp + 1]) ip = a[cur];
+						loc = ip;
+						break;
+					case Run.jle:
+						esp -= 2;
+						if (stack[esp] <= stack[esp + 1]) ip = a[cur];
+						loc = ip;
+						break;
+					case Run.jgt:
+						esp -= 2;
+						if (stack[esp] > stack[esp + 1]) ip = a[cur];
+						loc = ip;
+						break;
+					case Run.jge:
+						esp -= 2;
+						if (stack[esp] >= stack[esp + 1]) ip = a[cur];
+						loc = ip;
+						break;
+
+					// method calls; enter reserves a word for the next return address
+					case Run.call:
+						local[sp++] = ip;
+						ip = loc = a[cur];
+						break;
+					case Run.return_:
+						if (sp == 0) return -1;
+						ip = loc = local[--sp];
+						if (sp == stop) return ip;
+						break;
+					case Run.enter:
+						if (jit != null && (m = jit.entry(cur, this)) != null) {
+							this.esp = esp; this.sp = sp; this.fp = fp;
+							ip = m.run(this, -1);
+							esp = this.esp; sp = this.sp; fp = this.fp;
+							if (ip < 0 || sp == stop) return ip;
+							break;
+						}
+						len = b[cur];
+						if (sp + len + 2 > Run.mStackSize) throw new VMError("method stack overflow");
+						if (esp + need[cur] > Run.eStackSize) throw new VMError("expression stack overflow");
+						local[sp++] = fp;
+						this.fp = fp = sp;
+						for (i = 0; i < len; i++) local[sp++] = 0;
+						for (i = a[cur] - 1; i >= 0; i--) local[fp + i] = stack[--esp];
+						break;
+					case Run.exit:
+						sp = fp;
+						this.fp = fp = local[--sp];
+						break;
+
+					// IO
+					case Run.read:
+						try {
+							stack[esp++] = readInt();
+						} catch (IOException ex) {
+							throw new VMError("end of input");
+						}
+						break;
+					case Run.print:
+						esp -= 2;
+						printInt(stack[esp], stack[esp + 1]);
+						break;
+					case Run.bread:
+						try {
+							stack[esp++] = io.read();
+						} catch (IOException ex) {
+							throw new VMError("end of input");
+						}
+						break;
+					case Run.bprint:
+						esp -= 2;
+						printChar(stack[esp], stack[esp + 1]);
+						break;
+					case Run.trap:
+						throw new VMError("trap(" + a[cur] + ")");
+
+					// superinstructions (see Fusion); operands come from the fused instructions
+					case Fusion.loadload:
+						hits[cur]++;
+						stack[esp++] = local[fp + a[cur]];
+						stack[esp++] = local[fp + a[cur + 1]];
+						ip = cur + 2;
+						break;
+					case Fusion.loadconst:
+						hits[cur]++;
+						stack[esp++] = local[fp + a[cur]];
+						stack[esp++] = a[cur + 1];
+						ip = cur + 2;
+						break;
+					case Fusion.loadstore:
+						hits[cur]++;
+						local[fp + a[cur + 1]] = local[fp + a[cur]];
+						ip = cur + 2;
+						break;
+					case Fusion.storeload:
+						hits[cur]++;
+						local[fp + a[cur]] = stack[esp - 1];
+						ip = cur + 2;
+						break;
+					case Fusion.addconst:
+						hits[cur]++;
+						stack[esp - 1] += a[cur];
+						ip = cur + 2;
+						break;
+					case Fusion.subconst:
+						hits[cur]++;
+						stack[esp - 1] -= a[cur];
+						ip = cur + 2;
+						break;
+					case Fusion.mulconst:
+						hits[cur]++;
+						stack[esp - 1] *= a[cur];
+						ip = cur + 2;
+						break;
+					case Fusion.loadloadadd:
+						hits[cur]++;
+						stack[esp++] = local[fp + a[cur]] + local[fp + a[cur + 1]];
+						ip = cur + 3;
+						break;
+					case Fusion.loadconstadd:
+						hits[cur]++;
+						stack[esp++] = local[fp + a[cur]] + a[cur + 1];
+						ip = cur + 3;
+						break;
+					case Fusion.inc:
+						hits[cur]++;
+						local[fp + a[cur]] += a[cur + 1];
+						ip = cur + 4;
+						break;
+					case Fusion.loadconstjcc:
+						hits[cur]++;
+						ip = cond(op[cur + 2], local[fp + a[cur]], a[cur + 1]) ? a[cur + 2] : cur + 3;
+						loc = ip;
+						break;
+					case Fusion.loadloadjcc:
+						hits[cur]++;
+						ip = cond(op[cur + 2], local[fp + a[cur]], local[fp + a[cur + 1]]) ? a[cur + 2] : cur + 3;
+						loc = ip;
+						break;
+					case Fusion.loadloadaload:
+						hits[cur]++;
+						adr = local[fp + a[cur]];
+						idx = local[fp + a[cur + 1]];
+						if (idx < 0 || idx >= heap[adr]) { cur += 2; throw arrayError(adr); }
+						stack[esp++] = heap[adr+1+idx];
+						ip = cur + 3;
+						break;
+					case Fusion.getstaticloadaload:
+						hits[cur]++;
+						adr = data[a[cur]];
+						idx = local[fp + a[cur + 1]];
+						if (idx < 0 || idx >= heap[adr]) { cur += 2; throw arrayError(adr); }
+						stack[esp++] = heap[adr+1+idx];
+						ip = cur + 3;
+						break;
+				}
+			}
+		} catch (VMError e) {
+			if (e.adr < 0) e.adr = img.adr[cur];
+			throw e;
+		} finally {
+			this.esp = esp; this.sp = sp; this.fp = fp;
+		}
+	}
+
+	static boolean cond(int op, int x, int y) { // compare x and y as jump op does
+		switch (op) {
+			case Run.jeq: return x == y;
+			case Run.jne: return x != y;
+			case Run.jlt: return x < y;
+			case Run.jle: return x <= y;
+			case Run.jgt: return x > y;
+			default:  return x >= y;
+		}
+	}
+
+	static VMError arrayError(int adr) {
+		return new VMError(adr == 0 ? "null reference used" : "index out of bounds");
+	}
+}
@@ -0,0 +1,95 @@
+/* MicroJava Name Pool
+   ==================
+Maps the names in a source text (byte ranges) to numbers and to interned
+Strings, which are made when they are first asked for, so that the Scanner
+creates at most one String per name and the Parser and Tab can compare names
+by identity.
+The pool is an open hash table over the bytes of the names; a name's bytes are
+kept in one array to compare them without a String. Names are UTF-8.
+*/
+package MJ;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class Names {
+	private int slot[];			// entry number + 1 per hash slot; 0: empty
+	private int slotHash[];	// hash of the name in each slot
+	private String name[];	// interned name per entry; made on first use
+	private int off[], len[];	// bytes of each entry in text
+	private byte text[];
+	private int n, textLen;	// number of entries, used bytes in text
+
+	Names() {
+		slot = new int[1024]; slotHash = new int[1024];
+		name = new String[512];
+		off = new int[512]; len = new int[512];
+		text = new byte[4096];
+	}
+
+	static int hash(int h, int b) { return 31 * h + b; }
+
+	// Interned name of entry e
+	String name(int e) {
+		String s = name[e];
+		if (s == null) s = name[e] = new String(text, off[e], len[e], StandardCharsets.UTF_8).intern();
+		return s;
+	}
+
+	private static int mix(int h) { return h ^ (h >>> 15); }
+
+	// Entry of the name b[start..start+length-1] whose hash (over its bytes,
+	// see hash()) is h; the name is entered if it is new
+	int lookup(ByteBuffer b, int start, int length, int h) {
+		int mask = slot.length - 1;
+		for (int i = mix(h) & mask; ; i = (i + 1) & mask) {
+			int e = slot[i] - 1;
+			if (e < 0) return add(i, b, start, length, h);
+			if (slotHash[i] == h && len[e] == length) {
+				int o = off[e], k = 0;
+				while (k < length && text[o + k] == b.get(start + k)) k++;
+				if (k == length) return e;
+			}
+		}
+	}
+
+	// Entry in the pool to of every entry of this pool
+	int[] mapTo(Names to) {
+		int map[] = new int[n];
+		ByteBuffer b = ByteBuffer.wrap(text);
+		for (int e = 0; e < n; e++) {
+			int h = 0;
+			for (int k = 0; k < len[e]; k++) h = hash(h, text[off[e] + k] & 0xff);
+			map[e] = to.lookup(b, off[e], len[e], h);
+		}
+		return map;
+	}
+
+	private int add(int i, ByteBuffer b, int start, int length, int h) {
+		if (n == name.length) {
+			name = Arrays.copyOf(name, 2 * n);
+			off = Arrays.copyOf(off, 2 * n); len = Arrays.copyOf(len, 2 * n);
+		}
+		if (textLen + length > text.length) text = Arrays.copyOf(text, Math.max(2 * text.length, textLen + length));
+		for (int k = 0; k < length; k++) text[textLen + k] = b.get(start + k);
+		int e = n++;
+		off[e] = textLen; len[e] = length;
+		textLen += length;
+		slot[i] = e + 1; slotHash[i] = h;
+		if (2 * n > slot.length) rehash();
+		return e;
+	}
+
+	private void rehash() {
+		int old[] = slot, oldHash[] = slotHash;
+		slot = new int[2 * old.length]; slotHash = new int[2 * old.length];
+		int mask = slot.length - 1;
+		for (int j = 0; j < old.length; j++) {
+			if (old[j] == 0) continue;
+			int i = mix(oldHash[j]) & mask;
+			while (slot[i] != 0) i = (i + 1) & mask;
+			slot[i] = old[j]; slotHash[i] = oldHash[j];
+		}
+	}
+}
@@ -1,509 +1,663 @@
-/*  MicroJava Parser (HM 23-03-08)
-    ================
-*/
-package MJ;
-
-import java.util.*;
-import MJ.SymTab.*;
-import MJ.CodeGen.*;
-
-public class Parser {
-	private static final int  // token codes
-			none = 0,
-			ident = 1,
-			number = 2,
-			charCon = 3,
-			plus = 4,
-			minus = 5,
-			times = 6,
-			slash = 7,
-			rem = 8,
-			eql = 9,
-			neq = 10,
-			lss = 11,
-			leq = 12,
-			gtr = 13,
-			geq = 14,
-			assign = 15,
-			semicolon = 16,
-			comma = 17,
-			period = 18,
-			lpar = 19,
-			rpar = 20,
-			lbrack = 21,
-			rbrack = 22,
-			lbrace = 23,
-			rbrace = 24,
-			class_ = 25,
-			else_ = 26,
-			final_ = 27,
-			if_ = 28,
-			new_ = 29,
-			print_ = 30,
-			program_ = 31,
-			read_ = 32,
-			return_ = 33,
-			void_ = 34,
-			while_ = 35,
-			eof = 36;
-	private static final String[] name = { // token names for error messages
-			"none", "identifier", "number", "char constant", "+", "-", "*", "/", "%",
-			"==", "!=", "<", "<=", ">", ">=", "=", ";", ",", ".", "(", ")",
-			"[", "]", "{", "}", "class", "else", "final", "if", "new", "print",
-			"program", "read", "return", "void", "while", "eof"
-	};
-
-	private static Token t;                // current token (recently recognized)
-	private static Token la;            // lookahead token
-	private static int sym;                // always contains la.kind
-	public static int errors;    // error counter
-	private static int errDist;        // no. of correctly recognized tokens since last error
-
-	private static Obj curMethod;    // currently compiled method
-
-	//----------- terminal first/sync sets; initialized in method parse() -----
-	private static BitSet firstExpr, firstStat, syncStat, syncDecl;
-
-	//------------------- auxiliary methods ----------------------
-	private static void scan() {
-		t = la;
-		la = Scanner.next();
-		sym = la.kind;
-		errDist++;
-		/*
-		System.out.print("line " + la.line + ", col " + la.col + ": " + name[sym]);
-		if (sym == ident) System.out.print(" (" + la.val + ")");
-		if (sym == number || sym == charCon) System.out.print(" (" + la.numVal + ")");
-		System.out.println();*/
-	}
-
-	private static void check(int expected) {
-		if (sym == expected) scan();
-		else error(name[expected] + " expected");
-	}
-
-	public static void error(String msg) { // syntactic error at token la
-		if (errDist >= 3) {
-			System.out.println("-- line " + la.line + " col " + la.col + ": " + msg);
-			errors++;
-		}
-		errDist = 0;
-	}
-
-	//-------------- parsing methods (in alphabetical order) -----------------
-
-
-	private static void Addop() {
-		//Addop = "+" | "-";
-		if (sym == plus) {
-			scan();
-		} else if (sym == minus) {
-			scan();
-		} else {
-			error("Invalid operator at Addop()");
-		}
-	}
-
-	private static void ActPars() {
-		//ActPars = "(" [ Expr {"," Expr} ] ")";
-		check(lpar);
-		if (firstExpr.get(sym)) {
-			while (sym == comma) {
-				scan();
-				Expr();
-			}
-		}
-		check(rpar);
-	}
-
-	private static void Block() {
-		//Block = "{" {Statement} "}";
-		check(lbrace);
-		while (firstStat.get(sym)) {
-			Statement();
-		}
-		check(rbrace);
-	}
-
-	private static void ClassDecl() {
-		//ClassDecl = "class" ident "{" {VarDecl} "}";
-
-		check(class_);
-		check(ident);
-		check(lbrace);
-		while (sym == ident) {
-			VarDecl();
-		}
-		check(rbrace);
-	}
-
-	private static void Condition() {
-		//Condition = Expr Relop Expr;
-		Expr();
-		Relop();
-		Expr();
-	}
-
-	private static void ConstDecl() {
-		//ConstDecl = "final" Type ident "=" (number | charConst) ";";
-		check(final_);
-		Type();
-		check(ident);
-		check(assign);
-		if (sym == number) {
-			scan();
-		} else if (sym == charCon) {
-			scan();
-		} else {
-			error("Invalid symbol at ConstDecl");
-		}
-		check(semicolon);
-	}
-
-	private static Operand Designator() {
-		//Designator = ident {"." ident | "[" Expr "]"};
-		check(ident);
-		Obj obj = Tab.find(t.val);
-		Operand op = new Operand(obj);
-		while (sym == period || sym == lbrack) {
-			if (sym == period) {
-				scan();
-				check(ident);
-				obj = Tab.findField(obj, t.val);
-            	op = new Operand(obj);
-			} else if (sym == lbrack) {
-				scan();
-				Operand index = Expr();
-				check(rbrack);
-				Code.load(op); 
-           		Code.load(index); 
-            	Code.put(new Operand(Operand.Elem));
-			} else {
-				error("Invalid symbol at designator");
-			}
-		}
-		return op;
-	}
-
-	private static Operand Expr() {
-		boolean neg = false;
-		//Expr = ["-"] Term {Addop Term};
-		if (sym == minus) {
-			neg = true;
-			scan();
-		}
-		Operand left = Term();
-
-		if (neg) {
-			Code.neg(left);
-		}
-		while (sym == plus || sym == minus) {
-			int op = sym;
-			Addop();
-			Operand right = Term();
-
-			if (op == plus) {
-				Code.add(left, right);
-			} else {
-				Code.sub(left, right);
-			}
-		}
-		return left;
-	}
-
-	private static void Factor() {
-		//**Factor = Designator [ActPars]
-		//| number
-		//| charConst
-		//| "new" ident ["[" Expr "]"]
-		//| "(" Expr ")";
-		if (sym == ident) {
-			Designator();
-			if (sym == lpar) {
-				ActPars();
-			}
-		} else if (sym == number) {
-			scan();
-		} else if (sym == charCon) {
-			scan();
-		} else if (sym == new_) {
-			scan();
-			check(ident);
-			if (sym == lbrack) {
-				scan();
-				Expr();
-				check(rbrack);
-			}
-		} else if (sym == lpar) {
-			scan();
-			Expr();
-			check(rpar);
-		} else {
-			error("Error at Factor");
-		}
-	}
-
-	private static void FormPars() {
-		//FormPars = Type ident {"," Type ident};
-		Type();
-		check(ident);
-		while (sym == comma) {
-			scan();
-			Type();
-			check(ident);
-		}
-	}
-
-	private static void MethodDecl() {
-		//MethodDecl = (Type | "void") ident "(" [FormPars] ")" {VarDecl} Block;
-
-		if (sym == ident) {
-			Type();
-		} else if (sym == void_) {
-			scan();
-		} else {
-			error("Error at MethodDecl");
-		}
-
-		check(ident);
-		check(lpar);
-		if (sym == ident) {
-			FormPars();
-		}
-		check(rpar);
-		while (sym == ident) {
-			VarDecl();
-		}
-		Block();
-	}
-
-	private static void Mulop() {
-		//Mulop = "*" | "/" | "%";
-
-		if (sym == times) {
-			scan();
-		} else if (sym == slash) {
-			scan();
-		} else if (sym == rem) {
-			scan();
-		} else {
-			error("Invalid operator at Mulop");
-		}
-	}
-
-	private static void Program() {
-
-		//Program = "program" ident {ConstDecl | ClassDecl | VarDecl} '{' {MethodDecl} '}';
-
-		check(program_);
-		check(ident);
-		while (sym == final_ || sym == class_ || sym == ident) {
-			if (sym == final_) {
-				ConstDecl();
-			} else if (sym == class_) {
-				ClassDecl();
-			} else if (sym == ident) {
-				VarDecl();
-			} else {
-				error("Invalid Declaration");
-			}
-		}
-		check(lbrace);
-		while (sym == ident || sym == void_) {
-			MethodDecl();
-		}
-		check(rbrace);
-	}
-
-	private static void Relop() {
-		//Relop = "==" | "!=" | ">" | ">=" | "<" | "<=";
-		if (sym == eql) {
-			scan();
-		} else if (sym == neq) {
-			scan();
-		} else if (sym == gtr) {
-			scan();
-		} else if (sym == geq) {
-			scan();
-		} else if (sym == lss) {
-			scan();
-		} else if (sym == leq) {
-			scan();
-		} else {
-			error("Invalid Operator");
-		}
-	}
-
-	private static void Statement() {
-		//Statement = Designator ("=" Expr | ActPars) ";" 
-		if (sym == ident) {
-			Operand left = Designator();
-			if (sym == assign) {
-				scan();
-				Operand right = Expr();
-				Code.store(left, right);
-			} else if (sym == lpar) {
-				ActPars();
-				Code.callMethod(left.obj);
-			} else {
-				error("Assignment or call Expected");
-			}
-			check(semicolon);
-			//| "if" "(" Condition ")" Statement ["else" Statement]
-		} else if (sym == if_) {
-			IfStatement();
-			scan();
-			check(lpar);
-			Condition();
-			check(rpar);
-			if (sym == else_) {
-				scan();
-				Statement();
-			}
-
-
-			//| "while" "(" Condition ")" Statement
-		} else if (sym == while_) {
-			WhileStatement();
-			scan();
-			check(lpar);
-			Condition();
-			check(rpar);
-			Statement();
-
-			//	| "return" [Expr] ";"
-		} else if (sym == return_) {
-			scan();
-			if (firstExpr.get(sym)) {
-				Expr();
-			}
-			check(semicolon);
-
-			//| "read" "(" Designator ")" ";"
-		} else if (sym == read_) {
-			scan();
-			check(lpar);
-			Designator();
-			check(rpar);
-			check(semicolon);
-
-			//	| "print" "(" Expr ["," number] ")" ";"
-		} else if (sym == print_) {
-			scan();
-			check(lpar);
-			Expr();
-			if (sym == comma) {
-				check(comma);
-				check(number);
-			}
-			check(rpar);
-			check(semicolon);
-
-			//	| Block
-		} else if (sym == lbrace) {
-			Block();
-
-			//	| ";";
-		} else if (sym == semicolon) {
-			check(semicolon);
-		} else {
-			error("Invalid option at statement");
-		}
-	}
-
-	private static Operand Term() {
-		//Term = Factor {Mulop Factor};
-		Operand left = Factor();
-		while (sym == times || sym == rem || sym == slash) {
-			int op = sym;
-			Mulop();
-			Operand right = Factor();
-
-			if (op == times) {
-				Code.mul(left, right);
-			} else if (op == slash) {
-				Code.div(left, right);
-			} else {
-				Code.rem(left, right);
-			}
-		}
-		return left;
-	}
-
-	private static Struct Type() {
-		Obj obj = Tab.find(t.val);
-		if (obj.kind != Obj.Type) {
-			error(t.val + " is not a valid type");
-			return Tab.noType;
-		}
-		Struct type = obj.type;
-		//Type = ident ["[" "]"];
-		check(ident);
-		if (sym == lbrack) {
-			scan();
-			check(rbrack);
-			type = new Struct(Struct.Arr, type);
-		}
-		return type;
-	}
-
-	private static void VarDecl() {
-		//VarDecl = Type ident {"," ident } ";";
-
-		Type();
-		check(ident);
-		while (sym == comma) {
-			scan();
-			check(ident);
-		}
-		check(semicolon);
-	}
-
-	public static void parse() {
-		BitSet s;
-		// initialize first/sync sets
-		s = new BitSet(64);
-		firstExpr = s;
-		s.set(ident);
-		s.set(number);
-		s.set(charCon);
-		s.set(new_);
-		s.set(lpar);
-		s.set(minus);
-
-		s = new BitSet(64);
-		firstStat = s;
-		s.set(ident);
-		s.set(if_);
-		s.set(while_);
-		s.set(read_);
-		s.set(return_);
-		s.set(print_);
-		s.set(lbrace);
-		s.set(semicolon);
-
-		s = (BitSet) firstStat.clone();
-		syncStat = s;
-		s.clear(ident);
-		s.set(rbrace);
-		s.set(eof);
-
-		s = new BitSet(64);
-		syncDecl = s;
-		s.set(final_);
-		s.set(ident);
-		s.set(class_);
-		s.set(lbrace);
-		s.set(void_);
-		s.set(eof);
-
-		// start parsing
-		errors = 0;
-		errDist = 3;
-		scan();
-		Program();
-		if (sym != eof) error("end of file found before end of program");
-		if (Code.mainPc < 0) error("program contains no 'main' method");
-		Tab.dumpScope(Tab.curScope.locals);
-	}
-}
+/*  MicroJava Parser (HM 23-03-08)
+    ================
+*/
+package MJ;
+
+import java.util.*;
+import static MJ.Token.*;
+import MJ.SymTab.*;
+import MJ.CodeGen.*;
+
+public class Parser {
+	private static Tokens tokens;    // tokens of the source, scanned on demand
+	private static Tokens buffer;    // token buffer of parse(), reused
+	private static int la;                // index of the lookahead token; la - 1: current token (recently recognized)
+	private static int sym;                // always contains the kind of token la
+	public static int errors;    // error counter
+	static Incremental session;  // records the methods and errors instead of printing them, or null
+	static int errDist;                // no. of correctly recognized tokens since last error
+
+	private static Obj curMethod;    // currently compiled method
+
+	//----------- terminal first/sync sets; initialized in method parse() -----
+	private static BitSet firstExpr, firstStat, syncStat, syncDecl;
+
+	//------------------- auxiliary methods ----------------------
+	private static void scan() {
+		la++;
+		if (la >= tokens.n) tokens.fill(la);
+		sym = tokens.kind[la];
+		errDist++;
+		/*
+		System.out.print("line " + tokens.line[la] + ", col " + tokens.col[la] + ": " + name[sym]);
+		if (sym == ident) System.out.print(" (" + tokens.val(la) + ")");
+		if (sym == number || sym == charCon) System.out.print(" (" + tokens.numVal[la] + ")");
+		System.out.println();*/
+	}
+
+	// Lexeme of the current token ("" before the first one)
+	private static String val() {
+		return la > 0 ? tokens.val(la - 1) : "";
+	}
+
+	// Value of the current token (number or char constant)
+	private static int numVal() {
+		return tokens.numVal[la - 1];
+	}
+
+	private static void check(int expected) {
+		if (sym == expected) scan();
+		else error(name[expected] + " expected");
+	}
+
+	public static void error(String msg) { // syntactic error at token la
+		if (errDist >= 3) {
+			if (session != null) session.error(la, msg);
+			else System.out.println("-- line " + tokens.line[la] + " col " + tokens.col[la] + ": " + msg);
+			errors++;
+		}
+		errDist = 0;
+	}
+
+	//-------------- parsing methods (in alphabetical order) -----------------
+
+	private static int Addop() {
+		//Addop = "+" | "-";
+		if (sym == plus) {
+			scan();
+			return plus;
+		} else if (sym == minus) {
+			scan();
+			return minus;
+		} else {
+			error("Invalid operator at Addop()");
+			return plus;
+		}
+	}
+
+	private static void ActPars(Operand m) {
+		//ActPars = "(" [ Expr {"," Expr} ] ")";
+		check(lpar);
+		if (m.kind != Operand.Meth) {
+			error("called object is not a method");
+			m.obj = Tab.noObj;
+		}
+		int n = 0;
+		if (firstExpr.get(sym)) {
+			for (;;) {
+				Operand ap = Expr();
+				Code.load(ap);
+				if (n < m.obj.nPars && !ap.type.assignableTo(param(m.obj, n).type))
+					error("parameter type mismatch");
+				n++;
+				if (sym == comma) scan(); else break;
+			}
+		}
+		if (n > m.obj.nPars) error("too many actual parameters");
+		else if (n < m.obj.nPars) error("too few actual parameters");
+		check(rpar);
+	}
+
+	private static void Block() {
+		//Block = "{" {Statement} "}";
+		check(lbrace);
+		for (;;) {
+			if (firstStat.get(sym)) {
+				Statement();
+			} else if (sym == rbrace || sym == eof) {
+				break;
+			} else {
+				error("invalid start of statement");
+				do scan(); while (!syncStat.get(sym));
+				errDist = 0;
+			}
+		}
+		check(rbrace);
+	}
+
+	private static void ClassDecl() {
+		//ClassDecl = "class" ident "{" {VarDecl} "}";
+		check(class_);
+		check(ident);
+		Struct type = new Struct(Struct.Class);
+		Tab.insert(Obj.Type, val(), type);
+		check(lbrace);
+		Tab.openScope();
+		while (sym == ident) {
+			VarDecl();
+		}
+		type.fields = Tab.curScope.locals;
+		type.nFields = Tab.curScope.nVars;
+		Tab.closeScope();
+		check(rbrace);
+	}
+
+	private static int Condition() {
+		//Condition = Expr Relop Expr;
+		Operand x = Expr();
+		Code.load(x);
+		int op = Relop();
+		Operand y = Expr();
+		Code.load(y);
+		if (!x.type.compatibleWith(y.type)) error("type mismatch");
+		else if (x.type.isRefType() && op != Code.eq && op != Code.ne) error("invalid compare");
+		return op;
+	}
+
+	private static void ConstDecl() {
+		//ConstDecl = "final" Type ident "=" (number | charConst) ";";
+		check(final_);
+		Struct type = Type();
+		check(ident);
+		Obj obj = Tab.insert(Obj.Con, val(), type);
+		check(assign);
+		if (sym == number) {
+			scan();
+			if (type != Tab.intType) error("int constant expected");
+			obj.val = numVal();
+		} else if (sym == charCon) {
+			scan();
+			if (type != Tab.charType) error("char constant expected");
+			obj.val = numVal();
+		} else {
+			error("Invalid symbol at ConstDecl");
+		}
+		check(semicolon);
+	}
+
+	private static Operand Designator() {
+		//Designator = ident {"." ident | "[" Expr "]"};
+		check(ident);
+		Operand x = new Operand(Tab.find(val()));
+		while (sym == period || sym == lbrack) {
+			if (sym == period) {
+				scan();
+				check(ident);
+				Code.load(x);
+				Obj fld = Tab.findField(val(), x.type);
+				if (fld == Tab.noObj && x.type.kind == Struct.Class) error(val() + " is not a field");
+				x.kind = Operand.Fld;
+				x.adr = fld.adr;
+				x.type = fld.type;
+			} else {
+				scan();
+				Code.load(x);
+				Operand index = Expr();
+				if (x.type.kind != Struct.Arr) error("indexed object is not an array");
+				if (index.type != Tab.intType) error("index must be of type int");
+				Code.load(index);
+				check(rbrack);
+				x.kind = Operand.Elem;
+				x.type = x.type.kind == Struct.Arr ? x.type.elemType : Tab.noType;
+			}
+		}
+		return x;
+	}
+
+	private static Operand Expr() {
+		//Expr = ["-"] Term {Addop Term};
+		boolean neg = false;
+		if (sym == minus) {
+			neg = true;
+			scan();
+		}
+		Operand left = Term();
+		if (neg) {
+			if (left.type != Tab.intType) error("operand must be of type int");
+			Code.neg(left);
+		}
+		while (sym == plus || sym == minus) {
+			Code.load(left);
+			int op = Addop();
+			Operand right = Term();
+			if (left.type != Tab.intType || right.type != Tab.intType)
+				error("operands must be of type int");
+			if (op == plus) {
+				Code.add(left, right);
+			} else {
+				Code.sub(left, right);
+			}
+		}
+		return left;
+	}
+
+	private static Operand Factor() {
+		//Factor = Designator [ActPars]
+		//| number
+		//| charConst
+		//| "new" ident ["[" Expr "]"]
+		//| "(" Expr ")";
+		Operand x;
+		if (sym == ident) {
+			x = Designator();
+			if (sym == lpar) {
+				ActPars(x);
+				if (x.type == Tab.noType) error("procedure called as a function");
+				Code.callMethod(x.obj);
+				x = new Operand(Operand.Stack, 0, x.type);
+			} else if (x.kind == Operand.Meth) {
+				error("method call expected");
+			}
+		} else if (sym == number) {
+			scan();
+			x = new Operand(numVal());
+		} else if (sym == charCon) {
+			scan();
+			x = new Operand(Operand.Con, numVal(), Tab.charType);
+		} else if (sym == new_) {
+			scan();
+			check(ident);
+			Obj obj = Tab.find(val());
+			Struct type = obj.type;
+			if (obj.kind != Obj.Type) {
+				error(val() + " is not a type");
+				type = Tab.noType;
+			}
+			if (sym == lbrack) {
+				scan();
+				Operand len = Expr();
+				if (len.type != Tab.intType) error("array size must be of type int");
+				Code.load(len);
+				check(rbrack);
+				Code.put(Code.newarray);
+				Code.put(type == Tab.charType ? 0 : 1);
+				type = Tab.arrayOf(type);
+			} else {
+				if (type.kind != Struct.Class) error("class type expected");
+				Code.put(Code.new_);
+				Code.put2(type.nFields);
+			}
+			x = new Operand(Operand.Stack, 0, type);
+		} else if (sym == lpar) {
+			scan();
+			x = Expr();
+			check(rpar);
+		} else {
+			error("Error at Factor");
+			x = new Operand(Operand.Stack, 0, Tab.noType);
+		}
+		return x;
+	}
+
+	private static void FormPars() {
+		//FormPars = Type ident {"," Type ident};
+		Struct type = Type();
+		check(ident);
+		Tab.insert(Obj.Var, val(), type);
+		while (sym == comma) {
+			scan();
+			type = Type();
+			check(ident);
+			Tab.insert(Obj.Var, val(), type);
+		}
+	}
+
+	private static void MethodDecl() {
+		//MethodDecl = (Type | "void") ident "(" [FormPars] ")" {VarDecl} Block;
+		Struct type = Tab.noType;
+		if (sym == ident) {
+			type = Type();
+		} else if (sym == void_) {
+			scan();
+		} else {
+			error("Error at MethodDecl");
+		}
+		check(ident);
+		curMethod = Tab.insert(Obj.Meth, val(), type);
+		Tab.openScope();
+		check(lpar);
+		if (sym == ident) {
+			FormPars();
+		}
+		check(rpar);
+		curMethod.nPars = Tab.curScope.nVars;
+		while (sym == ident) {
+			VarDecl();
+		}
+		curMethod.locals = Tab.curScope.locals;
+		curMethod.adr = Code.pc;
+		if (curMethod.name.equals("main")) {
+			Code.mainPc = Code.pc;
+			if (type != Tab.noType) error("method main must be void");
+			if (curMethod.nPars != 0) error("method main must not have parameters");
+		}
+		if (Tab.curScope.nVars > Code.maxVars) error("too many local variables");
+		Code.put(Code.enter);
+		Code.put(curMethod.nPars);
+		Code.put(Tab.curScope.nVars);
+		if (Inliner.on) Inliner.begin(curMethod);
+		Block();
+		if (type == Tab.noType) {
+			Code.put(Code.exit);
+			Code.put(Code.return_);
+		} else { // end of function reached without a return statement
+			Code.put(Code.trap);
+			Code.put(1);
+		}
+		if (Optimizer.on && errors == 0) Optimizer.method(curMethod);
+		Code.relax(curMethod.adr);
+		if (Inliner.on) Inliner.end(curMethod);
+		Tab.closeScope();
+	}
+
+	private static int Mulop() {
+		//Mulop = "*" | "/" | "%";
+		if (sym == times) {
+			scan();
+			return times;
+		} else if (sym == slash) {
+			scan();
+			return slash;
+		} else if (sym == rem) {
+			scan();
+			return rem;
+		} else {
+			error("Invalid operator at Mulop");
+			return times;
+		}
+	}
+
+	private static void Program() {
+		//Program = "program" ident {ConstDecl | ClassDecl | VarDecl} '{' {MethodDecl} '}';
+		check(program_);
+		check(ident);
+		Obj prog = Tab.insert(Obj.Prog, val(), Tab.noType);
+		Tab.openScope();
+		for (;;) {
+			if (sym == final_) {
+				ConstDecl();
+			} else if (sym == class_) {
+				ClassDecl();
+			} else if (sym == ident) {
+				VarDecl();
+			} else if (sym == lbrace || sym == eof) {
+				break;
+			} else {
+				error("Invalid Declaration");
+				do scan(); while (!syncDecl.get(sym));
+				errDist = 0;
+			}
+		}
+		Code.dataSize = Tab.curScope.nVars;
+		check(lbrace);
+		for (;;) {
+			if (sym == ident || sym == void_) {
+				if (session != null) session.method(la);
+				MethodDecl();
+				if (session != null) session.methodEnd(la, curMethod);
+			} else if (sym == rbrace || sym == eof) {
+				break;
+			} else {
+				error("Invalid method declaration");
+				do scan(); while (sym != ident && sym != void_ && sym != rbrace && sym != eof);
+				errDist = 0;
+			}
+		}
+		check(rbrace);
+		prog.locals = Tab.curScope.locals;
+		Tab.closeScope();
+	}
+
+	private static int Relop() {
+		//Relop = "==" | "!=" | ">" | ">=" | "<" | "<=";
+		int op = Code.eq;
+		if (sym == eql) {
+			op = Code.eq;
+		} else if (sym == neq) {
+			op = Code.ne;
+		} else if (sym == gtr) {
+			op = Code.gt;
+		} else if (sym == geq) {
+			op = Code.ge;
+		} else if (sym == lss) {
+			op = Code.lt;
+		} else if (sym == leq) {
+			op = Code.le;
+		} else {
+			error("Invalid Operator");
+			return op;
+		}
+		scan();
+		return op;
+	}
+
+	private static void Statement() {
+		//Statement = Designator ("=" Expr | ActPars) ";"
+		if (sym == ident) {
+			Operand left = Designator();
+			if (sym == assign) {
+				scan();
+				Operand right = Expr();
+				Code.load(right);
+				if (!right.type.assignableTo(left.type)) error("incompatible types in assignment");
+				Code.assignTo(left);
+			} else if (sym == lpar) {
+				ActPars(left);
+				Code.callMethod(left.obj);
+				if (left.type != Tab.noType) Code.put(Code.pop);
+			} else {
+				error("Assignment or call Expected");
+			}
+			check(semicolon);
+
+			//| "if" "(" Condition ")" Statement ["else" Statement]
+		} else if (sym == if_) {
+			scan();
+			check(lpar);
+			int op = Condition();
+			check(rpar);
+			Code.putFalseJump(op, 0);
+			int adr = Code.pc - 2;
+			Statement();
+			if (sym == else_) {
+				scan();
+				Code.putJump(0);
+				int adr2 = Code.pc - 2;
+				Code.fixup(adr);
+				Statement();
+				Code.fixup(adr2);
+			} else {
+				Code.fixup(adr);
+			}
+
+			//| "while" "(" Condition ")" Statement
+		} else if (sym == while_) {
+			int line = tokens.line[la];
+			scan();
+			int top = Code.pc;
+			if (Optimizer.loops) Optimizer.loop(top, line);
+			check(lpar);
+			int op = Condition();
+			check(rpar);
+			Code.putFalseJump(op, 0);
+			int adr = Code.pc - 2;
+			Statement();
+			Code.putJump(top);
+			Code.fixup(adr);
+
+			//	| "return" [Expr] ";"
+		} else if (sym == return_) {
+			scan();
+			if (firstExpr.get(sym)) {
+				Operand x = Expr();
+				Code.load(x);
+				if (curMethod.type == Tab.noType) error("void method must not return a value");
+				else if (!x.type.assignableTo(curMethod.type)) error("type of return value must match method type");
+			} else if (curMethod.type != Tab.noType) {
+				error("return value expected");
+			}
+			Code.put(Code.exit);
+			Code.put(Code.return_);
+			check(semicolon);
+
+			//| "read" "(" Designator ")" ";"
+		} else if (sym == read_) {
+			scan();
+			check(lpar);
+			Operand x = Designator();
+			if (x.type == Tab.intType) Code.put(Code.read);
+			else if (x.type == Tab.charType) Code.put(Code.bread);
+			else error("can only read int or char variables");
+			Code.assignTo(x);
+			check(rpar);
+			check(semicolon);
+
+			//	| "print" "(" Expr ["," number] ")" ";"
+		} else if (sym == print_) {
+			scan();
+			check(lpar);
+			Operand x = Expr();
+			Code.load(x);
+			int width = 0;
+			if (sym == comma) {
+				scan();
+				check(number);
+				width = numVal();
+			}
+			Code.load(new Operand(width));
+			if (x.type == Tab.intType) Code.put(Code.print);
+			else if (x.type == Tab.charType) Code.put(Code.bprint);
+			else error("can only print int or char values");
+			check(rpar);
+			check(semicolon);
+
+			//	| Block
+		} else if (sym == lbrace) {
+			Block();
+
+			//	| ";";
+		} else if (sym == semicolon) {
+			check(semicolon);
+		} else {
+			error("Invalid option at statement");
+		}
+	}
+
+	private static Operand Term() {
+		//Term = Factor {Mulop Factor};
+		Operand left = Factor();
+		while (sym == times || sym == rem || sym == slash) {
+			Code.load(left);
+			int op = Mulop();
+			Operand right = Factor();
+			if (left.type != Tab.intType || right.type != Tab.intType)
+				error("operands must be of type int");
+			if (op == times) {
+				Code.mul(left, right);
+			} else if (op == slash) {
+				Code.div(left, right);
+			} else {
+				Code.rem(left, right);
+			}
+		}
+		return left;
+	}
+
+	private static Struct Type() {
+		//Type = ident ["[" "]"];
+		check(ident);
+		Obj obj = Tab.find(val());
+		Struct type = obj.type;
+		if (obj.kind != Obj.Type) {
+			if (obj != Tab.noObj) error(val() + " is not a valid type");
+			type = Tab.noType;
+		}
+		if (sym == lbrack) {
+			scan();
+			check(rbrack);
+			type = Tab.arrayOf(type);
+		}
+		return type;
+	}
+
+	private static void VarDecl() {
+		//VarDecl = Type ident {"," ident } ";";
+		Struct type = Type();
+		check(ident);
+		Tab.insert(Obj.Var, val(), type);
+		while (sym == comma) {
+			scan();
+			check(ident);
+			Tab.insert(Obj.Var, val(), type);
+		}
+		check(semicolon);
+	}
+
+	// Formal parameter number i of method m
+	private static Obj param(Obj m, int i) {
+		for (Obj p = m.locals; p != null; p = p.next)
+			if (p.kind == Obj.Var && p.adr == i) return p;
+		return Tab.noObj;
+	}
+
+	public static void parse() {
+		if (buffer == null) buffer = new Tokens(); else buffer.clear();
+		parse(buffer);
+	}
+
+	// Parse the tokens in t, which are scanned on demand as far as t does not hold them yet
+	static void parse(Tokens t) {
+		BitSet s;
+		// initialize first/sync sets
+		s = new BitSet(64);
+		firstExpr = s;
+		s.set(ident);
+		s.set(number);
+		s.set(charCon);
+		s.set(new_);
+		s.set(lpar);
+		s.set(minus);
+
+		s = new BitSet(64);
+		firstStat = s;
+		s.set(ident);
+		s.set(if_);
+		s.set(while_);
+		s.set(read_);
+		s.set(return_);
+		s.set(print_);
+		s.set(lbrace);
+		s.set(semicolon);
+
+		s = (BitSet) firstStat.clone();
+		syncStat = s;
+		s.clear(ident);
+		s.set(rbrace);
+		s.set(eof);
+
+		s = new BitSet(64);
+		syncDecl = s;
+		s.set(final_);
+		s.set(ident);
+		s.set(class_);
+		s.set(lbrace);
+		s.set(void_);
+		s.set(eof);
+
+		// start parsing
+		Tab.init();
+		Code.init();
+		curMethod = null;
+		tokens = t;
+		la = -1;
+		errors = 0;
+		errDist = 3;
+		scan();
+		Program();
+		if (sym != eof) error("end of file found before end of program");
+		if (Code.mainPc < 0) error("program contains no 'main' method");
+	}
+
+	// Parse the method declaration at token i of t into the current scope, with the
+	// code going to Code.pc and errDist tokens since the last error before token i;
+	// returns the index of the token after the declaration
+	static int parseMethod(Tokens t, int i, int dist) {
+		tokens = t;
+		la = i - 1;
+		errors = 0;
+		errDist = dist - 1;
+		scan();
+		MethodDecl();
+		return la;
+	}
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+/* MicroJava Execution Profiler
+   ============================
+Exact profile of a run (Run option -profile). The Machine runs the checked
+loop over the pre-decoded image and calls instr() before every instruction.
+Recorded are
+  - executions per opcode (as in the object file, e.g. load0 and load apart)
+  - calls per method (main counts as called once)
+  - inclusive and exclusive time per method; time spent in a method that is
+    already active (recursion) is counted once in its inclusive time
+  - taken and not-taken counts of every conditional jump
+  - exclusive time per call stack, written as collapsed stacks
+    ("main;m12;m40 <ns>" per line) for flame graph tools
+Methods are named by a symbol file if one is given (lines "address name",
+address = code address of the method's enter instruction), otherwise
+"m<address>"; the method at startPC is "main".
+*/
+package MJ;
+
+import java.io.*;
+import java.util.*;
+
+public class Profiler {
+	private final Image img;
+	private final byte code[];
+	private final Map<Integer, String> names;
+	final long ops[] = new long[Run.call_w + 1];	// executions per opcode; ops[0]: illegal opcodes
+	final long calls[];		// calls per method entry
+	final long taken[], notTaken[];	// per conditional jump
+	final long incl[], excl[];	// inclusive and exclusive time in ns per method entry
+	private final int active[];	// activations per method entry on the call stack
+
+	private static class Node { // node of the call tree
+		final int m;				// method entry
+		final Node parent;
+		long self;					// exclusive time in ns
+		Map<Integer, Node> children = new HashMap<Integer, Node>();
+
+		Node(int m, Node parent) { this.m = m; this.parent = parent; }
+
+		Node child(int m) {
+			Node n = children.get(m);
+			if (n == null) { n = new Node(m, this); children.put(m, n); }
+			return n;
+		}
+	}
+
+	private final Node root;
+	private Node node;			// call tree node of the running method
+	private int frames[] = new int[64];		// method entries on the call stack
+	private long start[] = new long[64];	// time at which the activations started
+	private int depth;
+	private long last;			// time of the last call or return
+
+	// names: method names by code address or null
+	Profiler(Image img, byte[] code, Map<Integer, String> names) {
+		this.img = img; this.code = code;
+		this.names = names == null ? new HashMap<Integer, String>() : names;
+		calls = new long[img.n + 1];
+		taken = new long[img.n + 1]; notTaken = new long[img.n + 1];
+		incl = new long[img.n + 1]; excl = new long[img.n + 1];
+		active = new int[img.n + 1];
+		root = node = new Node(-1, null);
+		last = System.nanoTime();
+		calls[img.start]++;
+		enter(img.start);
+	}
+
+	// Called before instruction i is executed on vm
+	void instr(Machine vm, int i) {
+		int op = img.op[i];
+		if (op == Image.badAdr) return;
+		int raw = op == 0 ? 0 : code[img.adr[i]];
+		ops[raw]++;
+		switch (op) {
+			case Run.jeq: case Run.jne: case Run.jlt: case Run.jle: case Run.jgt: case Run.jge:
+				if (vm.esp >= 2) {
+					if (Machine.cond(op, vm.stack[vm.esp - 2], vm.stack[vm.esp - 1])) taken[i]++;
+					else notTaken[i]++;
+				}
+				break;
+			case Run.call:
+				calls[img.a[i]]++;
+				enter(img.a[i]);
+				break;
+			case Run.return_:
+				leave();
+				break;
+		}
+	}
+
+	// Charge the time since the last call or return to the running method
+	private long charge() {
+		long t = System.nanoTime();
+		if (depth > 0) {
+			excl[frames[depth - 1]] += t - last;
+			node.self += t - last;
+		}
+		last = t;
+		return t;
+	}
+
+	private void enter(int m) {
+		long t = charge();
+		if (depth == frames.length) {
+			frames = Arrays.copyOf(frames, 2 * depth);
+			start = Arrays.copyOf(start, 2 * depth);
+		}
+		frames[depth] = m; start[depth] = t; depth++;
+		active[m]++;
+		node = node.child(m);
+	}
+
+	private void leave() {
+		if (depth == 0) return;
+		long t = charge();
+		depth--;
+		int m = frames[depth];
+		if (--active[m] == 0) incl[m] += t - start[depth];
+		node = node.parent;
+	}
+
+	// Close the activations that are still open when the program ends
+	void finish() {
+		while (depth > 0) leave();
+	}
+
+	String name(int m) {
+		String s = names.get(img.adr[m]);
+		if (s != null) return s;
+		return m == img.start ? "main" : "m" + img.adr[m];
+	}
+
+	//----- output
+
+	void report(PrintStream out) {
+		long total = 0;
+		for (long c: ops) total += c;
+		out.printf("%n-- profile: %d instructions%n", total);
+		out.println("opcode          count       %");
+		Integer order[] = new Integer[ops.length];
+		for (int op = 0; op < ops.length; op++) order[op] = op;
+		Arrays.sort(order, (x, y) -> Long.compare(ops[y], ops[x]));
+		for (int op: order)
+			if (ops[op] > 0)
+				out.printf("%-9s %11d %7.2f%n", op == 0 ? "???" : Run.opcode[op].trim(), ops[op], 100.0 * ops[op] / total);
+		out.println("method              address       calls  inclusive ms  exclusive ms");
+		List<Integer> methods = new ArrayList<Integer>();
+		for (int m = 0; m < img.n; m++) if (calls[m] > 0) methods.add(m);
+		methods.sort((x, y) -> Long.compare(excl[y], excl[x]));
+		for (int m: methods)
+			out.printf("%-20s %6d %11d %13.3f %13.3f%n", name(m), img.adr[m], calls[m], incl[m] / 1e6, excl[m] / 1e6);
+		out.println("branch address  op          taken   not taken");
+		for (int i = 0; i < img.n; i++)
+			if (taken[i] + notTaken[i] > 0)
+				out.printf("%14d  %-4s %11d %11d%n", img.adr[i], Run.opcode[img.op[i]].trim(), taken[i], notTaken[i]);
+	}
+
+	// Write the exclusive time per call stack in the collapsed stack format
+	void writeStacks(String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+		try {
+			for (Node n: root.children.values()) writeStacks(out, n, name(n.m));
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeStacks(PrintWriter out, Node n, String path) {
+		if (n.self > 0) out.println(path + " " + n.self);
+		for (Node c: n.children.values()) writeStacks(out, c, path + ";" + name(c.m));
+	}
+
+	// Read a symbol file with lines "address name"
+	static Map<Integer, String> readSymbols(String fileName) throws IOException {
+		Map<Integer, String> names = new HashMap<Integer, String>();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] f = line.trim().split("\\s+");
+				if (f.length == 2 && f[0].matches("\\d+")) names.put(Integer.parseInt(f[0]), f[1]);
+			}
+		} finally {
+			in.close();
+		}
+		return names;
+	}
+}
@@ -0,0 +1,72 @@
+/* MicroJava Program
+   =================
+A loaded object file together with everything derived from its code: the
+pre-decoded and verified Image, the superinstructions chosen by Fusion and
+the methods compiled by the Jit. A Program is set up completely by its
+constructor and not changed afterwards (the Jit only adds compiled code,
+under its own lock), so one Program can be run by any number of Machines
+at the same time.
+To run a program from other code, load it with load() or read() and run it
+on a new Machine with an IO.Streams or IO.Memory; Jobs does this for many
+runs on a thread pool.
+*/
+package MJ;
+
+import java.io.*;
+
+public class Program {
+	public static final int  // options
+		predecode = 1,	// run the pre-decoded image instead of code[]
+		verify    = 2,	// verify the image so that it runs without checks
+		fuse      = 4,	// use superinstructions in a verified image (see Fusion)
+		compile   = 8;	// compile hot methods of a verified image (see Jit)
+
+	final byte code[];				// code array
+	final int dataSize;				// size of global data area
+	final int startPC;				// address of main() method
+	final Image image;				// pre-decoded code (see Image); null without predecode
+	final Jit jit;						// compiled methods; null without compile
+	public final String verifyError;	// why the image failed verification; null if it passed or was not verified
+
+	// options: sum of the option flags above; profile: opcode pair profile
+	// that selects the superinstructions or null for all of them
+	public Program(byte[] code, int dataSize, int startPC, int options, long[] profile) throws FormatException {
+		this.code = code; this.dataSize = dataSize; this.startPC = startPC;
+		String err = null;
+		if ((options & predecode) != 0) {
+			image = Image.predecode(code, code.length, startPC, dataSize);
+			if ((options & verify) != 0) err = Verifier.verify(image);
+		} else image = null;
+		verifyError = err;
+		boolean verified = image != null && image.need != null;
+		if (verified && (options & fuse) != 0) Fusion.fuse(image, profile);
+		jit = verified && (options & compile) != 0 ? new Jit(image) : null;
+	}
+
+	// Read an object file
+	public static Program read(InputStream s, int options, long[] profile) throws IOException, FormatException {
+		int codeSize, dataSize, startPC;
+		byte sig[] = new byte[2];
+		DataInputStream in = new DataInputStream(s);
+		in.readFully(sig, 0, 2);
+		if (sig[0] != 'M' || sig[1] != 'J') throw new FormatException("wrong marker");
+		codeSize = in.readInt();
+		if (codeSize <= 0) throw new FormatException("codeSize <= 0");
+		dataSize = in.readInt();
+		if (dataSize < 0) throw new FormatException("dataSize < 0");
+		startPC = in.readInt();
+		if (startPC < 0 || startPC >= codeSize) throw new FormatException("startPC out of code area");
+		byte code[] = new byte[codeSize];
+		in.readFully(code, 0, codeSize);
+		return new Program(code, dataSize, startPC, options, profile);
+	}
+
+	public static Program load(String fileName, int options, long[] profile) throws IOException, FormatException {
+		InputStream in = new FileInputStream(fileName);
+		try {
+			return read(new BufferedInputStream(in), options, profile);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/* MicroJava Sampling Profiler
+   ===========================
+Low-overhead profile of a run (Run option -sample). A daemon thread wakes up
+every interval microseconds and, without stopping the Machine, reads
+  - the running location: pc in the classic loop, loc in the image loops
+  - the chain of return addresses on the method stack: the frame at fp holds
+    the caller's fp in local[fp-1] and the return address in local[fp-2]
+The Machine does not synchronize with the sampler, so a sample can be torn;
+the walk is bounded and discards frames that are out of range.
+The image loops publish loc only when control is transferred (jumps, calls,
+returns), so a sample always names the start of the running basic block.
+Compiled methods (-jit) do not publish loc; their time is charged to the
+block that entered them.
+All addresses in the report are code addresses, as printed by Decoder.
+A method is identified by its enter instruction (main or a call target) and
+covers the code up to the next method.
+*/
+package MJ;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class Sampler implements Runnable {
+	private final Machine vm;
+	private final Image img;			// the program's image or a pre-decoded copy for the classic loop
+	private final boolean byIndex;	// locations on the Machine are instruction indices
+	private final long interval;		// in ns
+	private final int methods[];		// sorted method entries (instruction indices)
+	private final int block[];			// first instruction of the basic block of each instruction
+	private final long self[];			// samples per method entry in which the method was running
+	private final long total[];		// samples per method entry in which the method was on the stack
+	private final long blockSamples[];	// samples per block start
+	private final int seen[];			// number of the last sample that counted the method in total[]
+	private int samples;
+	private long cost;						// time spent taking samples in ns
+	private long startTime, endTime;
+	private Thread thread;
+	private volatile boolean stop;
+
+	Sampler(Machine vm, int intervalMicros) throws FormatException {
+		Program p = vm.prog;
+		this.vm = vm;
+		byIndex = p.image != null;
+		img = byIndex ? p.image : Image.predecode(p.code, p.code.length, p.startPC, p.dataSize);
+		interval = Math.max(1, intervalMicros) * 1000L;
+		// method entries and basic blocks
+		boolean entry[] = new boolean[img.n + 1], leader[] = new boolean[img.n + 1];
+		entry[img.start] = true;
+		leader[0] = true;
+		for (int i = 0; i < img.n; i++) {
+			int op = img.op[i];
+			if (op == Run.call) entry[img.a[i]] = true;
+			if (op >= Run.jmp && op <= Run.jge) leader[img.a[i]] = true;
+			if (op >= Run.jmp && op <= Run.return_ || op == Run.trap) leader[i + 1] = true;
+		}
+		int k = 0;
+		for (int i = 0; i < img.n; i++) if (entry[i]) k++;
+		methods = new int[k];
+		k = 0;
+		for (int i = 0; i < img.n; i++) if (entry[i]) methods[k++] = i;
+		block = new int[img.n + 1];
+		for (int i = 0; i <= img.n; i++) block[i] = leader[i] || entry[i] || i == 0 ? i : block[i - 1];
+		self = new long[img.n + 1]; total = new long[img.n + 1];
+		blockSamples = new long[img.n + 1];
+		seen = new int[img.n + 1];
+	}
+
+	void start() {
+		startTime = System.nanoTime();
+		thread = new Thread(this, "MJ sampler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	void stop() {
+		stop = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {}
+		endTime = System.nanoTime();
+	}
+
+	public void run() {
+		while (!stop) {
+			LockSupport.parkNanos(interval);
+			if (stop) break;
+			long t = System.nanoTime();
+			sample();
+			cost += System.nanoTime() - t;
+		}
+	}
+
+	// Instruction index of the location x on the Machine or -1
+	private int index(int x) {
+		if (byIndex) return x >= 0 && x < img.n ? x : -1;
+		if (x < 0 || x >= img.adr[img.n]) return -1;
+		int lo = 0, hi = img.n - 1; // last instruction at or before x
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (img.adr[mid] <= x) lo = mid; else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// Entry of the method that contains instruction i
+	private int method(int i) {
+		int lo = 0, hi = methods.length - 1;
+		if (hi < 0 || i < methods[0]) return img.start;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (methods[mid] <= i) lo = mid; else hi = mid - 1;
+		}
+		return methods[lo];
+	}
+
+	private void sample() {
+		int i = index(byIndex ? vm.loc : vm.pc - 1);
+		if (i < 0) return;
+		samples++;
+		blockSamples[block[i]]++;
+		int m = method(i);
+		self[m]++;
+		total[m]++; seen[m] = samples;
+		int local[] = vm.local, fp = vm.fp;
+		for (int k = 0; k < Run.mStackSize && fp >= 2 && fp <= local.length; k++) {
+			int ra = index(local[fp - 2]), next = local[fp - 1];
+			if (ra < 0 || next >= fp || next < 0) break;
+			m = method(ra);
+			if (seen[m] != samples) { total[m]++; seen[m] = samples; }
+			fp = next;
+		}
+	}
+
+	void report(PrintStream out) {
+		long time = endTime - startTime;
+		out.printf("%n-- samples: %d every %d us, sampling took %.3f ms (%.2f%% of %.1f ms)%n",
+			samples, interval / 1000, cost / 1e6, time > 0 ? 100.0 * cost / time : 0.0, time / 1e6);
+		if (samples == 0) return;
+		out.println("method address      self       %     total       %");
+		Integer order[] = new Integer[methods.length];
+		for (int k = 0; k < methods.length; k++) order[k] = methods[k];
+		Arrays.sort(order, (x, y) -> Long.compare(self[y], self[x]));
+		for (int m: order)
+			if (total[m] > 0)
+				out.printf("%14d %9d %7.2f %9d %7.2f%n", img.adr[m], self[m], 100.0 * self[m] / samples,
+					total[m], 100.0 * total[m] / samples);
+		out.println("block address    end   method   samples       %");
+		List<Integer> blocks = new ArrayList<Integer>();
+		for (int b = 0; b < img.n; b++) if (blockSamples[b] > 0) blocks.add(b);
+		blocks.sort((x, y) -> Long.compare(blockSamples[y], blockSamples[x]));
+		for (int b: blocks.subList(0, Math.min(20, blocks.size()))) {
+			int end = b + 1;
+			while (end < img.n && block[end] == b) end++;
+			out.printf("%13d %6d %8d %9d %7.2f%n", img.adr[b], img.adr[end] - 1, img.adr[method(b)],
+				blockSamples[b], 100.0 * blockSamples[b] / samples);
+		}
+	}
+}
@@ -1,208 +1,546 @@
-/* MicroJava Scanner (HM 23-03-09)
-   =================
-*/
-package MJ;
-import java.io.*;
-import java.util.Arrays;
-
-public class Scanner {
-	private static final char eofCh = '\u0080';
-	private static final char eol = '\n';
-	private static final int  // token codes
-		none      = 0,  // error token
-		ident     = 1,  // identifier
-		number    = 2,  // number
-		charCon   = 3,  // character constant
-		plus      = 4,  // +
-		minus     = 5,  // -
-		times     = 6,  // *
-		slash     = 7,  // /
-		rem       = 8,  // %
-		eql       = 9,  // ==
-		neq       = 10, // !=
-		lss       = 11, // <
-		leq       = 12, // <=
-		gtr       = 13, // >
-		geq       = 14, // >=
-		assign    = 15, // =
-		semicolon = 16, // ;
-		comma     = 17, // ,
-		period    = 18, // .
-		lpar      = 19, // (
-		rpar      = 20, // )
-		lbrack    = 21, // [
-		rbrack    = 22, // ]
-		lbrace    = 23, // {
-		rbrace    = 24, // }
-		class_    = 25, // ... keywords ...
-		else_     = 26,
-		final_    = 27,
-		if_       = 28,
-		new_      = 29,
-		print_    = 30,
-		program_  = 31,
-		read_     = 32,
-		return_   = 33,
-		void_     = 34,
-		while_    = 35,
-		eof       = 36; // end-of-file token
-
-	private static final String key[] = { // sorted list of keywords
-		"class", "else", "final", "if", "new", "print",
-		"program", "read", "return", "void", "while"
-	};
-	private static final int keyVal[] = {
-		class_, else_, final_, if_, new_, print_,
-		program_, read_, return_, void_, while_
-	};
-
-	private static char ch;			// lookahead character
-	public  static int col;			// current column
-	public  static int line;		// current line
-	private static Reader in;  	// source file reader
-	private static char[] lex;	// current lexeme (token string)
-
-	//----- ch = next input character
-	private static void nextCh() {
-		try {
-			ch = (char)in.read(); col++;
-			if (ch == eol) {line++; col = 0;}
-			else if (ch == '\uffff') ch = eofCh;
-		} catch (IOException e) {
-			ch = eofCh;
-		}
-	}
-
-	//--------- Initialize scanner
-	public static void init(Reader r) {
-		in = new BufferedReader(r);
-		lex = new char[128];
-		line = 1; col = 0;
-		nextCh();
-	}
-
-	//---------- Return next input token
-	public static Token next() {
-		while (ch <= ' ') nextCh(); // skip blanks, tabs, eols
-		Token t = new Token(); t.line = line; t.col = col;
-		switch (ch) {
-		case 'a': case 'b': case 'c': case 'd': case 'e': case 'f': case 'g': case 'h': case 'i': case 'j': case 'k':
-		case 'l': case 'm': case 'n': case 'o': case 'p': case 'q': case 'r': case 's':case 't': case 'u': 
-		case 'v': case 'w': case 'x': case 'y': case 'z': case 'A': case 'B': case 'C': case 'D': case 'E': 
-		case 'F': case 'G': case 'H': case 'I': case 'J': case 'K': case 'L': case 'M': case 'N': case 'O': case 'P':
-		case 'Q': case 'R': case 'S': case 'T': case 'U': case 'V': case 'W': case 'X': case 'Y': case 'Z':
-			readName(t); break;
-		case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
-			readNumber(t); break;
-		case ';': nextCh(); t.kind = semicolon; break;
-		case '.': nextCh(); t.kind = period; break;
-		case '+': nextCh(); t.kind = plus; break;
-		case '-': nextCh(); t.kind = minus; break;
-		case '*': nextCh(); t.kind = times; break;
-		case '%': nextCh(); t.kind = rem; break;
-		case ',': nextCh(); t.kind = comma; break;
-		case '(': nextCh(); t.kind = lpar; break;
-		case ')': nextCh(); t.kind = rpar; break;
-		case '[': nextCh(); t.kind = lbrack; break;
-		case ']': nextCh(); t.kind = rbrack; break;
-		case '{': nextCh(); t.kind = lbrace; break;
-		case '}': nextCh(); t.kind = rbrace; break;
-		case eofCh: t.kind = eof; break; // no nextCh() any more
-		case '=': nextCh();
-			if (ch == '=') { nextCh(); t.kind = eql; } else t.kind = assign;
-			break;
-		case '<': nextCh();
-			if (ch == '=') { nextCh(); t.kind = leq; } else t.kind = lss;
-			break;
-		case '>': nextCh();
-			if (ch == '=') { nextCh(); t.kind = geq; } else t.kind = gtr;
-			break;
-		case '/': nextCh();
-			if (ch == '/') {
-				do nextCh(); while (ch != '\n' && ch != eofCh);
-				t = next(); // call scanner recursively
-			} else t.kind = slash;
-			break;
-		case '\'': 
-			nextCh();
-			readCharCon(t);
-			break;
-		case '!': nextCh();
-			if (ch == '=') { nextCh(); t.kind = neq;} else t.kind = none;
-			break;
-		default: nextCh(); t.kind = none; break;
-		}
-		return t;
-	}
-	
-	private static void readName(Token t) {
-		t.val = "";
-		while (Character.isLetterOrDigit(ch)) {
-			t.val += ch;
-			nextCh();
-		}
-		
-		int index = Arrays.binarySearch(key, t.val);
-		
-		if (index >= 0) {
-			t.kind = keyVal[index];
-		} else {
-			t.kind = ident;
-		}
-	}
-	
-	private static void readNumber(Token t) {
-		t.val = "";
-		while (Character.isDigit(ch)) {
-			t.val += ch;
-			nextCh();
-		}
-		try {
-			t.numVal = Integer.parseInt(t.val);
-		} catch (NumberFormatException e) {
-			System.out.println("line " + t.line + " col " + t.col + " number overflow");
-		}
-		t.kind = number;
-	}
-	
-	private static void readCharCon(Token t) {
-		t.val = "";
-	
-		if (ch == '\'') { // Empty char constant
-			System.out.println("line " + line + " col " + col + ": Empty character constant");
-			t.kind = none;
-			nextCh();
-			return;
-		}
-	
-		if (ch == '\\') { // Escape sequence handling
-			nextCh();
-			switch (ch) {
-				case 'n': t.val = "\n"; break;
-				case 'r': t.val = "\r"; break;
-				case 't': t.val = "\t"; break;
-				case '\\': t.val = "\\"; break;
-				case '\'': t.val = "'"; break;
-				default:
-					System.out.println("line " + line + " col " + col + ": Invalid character constant");
-					t.kind = none;
-					nextCh();
-					return;
-			}
-		} else {  
-			t.val = String.valueOf(ch); 
-		}
-	
-		nextCh(); 
-	
-		if (ch == '\'') { // Closing quote check
-			t.kind = charCon;
-			t.numVal = t.val.charAt(0);
-			nextCh(); 
-		} else {
-			System.out.println("line " + line + " col " + col + ": Missing closing quote");
-			t.kind = none;
-		}
-	}
-	
-}
+/* MicroJava Scanner (HM 23-03-09)
+   =================
+The scanner reads either characters from a Reader (init(Reader)), or bytes
+of an ASCII or UTF-8 source from a byte array or a memory-mapped file
+(init(byte[], int), init(File)). In the byte mode next(Token) fills the given
+token without allocating: start and len locate the lexeme in the source,
+and names are interned through a name pool (see Names), so that a String is
+created only for the first occurrence of a name. Columns count bytes, so
+after a non-ASCII character they differ from the character mode.
+In both modes a name starts with an ASCII letter and goes on with letters
+and digits (Character.isLetterOrDigit), so it may contain non-ASCII letters
+such as umlauts; the byte mode decodes their UTF-8 sequences. Any other
+non-ASCII character is a token of kind none. Characters outside the Basic
+Multilingual Plane end a name in both modes (the character mode sees them
+as two chars).
+Keywords are recognized in both modes without a String by a minimal perfect
+hash over the length and the first and last characters of a name. Its
+associated character values are searched for when the class is loaded, from
+the keywords in Token.name.
+No token of the byte mode spans a line end, so scanParallel can scan a large
+source in chunks of whole lines on a fork/join pool and join their tokens.
+*/
+package MJ;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import static MJ.Token.*;
+
+public class Scanner {
+	private static final char eofCh = '\u0080';
+	private static final char eol = '\n';
+	// keywords: minimal perfect hash over the length and the first and last characters
+	private static final int nKeys = lastKeyword - firstKeyword + 1;
+	private static final int asso[] = new int[128];	// associated value per character
+	private static final byte keyword[][] = new byte[nKeys][];	// spelling of the keyword in each slot
+	private static final int keyKind[] = new int[nKeys];	// token code of the keyword in each slot
+
+	private static char ch;			// lookahead character
+	public  static int col;			// current column
+	public  static int line;		// current line
+	private static Reader in;  	// source file reader
+	private static char[] lex;	// current lexeme (token string)
+
+	private static ByteBuffer buf;	// source in the byte mode; null: characters from in
+	private static Lexer lexer;		// scans buf in the byte mode
+	private static final Names names = new Names();	// names of all sources so far
+	private static final byte cls[] = new byte[256];	// ASCII letter or digit per byte value
+	private static final int letter = 1, digit = 2;
+	private static final int minChunk = 1 << 20;	// bytes per chunk of scanParallel at least
+
+	static {
+		for (int c = 'a'; c <= 'z'; c++) { cls[c] = letter; cls[c - 'a' + 'A'] = letter; }
+		for (int c = '0'; c <= '9'; c++) cls[c] = digit;
+		// choose associated values until the keywords hash to distinct slots
+		Random rnd = new Random(0);
+		boolean ok;
+		do {
+			for (int k = firstKeyword; k <= lastKeyword; k++) {
+				asso[name[k].charAt(0)] = rnd.nextInt(nKeys);
+				asso[name[k].charAt(name[k].length() - 1)] = rnd.nextInt(nKeys);
+			}
+			Arrays.fill(keyword, null);
+			ok = true;
+			for (int k = firstKeyword; k <= lastKeyword && ok; k++) {
+				String s = name[k];
+				int h = keyHash(s.length(), s.charAt(0), s.charAt(s.length() - 1));
+				if (keyword[h] != null) ok = false;
+				keyword[h] = s.getBytes(); keyKind[h] = k;
+			}
+		} while (!ok);
+	}
+
+	private static int keyHash(int len, int first, int last) {
+		return (len + asso[first] + asso[last]) % nKeys;
+	}
+
+	// Token code of the name in lex[0..n-1]: a keyword or ident
+	private static int keyword(char[] lex, int n) {
+		if (lex[0] >= 128 || lex[n - 1] >= 128) return ident;
+		int h = keyHash(n, lex[0], lex[n - 1]);
+		byte k[] = keyword[h];
+		if (k.length != n) return ident;
+		for (int i = 0; i < n; i++) if (k[i] != lex[i]) return ident;
+		return keyKind[h];
+	}
+
+	//----- ch = next input character
+	private static void nextCh() {
+		try {
+			ch = (char)in.read(); col++;
+			if (ch == eol) {line++; col = 0;}
+			else if (ch == '\uffff') ch = eofCh;
+		} catch (IOException e) {
+			ch = eofCh;
+		}
+	}
+
+	//--------- Initialize scanner
+	public static void init(Reader r) {
+		buf = null;
+		in = new BufferedReader(r);
+		lex = new char[128];
+		line = 1; col = 0;
+		nextCh();
+	}
+
+	// Scan the bytes b[start..limit-1] of the buffer b
+	public static void init(ByteBuffer b) {
+		in = null;
+		buf = b;
+		lexer = new Lexer(b, b.position(), b.limit(), names);
+		line = 1; col = 0;
+	}
+
+	public static void init(byte[] b, int len) {
+		init(ByteBuffer.wrap(b, 0, len));
+	}
+
+	// Scan b[0..len-1] from position p, which is in line ln and not inside a token
+	static void init(byte[] b, int len, int p, int ln) {
+		init(b, len);
+		lexer.pos = lexer.lineStart = p; lexer.line = line = ln;
+		while (lexer.lineStart > 0 && b[lexer.lineStart - 1] != eol) lexer.lineStart--;
+	}
+
+	// Scan a memory-mapped source file
+	public static void init(File f) throws IOException {
+		FileChannel c = new FileInputStream(f).getChannel();
+		try {
+			init(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()));
+		} finally {
+			c.close();
+		}
+	}
+
+	//---------- Return next input token
+	public static Token next() {
+		Token t = new Token();
+		next(t);
+		return t;
+	}
+
+	//---------- Read the next input token into t
+	public static void next(Token t) {
+		if (buf != null) { scan(t); return; }
+		while (ch <= ' ') nextCh(); // skip blanks, tabs, eols
+		t.line = line; t.col = col; t.val = null; t.numVal = 0;
+		switch (ch) {
+		case 'a': case 'b': case 'c': case 'd': case 'e': case 'f': case 'g': case 'h': case 'i': case 'j': case 'k':
+		case 'l': case 'm': case 'n': case 'o': case 'p': case 'q': case 'r': case 's':case 't': case 'u': 
+		case 'v': case 'w': case 'x': case 'y': case 'z': case 'A': case 'B': case 'C': case 'D': case 'E': 
+		case 'F': case 'G': case 'H': case 'I': case 'J': case 'K': case 'L': case 'M': case 'N': case 'O': case 'P':
+		case 'Q': case 'R': case 'S': case 'T': case 'U': case 'V': case 'W': case 'X': case 'Y': case 'Z':
+			readName(t); break;
+		case '0': case '1': case '2': case '3': case '4': case '5': case '6': case '7': case '8': case '9':
+			readNumber(t); break;
+		case ';': nextCh(); t.kind = semicolon; break;
+		case '.': nextCh(); t.kind = period; break;
+		case '+': nextCh(); t.kind = plus; break;
+		case '-': nextCh(); t.kind = minus; break;
+		case '*': nextCh(); t.kind = times; break;
+		case '%': nextCh(); t.kind = rem; break;
+		case ',': nextCh(); t.kind = comma; break;
+		case '(': nextCh(); t.kind = lpar; break;
+		case ')': nextCh(); t.kind = rpar; break;
+		case '[': nextCh(); t.kind = lbrack; break;
+		case ']': nextCh(); t.kind = rbrack; break;
+		case '{': nextCh(); t.kind = lbrace; break;
+		case '}': nextCh(); t.kind = rbrace; break;
+		case eofCh: t.kind = eof; break; // no nextCh() any more
+		case '=': nextCh();
+			if (ch == '=') { nextCh(); t.kind = eql; } else t.kind = assign;
+			break;
+		case '<': nextCh();
+			if (ch == '=') { nextCh(); t.kind = leq; } else t.kind = lss;
+			break;
+		case '>': nextCh();
+			if (ch == '=') { nextCh(); t.kind = geq; } else t.kind = gtr;
+			break;
+		case '/': nextCh();
+			if (ch == '/') {
+				do nextCh(); while (ch != '\n' && ch != eofCh);
+				next(t); // call scanner recursively
+			} else t.kind = slash;
+			break;
+		case '\'': 
+			nextCh();
+			readCharCon(t);
+			break;
+		case '!': nextCh();
+			if (ch == '=') { nextCh(); t.kind = neq;} else t.kind = none;
+			break;
+		default: nextCh(); t.kind = none; break;
+		}
+	}
+	
+	private static void readName(Token t) {
+		int n = 0;
+		while (Character.isLetterOrDigit(ch)) {
+			if (n == lex.length) lex = Arrays.copyOf(lex, 2 * n);
+			lex[n++] = ch;
+			nextCh();
+		}
+		t.kind = keyword(lex, n);
+		t.val = t.kind == ident ? new String(lex, 0, n).intern() : name[t.kind];
+	}
+	
+	private static void readNumber(Token t) {
+		int n = 0;
+		while (Character.isDigit(ch)) {
+			if (n == lex.length) lex = Arrays.copyOf(lex, 2 * n);
+			lex[n++] = ch;
+			nextCh();
+		}
+		t.val = new String(lex, 0, n);
+		try {
+			t.numVal = Integer.parseInt(t.val);
+		} catch (NumberFormatException e) {
+			System.out.println("line " + t.line + " col " + t.col + " number overflow");
+		}
+		t.kind = number;
+	}
+	
+	private static void readCharCon(Token t) {
+		t.val = "";
+	
+		if (ch == '\'') { // Empty char constant
+			System.out.println("line " + line + " col " + col + ": Empty character constant");
+			t.kind = none;
+			nextCh();
+			return;
+		}
+	
+		if (ch == '\\') { // Escape sequence handling
+			nextCh();
+			switch (ch) {
+				case 'n': t.val = "\n"; break;
+				case 'r': t.val = "\r"; break;
+				case 't': t.val = "\t"; break;
+				case '\\': t.val = "\\"; break;
+				case '\'': t.val = "'"; break;
+				default:
+					System.out.println("line " + line + " col " + col + ": Invalid character constant");
+					t.kind = none;
+					nextCh();
+					return;
+			}
+		} else {  
+			t.val = String.valueOf(ch); 
+		}
+	
+		nextCh(); 
+	
+		if (ch == '\'') { // Closing quote check
+			t.kind = charCon;
+			t.numVal = t.val.charAt(0);
+			nextCh(); 
+		} else {
+			System.out.println("line " + line + " col " + col + ": Missing closing quote");
+			t.kind = none;
+		}
+	}
+
+	//---------- byte mode
+
+	private static void scan(Token t) {
+		Lexer l = lexer;
+		t.kind = l.scan();
+		t.line = line = l.line; t.col = l.tokCol; t.start = l.tokStart; t.len = l.pos - l.tokStart;
+		if (t.kind == ident) {
+			t.val = names.name(l.tokNum); t.numVal = 0;
+		} else {
+			t.val = null; t.numVal = l.tokNum;
+		}
+	}
+
+	// Append the next token to b
+	static void next(Tokens b) {
+		if (buf != null) {
+			Lexer l = lexer;
+			int k = l.scan();
+			b.add(k, line = l.line, l.tokCol, l.tokStart, l.pos - l.tokStart, l.tokNum);
+		} else {
+			Token t = new Token();
+			next(t);
+			b.add(t.kind, t.line, t.col, t.numVal, t.val);
+		}
+	}
+
+	// Interned name number e of the name pool
+	static String name(int e) {
+		return names.name(e);
+	}
+
+	// Lexeme at start with len bytes in the source of the byte mode
+	static String lexeme(int start, int len) {
+		byte b[] = new byte[len];
+		for (int i = 0; i < len; i++) b[i] = buf.get(start + i);
+		return new String(b, java.nio.charset.StandardCharsets.UTF_8);
+	}
+
+	// Scan the rest of the source (byte mode) into b, up to and including eof,
+	// on the common fork/join pool
+	public static void scanParallel(Tokens b) {
+		scanParallel(b, ForkJoinPool.commonPool());
+	}
+
+	// Scan the rest of the source (byte mode) into b, up to and including eof, in
+	// chunks of whole lines on pool. Every chunk has its own name pool, which is
+	// merged into the global one afterwards, and counts its lines from 1; then
+	// the chunks copy their tokens into b with the lines and names corrected.
+	// The messages of the chunks are printed at the end.
+	public static void scanParallel(Tokens b, ForkJoinPool pool) {
+		if (buf == null) throw new IllegalStateException("scanParallel needs the byte mode");
+		Lexer l = lexer;
+		int from = l.pos, end = l.end, size = end - from;
+		int n = (int)Math.max(1, Math.min(size / minChunk, 4L * pool.getParallelism()));
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		for (int p = from, i = 1; p < end || chunks.isEmpty(); i++) {
+			int q = Math.max(p + 1, from + (int)((long)size * i / n));
+			while (q < end && buf.get(q - 1) != eol) q++;
+			q = Math.min(q, end);
+			Lexer c = new Lexer(buf, p, q, chunks.isEmpty() ? names : new Names());
+			if (chunks.isEmpty()) { c.line = l.line; c.lineStart = l.lineStart; }
+			c.msgLine = new ArrayList<Integer>(); c.msg = new ArrayList<String>();
+			chunks.add(new Chunk(c));
+			p = q;
+		}
+		RecursiveAction all = new RecursiveAction() {
+			protected void compute() { invokeAll(chunks); }
+		};
+		pool.invoke(all);
+		int total = b.n, ln = l.line;
+		for (Chunk c: chunks) {
+			c.to = b; c.at = total;
+			total += c.tokens.n;
+			if (c.lexer.names != names) {
+				c.map = c.lexer.names.mapTo(names);
+				c.dLine = ln - 1;
+			}
+			ln = c.lexer.line + c.dLine;
+			c.reinitialize();
+		}
+		b.reserve(total + 1);
+		all.reinitialize();
+		pool.invoke(all);
+		b.n = total;
+		for (Chunk c: chunks)
+			for (int i = 0; i < c.lexer.msg.size(); i++)
+				System.out.println("line " + (c.lexer.msgLine.get(i) + c.dLine) + c.lexer.msg.get(i));
+		l.pos = end; l.line = line = ln; l.lineStart = chunks.get(chunks.size() - 1).lexer.lineStart;
+		next(b); // eof
+	}
+
+	// A range of whole lines that scanParallel scans into tokens; when to is set,
+	// it copies them to their place in to
+	@SuppressWarnings("serial")
+	private static final class Chunk extends RecursiveAction {
+		final Lexer lexer;
+		final Tokens tokens;
+		Tokens to;
+		int at;				// index of the first token in to
+		int dLine;		// lines before the chunk that it did not count
+		int map[];		// numbers of the chunk's names in the global pool, or null
+
+		Chunk(Lexer lexer) {
+			this.lexer = lexer;
+			tokens = new Tokens(Math.max(1024, (lexer.end - lexer.pos) / 4));
+		}
+
+		protected void compute() {
+			if (to == null) {
+				Lexer l = lexer;
+				for (int k = l.scan(); k != eof; k = l.scan())
+					tokens.add(k, l.line, l.tokCol, l.tokStart, l.pos - l.tokStart, l.tokNum);
+			} else
+				to.copy(at, tokens, dLine, map);
+		}
+	}
+
+	// Scans the bytes buf[pos..end-1]. No token spans a line end, so a source
+	// can be scanned in chunks of whole lines.
+	private static final class Lexer {
+		private final ByteBuffer buf;
+		private final Names names;		// pool for the names
+		private final int end;
+		int pos;					// position of the next byte
+		int line;					// current line
+		int lineStart;		// position of the first byte of the current line
+		int tokCol, tokStart, tokNum;	// the token scanned last; tokNum: numVal or name number of identifiers
+		List<Integer> msgLine;	// lines of the messages of a chunk, or null: print them
+		List<String> msg;				// messages of a chunk after their line
+
+		Lexer(ByteBuffer buf, int pos, int end, Names names) {
+			this.buf = buf; this.pos = lineStart = pos; this.end = end; this.names = names;
+			line = 1;
+		}
+
+		private int get(int p) {
+			return buf.get(p) & 0xff;
+		}
+
+		private void error(int ln, String s) {
+			if (msgLine == null) System.out.println("line " + ln + s);
+			else { msgLine.add(ln); msg.add(s); }
+		}
+
+		// Position behind the UTF-8 sequence of a letter or digit at p (see
+		// Character.isLetterOrDigit), or p if there is none
+		private int nameChar(int p) {
+			int c = get(p), n = c >= 0xf0 ? 3 : c >= 0xe0 ? 2 : c >= 0xc0 ? 1 : 0, q = p + 1;
+			if (n == 0 || n == 3) return p; // no start of a sequence, or beyond the BMP
+			c &= 0x3f >> n;
+			for (; n > 0; n--, q++) {
+				if (q >= end || (get(q) & 0xc0) != 0x80) return p;
+				c = c << 6 | get(q) & 0x3f;
+			}
+			return Character.isLetterOrDigit((char)c) ? q : p;
+		}
+
+		// Token code of the name at start with len bytes: a keyword or ident
+		private int keyword(int start, int len) {
+			if (get(start + len - 1) >= 128) return ident;
+			int h = keyHash(len, get(start), get(start + len - 1));
+			byte k[] = keyword[h];
+			if (k.length != len) return ident;
+			for (int i = 0; i < len; i++) if (k[i] != buf.get(start + i)) return ident;
+			return keyKind[h];
+		}
+
+		// Scan the next token and return its kind
+		int scan() {
+			int p = pos, c = 0, k;
+			for (;;) { // skip blanks, eols and comments
+				while (p < end && (c = get(p)) <= ' ') {
+					p++;
+					if (c == eol) { line++; lineStart = p; }
+				}
+				if (c != '/' || p + 1 >= end || get(p + 1) != '/') break;
+				while (p < end && get(p) != eol) p++;
+			}
+			tokCol = p - lineStart + 1; tokStart = p; tokNum = 0;
+			if (p >= end) {
+				pos = p;
+				return eof;
+			}
+			c = get(p++);
+			if (cls[c] == letter) {
+				int h = Names.hash(0, c);
+				for (int q; p < end; p = q) {
+					c = get(p);
+					q = c < 0x80 ? (cls[c] != 0 ? p + 1 : p) : nameChar(p);
+					if (q == p) break;
+					for (; p < q; p++) h = Names.hash(h, get(p));
+				}
+				k = keyword(tokStart, p - tokStart);
+				if (k == ident) tokNum = names.lookup(buf, tokStart, p - tokStart, h);
+			} else if (cls[c] == digit) {
+				long val = c - '0';
+				while (p < end && cls[c = get(p)] == digit) {
+					if (val <= Integer.MAX_VALUE) val = 10 * val + c - '0';
+					p++;
+				}
+				if (val > Integer.MAX_VALUE) error(line, " col " + tokCol + " number overflow");
+				else tokNum = (int)val;
+				k = number;
+			} else switch (c) {
+				case ';': k = semicolon; break;
+				case '.': k = period; break;
+				case '+': k = plus; break;
+				case '-': k = minus; break;
+				case '*': k = times; break;
+				case '%': k = rem; break;
+				case ',': k = comma; break;
+				case '(': k = lpar; break;
+				case ')': k = rpar; break;
+				case '[': k = lbrack; break;
+				case ']': k = rbrack; break;
+				case '{': k = lbrace; break;
+				case '}': k = rbrace; break;
+				case '/': k = slash; break;
+				case '=':
+					if (p < end && get(p) == '=') { p++; k = eql; } else k = assign;
+					break;
+				case '<':
+					if (p < end && get(p) == '=') { p++; k = leq; } else k = lss;
+					break;
+				case '>':
+					if (p < end && get(p) == '=') { p++; k = geq; } else k = gtr;
+					break;
+				case '!':
+					if (p < end && get(p) == '=') { p++; k = neq; } else k = none;
+					break;
+				case '\'': pos = p; k = scanCharCon(); p = pos; break;
+				default: // one token for the whole UTF-8 sequence of a character
+					if (c >= 0xc0) while (p < end && (get(p) & 0xc0) == 0x80) p++;
+					k = none;
+					break;
+			}
+			pos = p;
+			return k;
+		}
+
+		// Character constant after the opening quote at pos - 1
+		private int scanCharCon() {
+			int p = pos;
+			if (p >= end || get(p) == eol) {
+				error(line, " col " + (p - lineStart + 1) + ": Missing closing quote");
+				return none;
+			}
+			int c = get(p++);
+			pos = p;
+			if (c == '\'') {
+				error(line, " col " + (p - lineStart) + ": Empty character constant");
+				return none;
+			}
+			if (c == '\\') {
+				c = p < end && get(p) != eol ? get(p++) : 0;
+				pos = p;
+				switch (c) {
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 't': c = '\t'; break;
+					case '\\': case '\'': break;
+					default:
+						error(line, " col " + (p - lineStart) + ": Invalid character constant");
+						return none;
+				}
+			} else if (c >= 0xc0 && p < end) { // UTF-8 sequence
+				int n = c >= 0xf0 ? 3 : c >= 0xe0 ? 2 : 1;
+				c &= 0x3f >> n;
+				for (; n > 0 && p < end && (get(p) & 0xc0) == 0x80; n--) c = c << 6 | get(p++) & 0x3f;
+				pos = p;
+			}
+			if (p < end && get(p) == '\'') {
+				tokNum = (char)c;
+				pos = p + 1;
+				return charCon;
+			}
+			error(line, " col " + (p - lineStart + 1) + ": Missing closing quote");
+			return none;
+		}
+	}
+}
@@ -1,10 +1,64 @@
-/* MicroJava Symbol Table Scopes (HM 23-03-08)
-   =============================
-*/
-package MJ.SymTab;
-
-public class Scope {
-	public Scope outer;		// to outer scope
-	public Obj   locals;	// to local variables of this scope
-	public int   nVars;   // number of variables in this scope
-}
\ No newline at end of file
+/* MicroJava Symbol Table Scopes (HM 23-03-08)
+   =============================
+The objects of a scope are kept in the list locals, newest first, which
+gives the declaration order for dumping and for the caller's fields and
+local variables. Once a scope has more than a few objects, find() also
+keeps an open-addressing hash index over the (interned) names, so that
+looking up a name or detecting a duplicate does not walk the list. If a
+name is declared twice, the index holds the newer object like the list.
+Objects must be added with add() once the scope is in use.
+*/
+package MJ.SymTab;
+
+public class Scope {
+	private static final int minIndex = 8;	// scopes with more objects get an index
+
+	public Scope outer;		// to outer scope
+	public Obj   locals;	// to local variables of this scope
+	public int   nVars;   // number of variables in this scope
+	private Obj index[];	// objects by name; null: no index yet
+	private int n;				// number of names in index
+
+	// Object with the given name in this scope or null
+	public Obj find(String name) {
+		if (index == null) {
+			int k = 0;
+			for (Obj obj = locals; obj != null; obj = obj.next, k++)
+				if (obj.name == name) return obj;
+			if (k > minIndex) makeIndex(k);
+			return null;
+		}
+		int mask = index.length - 1;
+		for (int i = name.hashCode() & mask; index[i] != null; i = (i + 1) & mask)
+			if (index[i].name == name) return index[i];
+		return null;
+	}
+
+	// Add obj to the front of locals
+	public void add(Obj obj) {
+		obj.next = locals;
+		locals = obj;
+		if (index != null) put(obj);
+	}
+
+	private void makeIndex(int k) {
+		index = new Obj[Integer.highestOneBit(4 * k)];
+		n = 0;
+		Obj list[] = new Obj[k]; // oldest first, so that newer objects replace older ones
+		for (Obj obj = locals; obj != null; obj = obj.next) list[--k] = obj;
+		for (Obj obj: list) put(obj);
+	}
+
+	private void put(Obj obj) {
+		int mask = index.length - 1, i = obj.name.hashCode() & mask;
+		while (index[i] != null && index[i].name != obj.name) i = (i + 1) & mask;
+		if (index[i] == null) n++;
+		index[i] = obj;
+		if (2 * n > index.length) {
+			Obj old[] = index;
+			index = new Obj[2 * old.length];
+			n = 0;
+			for (Obj o: old) if (o != null) put(o);
+		}
+	}
+}
@@ -1,12 +1,65 @@
-/* MicroJava Scanner Token  (HM 23-03-09)
-   =======================
-*/
-package MJ;
-
-public class Token {
-	public int kind;		// token kind
-	public int line;		// token line
-	public int col;			// token column
-	public String val;	// token value
-	public int numVal;	// numeric token value (for number and charConst)
+/* MicroJava Scanner Token  (HM 23-03-09)
+   =======================
+The token codes and the token names are defined here once for the Scanner and
+the Parser; the name of a keyword is its spelling.
+*/
+package MJ;
+
+public class Token {
+	public static final int  // token codes
+		none      = 0,  // error token
+		ident     = 1,  // identifier
+		number    = 2,  // number
+		charCon   = 3,  // character constant
+		plus      = 4,  // +
+		minus     = 5,  // -
+		times     = 6,  // *
+		slash     = 7,  // /
+		rem       = 8,  // %
+		eql       = 9,  // ==
+		neq       = 10, // !=
+		lss       = 11, // <
+		leq       = 12, // <=
+		gtr       = 13, // >
+		geq       = 14, // >=
+		assign    = 15, // =
+		semicolon = 16, // ;
+		comma     = 17, // ,
+		period    = 18, // .
+		lpar      = 19, // (
+		rpar      = 20, // )
+		lbrack    = 21, // [
+		rbrack    = 22, // ]
+		lbrace    = 23, // {
+		rbrace    = 24, // }
+		class_    = 25, // ... keywords ...
+		else_     = 26,
+		final_    = 27,
+		if_       = 28,
+		new_      = 29,
+		print_    = 30,
+		program_  = 31,
+		read_     = 32,
+		return_   = 33,
+		void_     = 34,
+		while_    = 35,
+		eof       = 36; // end-of-file token
+
+	public static final int
+		firstKeyword = class_,
+		lastKeyword  = while_;
+	public static final String name[] = { // token names for error messages
+		"none", "identifier", "number", "char constant", "+", "-", "*", "/", "%",
+		"==", "!=", "<", "<=", ">", ">=", "=", ";", ",", ".", "(", ")",
+		"[", "]", "{", "}", "class", "else", "final", "if", "new", "print",
+		"program", "read", "return", "void", "while", "eof"
+	};
+
+	public int kind;		// token kind
+	public int line;		// token line
+	public int col;			// token column
+	public String val;	// token value
+	public int numVal;	// numeric token value (for number and charConst)
+	public int start;		// position of the lexeme in the source (byte mode)
+	public int len;			// length of the lexeme in bytes (byte mode)
 }
\ No newline at end of file
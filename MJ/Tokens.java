@@ -0,0 +1,129 @@
+/* MicroJava Token Buffer
+   ======================
+The tokens of a source as parallel arrays, filled by the Scanner on demand:
+kind(i) scans up to token i, so any token ahead of the parser can be looked
+at, and tokens already read stay in the buffer for going back.
+A token is (kind, line, col, start, len, numVal); for identifiers numVal is
+the name's number in the Scanner's name pool. The lexeme String is only made
+when val() is called. val() reads the source of the Scanner, so the buffer is
+valid until the Scanner is initialized again.
+After the end of the source the buffer repeats the eof token.
+*/
+package MJ;
+
+import java.util.Arrays;
+
+public class Tokens {
+	public byte kind[];		// token kinds
+	public int line[], col[];
+	public int start[], len[];	// lexeme in the source (byte mode)
+	public int numVal[];	// value of numbers and char constants; name number of identifiers
+	private String val[];	// lexemes of the character mode; null in the byte mode
+	public int n;					// number of tokens in the buffer
+	private boolean done;	// the eof token is in the buffer
+
+	public Tokens() {
+		this(1024);
+	}
+
+	public Tokens(int size) {
+		kind = new byte[size];
+		line = new int[size]; col = new int[size];
+		start = new int[size]; len = new int[size];
+		numVal = new int[size];
+	}
+
+	// Empty the buffer for a new source
+	public void clear() {
+		n = 0; done = false; val = null;
+	}
+
+	// Scan until token i is in the buffer
+	public void fill(int i) {
+		while (n <= i) {
+			if (done) add(kind[n - 1], line[n - 1], col[n - 1], start[n - 1], 0, 0);
+			else Scanner.next(this);
+		}
+	}
+
+	// Kind of token i
+	public int kind(int i) {
+		if (i >= n) fill(i);
+		return kind[i];
+	}
+
+	// Lexeme of token i
+	public String val(int i) {
+		if (i >= n) fill(i);
+		if (val != null) return val[i];
+		if (kind[i] == Token.ident) return Scanner.name(numVal[i]);
+		return Scanner.lexeme(start[i], len[i]);
+	}
+
+	// Append a token of the byte mode
+	void add(int k, int ln, int c, int s, int l, int num) {
+		if (n == kind.length) grow();
+		kind[n] = (byte)k; line[n] = ln; col[n] = c;
+		start[n] = s; len[n] = l; numVal[n] = num;
+		if (k == Token.eof) done = true;
+		n++;
+	}
+
+	// Append a token of the character mode with its lexeme v
+	void add(int k, int ln, int c, int num, String v) {
+		if (val == null) val = new String[kind.length];
+		if (n == kind.length) grow();
+		val[n] = v;
+		add(k, ln, c, 0, 0, num);
+	}
+
+	// Replace the tokens from..to-1 by the first m tokens of t (byte mode). The
+	// tokens after them move by dStart bytes and dLine lines, and those in the
+	// line of token to also by dCol columns
+	void replace(int from, int to, Tokens t, int m, int dStart, int dLine, int dCol) {
+		int k = m - (to - from);
+		while (n + k > kind.length) grow();
+		if (k != 0) {
+			int rest = n - to;
+			System.arraycopy(kind, to, kind, to + k, rest);
+			System.arraycopy(line, to, line, to + k, rest); System.arraycopy(col, to, col, to + k, rest);
+			System.arraycopy(start, to, start, to + k, rest); System.arraycopy(len, to, len, to + k, rest);
+			System.arraycopy(numVal, to, numVal, to + k, rest);
+		}
+		n += k;
+		int i = to + k, ln = line[i];
+		for (; i < n && line[i] == ln; i++) { col[i] += dCol; line[i] += dLine; start[i] += dStart; }
+		for (; i < n; i++) { line[i] += dLine; start[i] += dStart; }
+		System.arraycopy(t.kind, 0, kind, from, m);
+		System.arraycopy(t.line, 0, line, from, m); System.arraycopy(t.col, 0, col, from, m);
+		System.arraycopy(t.start, 0, start, from, m); System.arraycopy(t.len, 0, len, from, m);
+		System.arraycopy(t.numVal, 0, numVal, from, m);
+	}
+
+	// Make room for n tokens in all
+	void reserve(int n) {
+		while (n > kind.length) grow();
+	}
+
+	// Copy the tokens of t (byte mode) to index i, adding dLine to their lines and
+	// mapping the name numbers of identifiers with map (if not null)
+	void copy(int i, Tokens t, int dLine, int map[]) {
+		int m = t.n;
+		System.arraycopy(t.kind, 0, kind, i, m);
+		System.arraycopy(t.col, 0, col, i, m);
+		System.arraycopy(t.start, 0, start, i, m); System.arraycopy(t.len, 0, len, i, m);
+		for (int k = 0; k < m; k++) {
+			line[i + k] = t.line[k] + dLine;
+			numVal[i + k] = t.kind[k] == Token.ident && map != null ? map[t.numVal[k]] : t.numVal[k];
+		}
+	}
+
+	private void grow() {
+		int size = 2 * kind.length;
+		kind = Arrays.copyOf(kind, size);
+		line = Arrays.copyOf(line, size); col = Arrays.copyOf(col, size);
+		start = Arrays.copyOf(start, size); len = Arrays.copyOf(len, size);
+		numVal = Arrays.copyOf(numVal, size);
+		if (val != null) val = Arrays.copyOf(val, size);
+	}
+}
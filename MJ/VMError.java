@@ -0,0 +1,13 @@
+/* MicroJava VM Error
+   ==================
+Thrown when a running program fails (stack overflow, null pointer, index out
+of bounds, heap overflow, ...); it ends the run of the Machine.
+*/
+package MJ;
+
+@SuppressWarnings("serial")
+public class VMError extends Exception {
+	int adr = -1;	// code address of the failing instruction if already known
+	VMError(String s) { super(s); }
+	VMError(String s, int adr) { super(s); this.adr = adr; }
+}
@@ -0,0 +1,215 @@
+/* MicroJava Byte Code Verifier
+   ============================
+Checks a pre-decoded Image by abstract interpretation before it is run without
+the per-instruction checks of the interpreter. For every method (main and every
+call target) it follows all paths from the method's enter instruction and
+tracks the height of the expression stack and whether the frame is set up.
+A program passes if
+  - every method starts with enter, has psize <= lsize and main has psize 0
+  - jumps and calls lead to the start of an instruction and no path runs
+    past the end of the code
+  - the stack height never drops below the method's base and is the same on
+    all paths that meet at an instruction
+  - every return of a method leaves the same number of results on the stack
+  - load/store use addresses < lsize, getstatic/putstatic addresses < dataSize
+  - the stack height of a method on its deepest path and its frame fit into
+    the expression stack and the method stack
+If it passes, need[i] holds for every method entry i the number of expression
+stack words the method needs above the caller's stack pointer. The VM checks
+this and the frame size once in enter instead of on every push and pop.
+res[i] holds the number of results of method i and method[j] the entry of the
+method that instruction j belongs to (-1 for unreachable instructions).
+*/
+package MJ;
+
+import java.util.*;
+
+public class Verifier {
+	private static final int unknown = -1;
+
+	private Image img;
+	private int res[];       // number of results per method entry; unknown if not yet seen
+	private int depth[];     // stack height before each instruction of the current method
+	private boolean framed[]; // frame set up before each instruction of the current method
+	private int need[];      // results, see above
+	private int method[];
+	private String error;    // first error found
+
+	private Verifier(Image img) {
+		this.img = img;
+		res = new int[img.n + 1];
+		need = new int[img.n + 1];
+		depth = new int[img.n + 1];
+		framed = new boolean[img.n + 1];
+		method = new int[img.n + 1];
+		Arrays.fill(res, unknown);
+		Arrays.fill(method, unknown);
+	}
+
+	// Verify img and set img.need on success; otherwise return the error message
+	static String verify(Image img) {
+		Verifier v = new Verifier(img);
+		if (v.check()) {
+			img.need = v.need; img.res = v.res; img.method = v.method;
+			return null;
+		}
+		return v.error;
+	}
+
+	// Stack heights before the instructions of method m of a verified image;
+	// unknown for instructions that do not belong to m
+	static int[] depths(Image img, int m) {
+		Verifier v = new Verifier(img);
+		v.res = img.res;
+		v.analyze(m, false);
+		return v.depth;
+	}
+
+	private boolean fail(int i, String msg) {
+		if (error == null) error = msg + " at address " + img.adr[i];
+		return false;
+	}
+
+	// Collect all method entries: the start of main() and all call targets
+	private List<Integer> methods() {
+		List<Integer> list = new ArrayList<Integer>();
+		boolean seen[] = new boolean[img.n + 1];
+		seen[img.start] = true; list.add(img.start);
+		for (int i = 0; i < img.n; i++)
+			if (img.op[i] == Run.call && !seen[img.a[i]]) {
+				seen[img.a[i]] = true; list.add(img.a[i]);
+			}
+		return list;
+	}
+
+	private boolean check() {
+		List<Integer> methods = methods();
+		for (int m: methods) {
+			if (m == img.n) return fail(m, "call of an address that is not an instruction");
+			if (img.op[m] != Run.enter) return fail(m, "method does not start with enter");
+			if (img.a[m] < 0 || img.b[m] < img.a[m]) return fail(m, "invalid frame size");
+		}
+		if (img.a[img.start] != 0) return fail(img.start, "main() must not have parameters");
+		// The number of results of a method is taken from its returns. Paths through
+		// calls of methods whose result is still unknown (recursion) are cut off until
+		// the callee's result is known; repeat until nothing changes.
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int m: methods) {
+				int r = res[m];
+				if (!analyze(m, true)) return false;
+				if (res[m] != r) changed = true;
+			}
+		}
+		for (int m: methods) {
+			if (res[m] == unknown) return fail(m, "method never returns");
+			if (!analyze(m, false)) return false;
+			// the check in enter covers all paths, so it must not fail where a checked run would not
+			if (img.a[m] + need[m] > Run.eStackSize) return fail(m, "method may need more than the expression stack");
+			if (img.b[m] + 2 > Run.mStackSize) return fail(m, "frame larger than the method stack");
+		}
+		return true;
+	}
+
+	// Analyze the method starting at instruction m. If partial, stop at calls of
+	// methods with unknown results; otherwise compute need[m].
+	private boolean analyze(int m, boolean partial) {
+		int op[] = img.op, a[] = img.a;
+		int psize = img.a[m], lsize = img.b[m];
+		int max = psize;
+		Arrays.fill(depth, unknown);
+		ArrayDeque<Integer> work = new ArrayDeque<Integer>();
+		depth[m] = psize; framed[m] = false; work.push(m);
+		while (!work.isEmpty()) {
+			int i = work.pop();
+			if (!partial) method[i] = m;
+			int d = depth[i];
+			boolean f = framed[i];
+			int pops, pushes, next = i + 1, jump = -1;
+			boolean ends = false, local = false;
+			switch (op[i]) {
+				case Run.load:
+					pops = 0; pushes = 1; local = true; break;
+				case Run.store:
+					pops = 1; pushes = 0; local = true; break;
+				case Run.getstatic:
+					if (a[i] < 0 || a[i] >= img.dataSize) return fail(i, "invalid global address");
+					pops = 0; pushes = 1; break;
+				case Run.putstatic:
+					if (a[i] < 0 || a[i] >= img.dataSize) return fail(i, "invalid global address");
+					pops = 1; pushes = 0; break;
+				case Run.getfield:
+					pops = 1; pushes = 1; break;
+				case Run.putfield:
+					pops = 2; pushes = 0; break;
+				case Run.const_: case Run.new_: case Run.read: case Run.bread:
+					pops = 0; pushes = 1; break;
+				case Run.add: case Run.sub: case Run.mul: case Run.div: case Run.rem:
+				case Run.shl: case Run.shr: case Run.aload: case Run.baload:
+					pops = 2; pushes = 1; break;
+				case Run.neg: case Run.newarray: case Run.arraylength:
+					pops = 1; pushes = 1; break;
+				case Run.astore: case Run.bastore:
+					pops = 3; pushes = 0; break;
+				case Run.pop:
+					pops = 1; pushes = 0; break;
+				case Run.print: case Run.bprint:
+					pops = 2; pushes = 0; break;
+				case Run.jmp:
+					pops = 0; pushes = 0; jump = a[i]; next = -1; break;
+				case Run.jeq: case Run.jne: case Run.jlt: case Run.jle: case Run.jgt: case Run.jge:
+					pops = 2; pushes = 0; jump = a[i]; break;
+				case Run.call:
+					if (!f) return fail(i, "call outside of a frame");
+					int r = res[a[i]];
+					if (r == unknown) {
+						if (partial) continue;
+						return fail(i, "call of a method that never returns");
+					}
+					pops = img.a[a[i]]; pushes = r; break;
+				case Run.enter:
+					if (i != m) return fail(i, "enter inside of a method");
+					pops = psize; pushes = 0; break;
+				case Run.exit:
+					if (!f) return fail(i, "exit without enter");
+					pops = 0; pushes = 0; break;
+				case Run.return_:
+					if (f) return fail(i, "return without exit");
+					if (res[m] == unknown) res[m] = d;
+					else if (res[m] != d) return fail(i, "returns leave different numbers of results");
+					pops = 0; pushes = 0; ends = true; break;
+				case Run.trap:
+					pops = 0; pushes = 0; ends = true; break;
+				default:
+					return fail(i, "wrong opcode " + a[i]);
+			}
+			if (local) {
+				if (!f) return fail(i, "local variable accessed outside of a frame");
+				if (a[i] < 0 || a[i] >= lsize) return fail(i, "invalid local address");
+			}
+			if (op[i] != Run.enter && op[i] != Run.exit && op[i] != Run.return_ && op[i] != Run.trap && !f)
+				return fail(i, "instruction outside of a frame");
+			if (d < pops) return fail(i, "expression stack underflow");
+			d = d - pops + pushes;
+			if (d > max) max = d;
+			if (op[i] == Run.enter) f = true;
+			else if (op[i] == Run.exit) f = false;
+			if (ends) continue;
+			if (jump >= 0 && !merge(i, jump, d, f, work)) return false;
+			if (next >= 0 && !merge(i, next, d, f, work)) return false;
+		}
+		if (!partial) need[m] = max - psize;
+		return true;
+	}
+
+	// Propagate the state (d, f) from instruction i to its successor j
+	private boolean merge(int i, int j, int d, boolean f, ArrayDeque<Integer> work) {
+		if (j == img.n) return fail(i, "jump into an instruction or past the end of the code");
+		if (depth[j] == unknown) {
+			depth[j] = d; framed[j] = f; work.push(j);
+		} else if (depth[j] != d || framed[j] != f)
+			return fail(i, "stack heights differ at a branch target");
+		return true;
+	}
+}
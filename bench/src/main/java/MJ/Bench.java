@@ -0,0 +1,30 @@
+/* MicroJava Benchmarks
+   ====================
+JMH benchmarks on the corpus of MicroJava programs (see Corpus):
+  ScannerBench      tokens/s of Scanner.next()
+  CompilerBench     time per compilation and per source line (= ms per KLOC)
+  InterpreterBench  runs/s and instructions/s of the VM in every mode of MJ.Run
+  IncrementalBench  time of an edit and its undo with an Incremental session
+All of them run with the GC profiler, which adds the allocation rate
+(gc.alloc.rate) and the bytes allocated per operation (gc.alloc.rate.norm).
+
+Syntax: java -jar bench/target/benchmarks.jar [JMH options] [benchmark regexp]
+e.g. "-p program=fib InterpreterBench" or "-f 1 -wi 2 -i 3" for a quick run.
+*/
+package MJ;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+public class Bench {
+	public static void main(String[] arg) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(arg);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListProfilers()) {
+			org.openjdk.jmh.Main.main(arg);
+			return;
+		}
+		Options opt = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build();
+		new Runner(opt).run();
+	}
+}
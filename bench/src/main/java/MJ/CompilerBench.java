@@ -0,0 +1,47 @@
+/* Compiler benchmark: Parser.parse() with the Scanner, the symbol table and
+   the code generator, and the peephole optimizer, from the source text to the
+   object file in memory.
+   The secondary result "lines" is the time per source line; in us/op it is
+   the compile time in ms per KLOC.
+*/
+package MJ;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBench {
+	@Param({"fib", "list", "matrix", "queens", "sieve", "sort", "words"})
+	public String program;
+
+	private String src;
+	private int lines;
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Lines {
+		public long lines;
+
+		@Setup(Level.Iteration)
+		public void reset() { lines = 0; }
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		src = Corpus.source(program);
+		lines = Corpus.lines(src);
+		if (Corpus.compile(src) == null) throw new IllegalStateException("errors in corpus program " + program);
+	}
+
+	@Benchmark
+	public byte[] compile(Lines count) {
+		count.lines += lines;
+		return Corpus.compile(src);
+	}
+}
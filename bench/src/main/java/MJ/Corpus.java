@@ -0,0 +1,49 @@
+/* MicroJava Benchmark Corpus
+   ==========================
+The MicroJava programs in the resources under corpus/, loaded by name.
+The programs read no input and each runs for a few milliseconds.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import MJ.CodeGen.*;
+
+class Corpus {
+	static final String names[] = {"fib", "list", "matrix", "queens", "sieve", "sort", "words"};
+
+	// Source text of the program name
+	static String source(String name) throws IOException {
+		InputStream in = Corpus.class.getResourceAsStream("/corpus/" + name + ".mj");
+		if (in == null) throw new FileNotFoundException("corpus/" + name + ".mj");
+		try {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	static int lines(String src) {
+		int n = 1;
+		for (int i = 0; i < src.length(); i++) if (src.charAt(i) == '\n') n++;
+		return n;
+	}
+
+	// Compile src as the Compiler does and return the object file; null if there were errors
+	static byte[] compile(String src) {
+		byte b[] = src.getBytes(StandardCharsets.UTF_8);
+		Scanner.init(b, b.length);
+		Parser.parse();
+		if (Parser.errors > 0) return null;
+		Code.optimize();
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		Code.write(obj);
+		return obj.toByteArray();
+	}
+
+	static Program load(String name, int options) throws IOException, FormatException {
+		byte obj[] = compile(source(name));
+		if (obj == null) throw new IllegalStateException("errors in corpus program " + name);
+		return Program.read(new ByteArrayInputStream(obj), options, null);
+	}
+}
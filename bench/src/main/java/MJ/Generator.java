@@ -0,0 +1,249 @@
+/* MicroJava Program Generator
+   ===========================
+Writes random but valid MicroJava programs of a given size, and inputs for them.
+A program consists of
+  - constants, global int variables, classes with int fields, a global object
+    of every class, a global int array data and a global char array text
+  - helper methods h0, h1, ... that call no other methods
+  - methods m0, m1, ... with nested while loops and if statements whose bodies
+    assign expressions over locals, parameters, globals, constants, fields
+    and array elements, and call the helpers
+  - main, which reads a count n and then n numbers and passes every number to
+    every method m<i>; it prints a checksum at the end
+Methods are added until the source has the requested size, so the size is
+met to within one method. Loops are bounded by small constants, array indices
+are loop counters below the array size, and divisors are positive constants,
+so the programs always terminate without a trap. The run time is proportional
+to n times the number of methods.
+The generator is deterministic for a given seed and shape.
+
+Syntax: java -cp bench/target/benchmarks.jar MJ.Generator file.mj [-size=KB]
+          [-globals=n] [-numbers=n] [-seed=n]
+writes the program to file.mj and an input with the given count of numbers
+(default 1000) to file.in.
+*/
+package MJ;
+
+import java.io.*;
+import java.util.*;
+
+class Generator {
+	int consts = 8;			// constants c0, c1, ...
+	int globals = 16;		// global int variables g0, g1, ...
+	int classes = 3;		// classes C0, C1, ... with a global object o0, o1, ...
+	int fields = 4;			// int fields f0, f1, ... per class
+	int helpers = 4;		// leaf methods h0, h1, ...
+	int locals = 6;			// int locals v0, v1, ... per method besides the loop counters
+	int stmts = 10;			// statements per method body
+	int depth = 3;			// maximum nesting of statements
+	int arraySize = 64;	// length of data and text; also bounds the loop counters
+	long seed = 1;
+
+	private Random rnd;
+	private StringBuilder b = new StringBuilder();
+	private int methods;	// methods m<i> generated so far
+
+	private int rnd(int n) { return rnd.nextInt(n); }
+
+	private void indent(int level) {
+		for (int i = 0; i < level; i++) b.append('\t');
+	}
+
+	//----- expressions
+
+	// A value that can be read anywhere; loops: number of enclosing loops
+	private void leaf(int loops) {
+		switch (rnd(loops > 0 ? 9 : 8)) {
+			case 0: case 1: b.append('v').append(rnd(locals)); break;
+			case 2: b.append(rnd(2) == 0 ? 'a' : 'b'); break;
+			case 3: b.append('g').append(rnd(globals)); break;
+			case 4: b.append('c').append(rnd(consts)); break;
+			case 5: b.append(rnd(100)); break;
+			case 6: b.append('o').append(rnd(classes)).append(".f").append(rnd(fields)); break;
+			case 7: b.append("ord(text[").append(rnd(arraySize)).append("])"); break;
+			default: b.append("data[i").append(rnd(loops)).append(']'); break;
+		}
+	}
+
+	private void expr(int d, int loops) {
+		if (d == 0 || rnd(3) == 0) { leaf(loops); return; }
+		switch (rnd(8)) {
+			case 0: case 1: b.append('('); expr(d - 1, loops); b.append(" + "); expr(d - 1, loops); b.append(')'); break;
+			case 2: case 3: b.append('('); expr(d - 1, loops); b.append(" - "); expr(d - 1, loops); b.append(')'); break;
+			case 4: expr(d - 1, loops); b.append(" * "); leaf(loops); break;
+			case 5: expr(d - 1, loops); b.append(rnd(2) == 0 ? " / " : " % ").append(1 + rnd(9)); break;
+			case 6: b.append('h').append(rnd(helpers)).append('('); expr(d - 1, loops); b.append(", "); leaf(loops); b.append(')'); break;
+			default: b.append("(-"); leaf(loops); b.append(')'); break;
+		}
+	}
+
+	private void condition(int loops) {
+		expr(1, loops);
+		b.append(new String[] {" == ", " != ", " < ", " <= ", " > ", " >= "}[rnd(6)]);
+		expr(1, loops);
+	}
+
+	//----- statements
+
+	private void stat(int level, int d, int loops) {
+		indent(level);
+		int k = d == 0 ? rnd(5) : rnd(8);
+		switch (k) {
+			case 0: case 1:
+				b.append('v').append(rnd(locals)).append(" = "); expr(2, loops); b.append(";\n"); break;
+			case 2:
+				b.append('g').append(rnd(globals)).append(" = "); expr(2, loops); b.append(";\n"); break;
+			case 3:
+				if (loops > 0) b.append("data[i").append(rnd(loops)).append(']');
+				else b.append('o').append(rnd(classes)).append(".f").append(rnd(fields));
+				b.append(" = "); expr(2, loops); b.append(";\n");
+				break;
+			case 4:
+				b.append("text[").append(rnd(arraySize)).append("] = chr(ord('a') + (");
+				expr(1, loops); b.append(" % 26 + 26) % 26);\n");
+				break;
+			case 5: case 6:
+				b.append("if ("); condition(loops); b.append(") {\n");
+				block(level + 1, d - 1, loops);
+				indent(level);
+				if (rnd(2) == 0) {
+					b.append("} else {\n");
+					block(level + 1, d - 1, loops);
+					indent(level);
+				}
+				b.append("}\n");
+				break;
+			default:
+				String i = "i" + loops;
+				b.append(i).append(" = 0;\n");
+				indent(level);
+				b.append("while (").append(i).append(" < ").append(2 + rnd(4)).append(") {\n");
+				block(level + 1, d - 1, loops + 1);
+				indent(level + 1);
+				b.append(i).append(" = ").append(i).append(" + 1;\n");
+				indent(level);
+				b.append("}\n");
+				break;
+		}
+	}
+
+	private void block(int level, int d, int loops) {
+		int n = 1 + rnd(3);
+		for (int k = 0; k < n; k++) stat(level, d, loops);
+	}
+
+	//----- declarations
+
+	private void header() {
+		b.append("// generated by MJ.Generator, seed ").append(seed).append('\n');
+		b.append("program Generated\n");
+		for (int i = 0; i < consts; i++) b.append("\tfinal int c").append(i).append(" = ").append(rnd(1000)).append(";\n");
+		b.append("\tfinal int size = ").append(arraySize).append(";\n");
+		for (int i = 0; i < classes; i++) {
+			b.append("\tclass C").append(i).append(" {\n");
+			for (int f = 0; f < fields; f++) b.append("\t\tint f").append(f).append(";\n");
+			b.append("\t}\n");
+		}
+		for (int i = 0; i < globals; i++) b.append("\tint g").append(i).append(";\n");
+		for (int i = 0; i < classes; i++) b.append("\tC").append(i).append(" o").append(i).append(";\n");
+		b.append("\tint[] data;\n\tchar[] text;\n{\n");
+		for (int i = 0; i < helpers; i++) {
+			b.append("\tint h").append(i).append("(int a, int b) int t;\n\t{\n");
+			b.append("\t\tt = a * ").append(3 + i).append(" + b;\n");
+			b.append("\t\tif (t < 0) t = -t;\n");
+			b.append("\t\treturn t % ").append(1000 + i).append(";\n\t}\n\n");
+		}
+	}
+
+	private void method() {
+		b.append("\tint m").append(methods++).append("(int a, int b) int ");
+		for (int i = 0; i < locals; i++) b.append('v').append(i).append(", ");
+		for (int i = 0; i < depth; i++) b.append('i').append(i).append(i < depth - 1 ? ", " : ";\n");
+		if (depth == 0) b.append("i;\n");
+		b.append("\t{\n");
+		for (int i = 0; i < locals; i++) b.append("\t\tv").append(i).append(" = a + ").append(i).append(";\n");
+		for (int k = 0; k < stmts; k++) stat(2, depth, 0);
+		b.append("\t\treturn ");
+		expr(2, 0);
+		b.append(";\n\t}\n\n");
+	}
+
+	private void main() {
+		b.append("\tvoid main() int n, r, x, sum;\n\t{\n");
+		b.append("\t\tdata = new int[size];\n\t\ttext = new char[size];\n");
+		for (int i = 0; i < classes; i++) b.append("\t\to").append(i).append(" = new C").append(i).append(";\n");
+		b.append("\t\tread(n);\n\t\tsum = 0;\n\t\tr = 0;\n");
+		b.append("\t\twhile (r < n) {\n\t\t\tread(x);\n");
+		for (int i = 0; i < methods; i++)
+			b.append("\t\t\tsum = (sum + m").append(i).append("(x, r)) % 1000003;\n");
+		b.append("\t\t\tr = r + 1;\n\t\t}\n");
+		b.append("\t\tprint(sum);\n\t\tprint('\\n');\n\t}\n}\n");
+	}
+
+	private void flush(Writer out) throws IOException {
+		out.append(b);
+		b.setLength(0);
+	}
+
+	// Write a program of about the given size in bytes to out; returns its size
+	long program(Writer out, long bytes) throws IOException {
+		rnd = new Random(seed);
+		methods = 0;
+		long size = 0;
+		header();
+		do {
+			size += b.length();
+			flush(out);
+			method();
+		} while (size + b.length() < bytes);
+		main();
+		size += b.length();
+		flush(out);
+		out.flush();
+		return size;
+	}
+
+	// Write an input for the generated programs: the count n and n numbers
+	void input(Writer out, int n) throws IOException {
+		Random r = new Random(seed + 1);
+		out.write(n + "\n");
+		for (int i = 0; i < n; i++) {
+			b.append(r.nextInt(100000)).append(i % 10 == 9 ? '\n' : ' ');
+			if (b.length() > 8192) flush(out);
+		}
+		b.append('\n');
+		flush(out);
+		out.flush();
+	}
+
+	public static void main(String[] arg) throws IOException {
+		Generator gen = new Generator();
+		String fileName = null;
+		long size = 16;
+		int numbers = 1000;
+		for (String a: arg) {
+			if (a.startsWith("-size=")) size = Long.parseLong(a.substring(6));
+			else if (a.startsWith("-globals=")) gen.globals = Integer.parseInt(a.substring(9));
+			else if (a.startsWith("-numbers=")) numbers = Integer.parseInt(a.substring(9));
+			else if (a.startsWith("-seed=")) gen.seed = Long.parseLong(a.substring(6));
+			else fileName = a;
+		}
+		if (fileName == null) {
+			System.out.println("Syntax: java MJ.Generator file.mj [-size=KB] [-globals=n] [-numbers=n] [-seed=n]");
+			return;
+		}
+		String base = fileName.endsWith(".mj") ? fileName.substring(0, fileName.length() - 3) : fileName;
+		Writer out = new BufferedWriter(new FileWriter(fileName));
+		try {
+			System.out.println(gen.program(out, size * 1024) + " bytes written to " + fileName);
+		} finally {
+			out.close();
+		}
+		out = new BufferedWriter(new FileWriter(base + ".in"));
+		try {
+			gen.input(out, numbers);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+// MicroJava I/O Benchmark
+// -----------------------
+// Syntax: java -cp bench/target/benchmarks.jar MJ.IOBench [lines]
+// Runs a print-heavy program (print the numbers 0..lines-1, one per line) with
+// the interpreter and with the check-free loop, once with output written
+// character by character through a PrintStream like the VM used to do, and
+// once with each of the buffered IO implementations. The output goes to a
+// stream that discards it, so only the cost of the VM's output path is measured.
+//=============================================================================
+package MJ;
+
+import java.io.*;
+
+public class IOBench {
+	// print(i, 0); bprint('\n', 0) for i = 0..lines-1
+	private static final byte program[] = {
+		Run.enter, 0, 1,						//  0: enter 0 1
+		Run.const0, Run.store0,				//  3: i = 0
+		Run.load0, Run.const_, 0, 0, 0, 0,	//  5: load0; const lines
+		Run.jge, 0, 31,						// 11: jge 31
+		Run.load0, Run.const0, Run.print,	// 14: print(i, 0)
+		Run.const_, 0, 0, 0, 10,			// 17: const '\n'
+		Run.const0, Run.bprint,				// 22: bprint('\n', 0)
+		Run.load0, Run.const1, Run.add, Run.store0, // 24: i++
+		Run.jmp, 0, 5,							// 28: jmp 5
+		Run.exit, Run.return_					// 31: exit; return
+	};
+
+	// The output path of the VM before IO: one synchronized print per character
+	private static class PerChar extends IO {
+		private PrintStream out;
+
+		PerChar(PrintStream out) {
+			super(new byte[0], 0, 0);
+			this.out = out;
+		}
+
+		boolean fill() { return false; }
+		void drain(int n) {}
+		void flush() { out.flush(); }
+
+		void printInt(int val, int width) {
+			String s = Integer.toString(val);
+			for (int i = s.length(); i < width; i++) out.print(' ');
+			for (int i = 0; i < s.length(); i++) out.print(s.charAt(i));
+		}
+
+		void printChar(int val, int width) {
+			for (int i = 1; i < width; i++) out.print(' ');
+			out.print((char)val);
+		}
+	}
+
+	private static IO io(String kind) {
+		OutputStream sink = OutputStream.nullOutputStream();
+		InputStream none = InputStream.nullInputStream();
+		switch (kind) {
+			case "per char": return new PerChar(new PrintStream(new BufferedOutputStream(sink), true));
+			case "streams":  return new IO.Streams(none, sink);
+			default:         return new IO.Memory(new byte[0]);
+		}
+	}
+
+	// Run the program once and return the time in ms
+	private static double run(Program prog, IO io) throws IOException {
+		Machine vm = new Machine(prog, io, Run.heapSize, Run.maxHeapSize);
+		long start = System.nanoTime();
+		vm.run();
+		return (System.nanoTime() - start) / 1e6;
+	}
+
+	public static void main(String[] arg) throws Exception {
+		int lines = arg.length > 0 ? Integer.parseInt(arg[0]) : 1000000;
+		for (int i = 0; i < 4; i++) program[7 + i] = (byte)(lines >>> 24 - 8 * i);
+		Program classic = new Program(program, 0, 0, 0, null);
+		Program verified = new Program(program, 0, 0, Program.predecode | Program.verify, null);
+		if (verified.verifyError != null) throw new IllegalStateException(verified.verifyError);
+		long bytes = 0;
+		for (int i = 0; i < lines; i++) bytes += Integer.toString(i).length() + 1;
+		System.out.printf("%d lines, %d bytes of output%n", lines, bytes);
+		System.out.printf("%-10s %-12s %10s %10s%n", "output", "loop", "ms", "MB/s");
+		for (String kind: new String[] {"per char", "streams", "memory"}) {
+			for (Program prog: new Program[] {classic, verified}) {
+				double best = Double.MAX_VALUE;
+				for (int k = 0; k < 5; k++) best = Math.min(best, run(prog, io(kind)));
+				System.out.printf("%-10s %-12s %10.1f %10.1f%n", kind, prog == classic ? "interpret" : "check-free",
+					best, bytes / best / 1e3);
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/* Incremental compiler benchmark: one edit in the body of the first method of
+   a corpus program and the edit that undoes it, with an Incremental session
+   that keeps the program compiled.
+     space      a blank: only the tokens move
+     name       a letter before the first statement: the method is parsed
+                again and reports an error
+     statement  a print statement: the method is parsed again, the code of
+                the later methods moves
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalBench {
+	@Param({"fib", "list", "matrix", "queens", "sieve", "sort", "words"})
+	public String program;
+
+	@Param({"space", "name", "statement"})
+	public String edit;
+
+	private Incremental session;
+	private int offset;
+	private byte text[];
+
+	@Setup
+	public void setup() throws IOException {
+		String src = Corpus.source(program);
+		Matcher m = Pattern.compile("\\)[^{}()]*\\{").matcher(src); // end of the first method header
+		if (!m.find()) throw new IllegalStateException("no method in corpus program " + program);
+		byte b[] = src.getBytes(StandardCharsets.UTF_8);
+		offset = src.substring(0, m.end()).getBytes(StandardCharsets.UTF_8).length;
+		text = (edit.equals("space") ? " " : edit.equals("name") ? "x" : "print(7);").getBytes();
+		session = new Incremental(b, b.length);
+		if (session.errors() > 0) throw new IllegalStateException("errors in corpus program " + program);
+	}
+
+	@Benchmark
+	public int editAndUndo() {
+		session.edit(offset, 0, text, text.length);
+		return session.edit(offset, text.length, text, 0);
+	}
+}
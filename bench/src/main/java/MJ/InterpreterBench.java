@@ -0,0 +1,64 @@
+/* Interpreter benchmark: one run of a compiled corpus program on a new Machine
+   with in-memory I/O, in each of the execution modes of MJ.Run. The secondary
+   result "instructions" counts the instructions of the object file that were
+   executed (as counted by the Profiler), so it is comparable between modes.
+*/
+package MJ;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBench {
+	@Param({"fib", "list", "matrix", "queens", "sieve", "sort", "words"})
+	public String program;
+
+	@Param({"interpret", "predecode", "fuse", "jit"})
+	public String mode;
+
+	private Program prog;
+	private long instructions;	// per run
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Instructions {
+		public long instructions;
+
+		@Setup(Level.Iteration)
+		public void reset() { instructions = 0; }
+	}
+
+	@Setup
+	public void setup() throws IOException, FormatException {
+		int options = 0;
+		switch (mode) {
+			case "predecode": options = Program.predecode | Program.verify; break;
+			case "fuse":      options = Program.predecode | Program.verify | Program.fuse; break;
+			case "jit":       options = Program.predecode | Program.verify | Program.compile; break;
+		}
+		prog = Corpus.load(program, options);
+		if (prog.verifyError != null) throw new IllegalStateException(prog.verifyError);
+		// count the instructions of one run
+		Program p = Corpus.load(program, Program.predecode);
+		Machine vm = new Machine(p, new IO.Memory(new byte[0]), Run.heapSize, Run.maxHeapSize);
+		vm.prof = new Profiler(p.image, p.code, null);
+		vm.run();
+		if (vm.error != null) throw new IllegalStateException(vm.error.getMessage());
+		for (long c: vm.prof.ops) instructions += c;
+	}
+
+	@Benchmark
+	public int run(Instructions count) {
+		IO.Memory io = new IO.Memory(new byte[0]);
+		Machine vm = new Machine(prog, io, Run.heapSize, Run.maxHeapSize);
+		vm.run();
+		count.instructions += instructions;
+		return io.output().length;
+	}
+}
@@ -0,0 +1,183 @@
+/* MicroJava Scaling Curves
+   ========================
+Measures how the scanner, the compiler, the symbol table and the VM scale with
+the size of their input, on programs and inputs written by the Generator.
+Sizes double from -from to -to; every measurement is the best of -reps runs.
+  scan     Scanner.next() over a generated source file
+  compile  Parser.parse() of the same file; retained = heap still in use
+           afterwards, which is mostly the symbol table
+  parallel Scanner.scanParallel() of the largest source on pools of 1, 2, 4, ...
+           threads up to the number of processors, against Scanner.next()
+           into the same token buffer
+  tab      Tab.find() of every name in one scope with 256 to 32K names
+  run      a generated program of -runsize KB on inputs of 1K to 128K numbers
+alloc is the memory allocated by the measured thread. Per-unit columns
+(ns/token, us/line, ns/find, ns/number) stay flat while a phase scales
+linearly.
+With -shape=globals the number of global variables grows with the source
+(one per 256 bytes) instead of staying at 16, which makes the compiler
+search ever longer scopes.
+
+Syntax: java -cp bench/target/benchmarks.jar MJ.Scaling [-from=KB] [-to=KB]
+          [-shape=methods|globals] [-runsize=KB] [-reps=n] [-dir=directory]
+*/
+package MJ;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import MJ.CodeGen.*;
+import MJ.SymTab.*;
+
+public class Scaling {
+	private static final com.sun.management.ThreadMXBean threads =
+		(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	private static final PrintStream out = System.out;
+	private static int reps = 3;
+
+	// Time and allocation of the best of reps runs of a phase
+	private static long time, alloc;
+
+	private interface Phase { void run() throws Exception; }
+
+	private static void measure(Phase p) throws Exception {
+		time = Long.MAX_VALUE; alloc = Long.MAX_VALUE;
+		long id = Thread.currentThread().getId();
+		for (int i = 0; i < reps; i++) {
+			long a = threads.getThreadAllocatedBytes(id), t = System.nanoTime();
+			p.run();
+			t = System.nanoTime() - t;
+			a = threads.getThreadAllocatedBytes(id) - a;
+			time = Math.min(time, t); alloc = Math.min(alloc, a);
+		}
+	}
+
+	private static long used() {
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static double mb(long bytes) { return bytes / 1048576.0; }
+
+	private static int tokens;
+
+	private static void scan(File f) throws IOException {
+		Scanner.init(f);
+		int n = 0;
+		while (Scanner.next().kind != Token.eof) n++;
+		tokens = n;
+	}
+
+	private static void scan(File f, ForkJoinPool pool) throws IOException {
+		Scanner.init(f);
+		Tokens b = new Tokens();
+		if (pool != null) Scanner.scanParallel(b, pool);
+		else do Scanner.next(b); while (b.kind[b.n - 1] != Token.eof);
+		tokens = b.n - 1;
+	}
+
+	private static void compile(File f) throws IOException {
+		Scanner.init(f);
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // e.g. "program too large"
+		try {
+			Parser.parse();
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	public static void main(String[] arg) throws Exception {
+		long from = 16, to = 16384;
+		int runSize = 2;
+		boolean globals = false;
+		File dir = new File(System.getProperty("java.io.tmpdir"));
+		for (String a: arg) {
+			if (a.startsWith("-from=")) from = Long.parseLong(a.substring(6));
+			else if (a.startsWith("-to=")) to = Long.parseLong(a.substring(4));
+			else if (a.startsWith("-runsize=")) runSize = Integer.parseInt(a.substring(9));
+			else if (a.startsWith("-reps=")) reps = Integer.parseInt(a.substring(6));
+			else if (a.startsWith("-dir=")) dir = new File(a.substring(5));
+			else if (a.equals("-shape=globals")) globals = true;
+			else if (!a.equals("-shape=methods")) {
+				out.println("Syntax: java MJ.Scaling [-from=KB] [-to=KB] [-shape=methods|globals] [-runsize=KB] [-reps=n] [-dir=directory]");
+				return;
+			}
+		}
+		File src = new File(dir, "mj-scaling.mj");
+		src.deleteOnExit();
+
+		out.println("-- scanner and compiler, shape " + (globals ? "globals" : "methods"));
+		out.printf("%10s %9s %10s %9s %8s %9s %10s %9s %8s %9s %9s%n", "KB", "lines", "tokens",
+			"scan ms", "ns/tok", "alloc MB", "compile ms", "us/line", "code KB", "alloc MB", "retained");
+		for (long kb = from; kb <= to; kb *= 2) {
+			Generator gen = new Generator();
+			if (globals) gen.globals = (int)Math.max(16, kb * 4);
+			Writer w = new BufferedWriter(new FileWriter(src));
+			try {
+				gen.program(w, kb * 1024);
+			} finally {
+				w.close();
+			}
+			measure(() -> scan(src));
+			long scanTime = time, scanAlloc = alloc;
+			int lines = Scanner.line;
+			measure(() -> compile(src));
+			long retained = used();
+			out.printf("%10d %9d %10d %9.1f %8.1f %9.1f %10.1f %9.2f %8d %9.1f %9.1f%n", kb, lines, tokens,
+				scanTime / 1e6, (double)scanTime / tokens, mb(scanAlloc), time / 1e6, time / 1e3 / lines,
+				Code.pc / 1024, mb(alloc), mb(retained));
+			Tab.init(); // drop the symbol table
+		}
+
+		out.println("-- parallel scanner: the source of " + to + " KB into a token buffer");
+		out.printf("%10s %9s %8s %8s%n", "threads", "scan ms", "ns/tok", "speedup");
+		measure(() -> scan(src, null));
+		long seqTime = time;
+		out.printf("%10s %9.1f %8.1f %8.2f%n", "next()", time / 1e6, (double)time / tokens, 1.0);
+		int procs = Runtime.getRuntime().availableProcessors();
+		for (int t = 1; t <= Math.max(2, procs); t *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(t);
+			measure(() -> scan(src, pool));
+			pool.shutdown();
+			out.printf("%10d %9.1f %8.1f %8.2f%n", t, time / 1e6, (double)time / tokens, (double)seqTime / time);
+		}
+
+		out.println("-- symbol table: n names in one scope, each looked up once");
+		out.printf("%10s %10s %9s%n", "names", "find ms", "ns/find");
+		for (int n = 256; n <= 32 * 1024; n *= 2) {
+			Tab.init();
+			Tab.openScope();
+			String names[] = new String[n];
+			for (int i = 0; i < n; i++) {
+				names[i] = ("g" + i).intern();
+				Tab.insert(Obj.Var, names[i], Tab.intType);
+			}
+			measure(() -> { for (String s: names) Tab.find(s); });
+			out.printf("%10d %10.2f %9.1f%n", n, time / 1e6, (double)time / n);
+		}
+
+		out.println("-- VM: program of " + runSize + " KB, n input numbers");
+		Generator gen = new Generator();
+		StringWriter w = new StringWriter();
+		gen.program(w, runSize * 1024);
+		byte obj[] = Corpus.compile(w.toString());
+		if (obj == null) throw new IllegalStateException("generated program does not compile");
+		Program prog = Program.read(new ByteArrayInputStream(obj), 0, null);
+		out.printf("%10s %9s %9s %10s %9s %9s%n", "numbers", "input KB", "run ms", "ns/number", "alloc MB", "VM heap");
+		for (int n = 1024; n <= 128 * 1024; n *= 2) {
+			StringWriter in = new StringWriter();
+			gen.input(in, n);
+			byte input[] = in.toString().getBytes();
+			int heap[] = new int[1];
+			measure(() -> {
+				Machine vm = new Machine(prog, new IO.Memory(input), Run.heapSize, Run.maxHeapSize);
+				vm.run();
+				if (vm.error != null) throw new IllegalStateException(vm.error.getMessage());
+				heap[0] = vm.heap.length;
+			});
+			out.printf("%10d %9d %9.1f %10.1f %9.1f %9.1f%n", n, input.length / 1024, time / 1e6, (double)time / n,
+				mb(alloc), mb(4L * heap[0]));
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/* Scanner benchmark: tokens per second of Scanner.next() on a source in memory,
+   reading characters from a Reader (chars) or bytes with a reused token (bytes).
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBench {
+
+	@Param({"fib", "list", "matrix", "queens", "sieve", "sort", "words"})
+	public String program;
+
+	@Param({"chars", "bytes"})
+	public String mode;
+
+	private String src;
+	private byte bytes[];
+	private final Token token = new Token();
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Tokens {
+		public long tokens;
+
+		@Setup(Level.Iteration)
+		public void reset() { tokens = 0; }
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		src = Corpus.source(program);
+		bytes = src.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public int scan(Tokens count) {
+		int n = 0;
+		if (mode.equals("chars")) {
+			Scanner.init(new StringReader(src));
+			while (Scanner.next().kind != Token.eof) n++;
+		} else {
+			Scanner.init(bytes, bytes.length);
+			for (Scanner.next(token); token.kind != Token.eof; Scanner.next(token)) n++;
+		}
+		count.tokens += n;
+		return n;
+	}
+}
@@ -0,0 +1,28 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.nio.file.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompilerTest {
+	@TempDir Path dir;
+
+	@Test
+	void symbolFile() throws Exception {
+		Path src = dir.resolve("p.mj");
+		Files.writeString(src,
+			"program P\n" +
+			"{\n" +
+			"	int twice(int x) { return 2 * x; }\n" +
+			"	void main() { print(twice(21)); }\n" +
+			"}\n");
+		Compiler.main(new String[] {src.toString()});
+		Map<Integer, String> names = Profiler.readSymbols(dir.resolve("p.sym").toString());
+		Program prog = Program.load(dir.resolve("p.obj").toString(), 0, null);
+		assertEquals(2, names.size());
+		assertEquals("main", names.get(prog.startPC));
+		assertEquals("twice", names.get(0));
+	}
+}
@@ -0,0 +1,124 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// Constant folding and the identities of Code.arith, and the folding of the
+// shifts it generates for powers of 2 when -O2 finds the operand constant
+class FoldTest {
+	static final String constants =
+		"program K\n{\n	void main() {\n" +
+		"		print(7 * 8 - 6 / 4 % 5 + 0); print(' ');\n" +
+		"		print(-3 * 16 + 100 % 7); print(' ');\n" +
+		"		print(2147483647 + 1);\n" +
+		"	}\n}\n";
+
+	static final String identities =
+		"program I\n{\n	void main() int x; {\n" +
+		"		read(x);\n" +
+		"		print(x + 0); print(' '); print(0 + x); print(' ');\n" +
+		"		print(x - 0); print(' '); print(x * 1); print(' ');\n" +
+		"		print(1 * x); print(' '); print(x / 1); print(' ');\n" +
+		"		print(x * (0 - 1)); print(' '); print(x * 8); print(' ');\n" +
+		"		print(16 * x);\n" +
+		"	}\n}\n";
+
+	// x is only known to be constant after propagation, so x * 8 is still a shl
+	static final String shifts =
+		"program S\n{\n	void main() int x, y, z; {\n" +
+		"		x = 3; y = x * 8; z = 4 * x;\n" +
+		"		print(y); print(' '); print(z); print(' ');\n" +
+		"		x = -5; y = x * 1024 + 0;\n" +
+		"		print(y);\n" +
+		"	}\n}\n";
+
+	@Test
+	void constants() throws Exception {
+		String expected = (7 * 8 - 6 / 4 % 5 + 0) + " " + (-3 * 16 + 100 % 7) + " " + (2147483647 + 1);
+		for (int mode: Programs.modes)
+			assertEquals(expected, Programs.run(constants, mode, ""));
+	}
+
+	@Test
+	void identities() throws Exception {
+		for (int x: new int[] {0, 7, -13}) {
+			String expected = x + " " + x + " " + x + " " + x + " " + x + " " + x + " " + -x + " " + x * 8 + " " + 16 * x;
+			for (int mode: Programs.modes)
+				assertEquals(expected, Programs.run(identities, mode, x + ""));
+		}
+	}
+
+	@Test
+	void optimizedShifts() throws Exception {
+		String expected = "24 12 -5120";
+		for (int mode: Programs.modes)
+			assertEquals(expected, Programs.run(shifts, mode, ""));
+		int plain = Programs.compile(shifts).length;
+		Optimizer.on = true;
+		try {
+			for (int mode: Programs.modes)
+				assertEquals(expected, Programs.run(shifts, mode, ""));
+			assertTrue(Programs.compile(shifts).length < plain, "shifts of constants not folded");
+		} finally {
+			Optimizer.on = false;
+		}
+	}
+
+	static final int values[] = {0, 1, -1, 2, 3, -7, 16, 1000003, Integer.MAX_VALUE, Integer.MIN_VALUE};
+	static final String ops[] = {"+", "-", "*", "/", "%"};
+
+	// x as an expression of constants
+	static String lit(int x) {
+		return x == Integer.MIN_VALUE ? "(0 - 2147483647 - 1)" : x < 0 ? "(0 - " + -x + ")" : "" + x;
+	}
+
+	// Every operator on every pair of values: folded by Code.arith (constants), at
+	// run time or by -O2 (variables), and at run time only (input)
+	static String pairs(String kind) {
+		StringBuilder b = new StringBuilder("program P\n{\n	void main() int x, y; {\n");
+		for (int x: values)
+			for (int y: values)
+				for (String op: ops) {
+					if ((op.equals("/") || op.equals("%")) && y == 0) continue;
+					if (kind.equals("constants")) b.append("		print(").append(lit(x)).append(" ").append(op).append(" ").append(lit(y));
+					else {
+						if (kind.equals("variables")) b.append("		x = ").append(lit(x)).append("; y = ").append(lit(y)).append(";\n");
+						else b.append("		read(x); read(y);\n");
+						b.append("		print(x ").append(op).append(" y");
+					}
+					b.append("); print(' ');\n");
+				}
+		b.append("	}\n}\n");
+		return b.toString();
+	}
+
+	@Test
+	void pairs() throws Exception {
+		StringBuilder in = new StringBuilder(), out = new StringBuilder();
+		for (int x: values)
+			for (int y: values)
+				for (String op: ops) {
+					if ((op.equals("/") || op.equals("%")) && y == 0) continue;
+					in.append(x).append(' ').append(y).append(' ');
+					switch (op) {
+						case "+": out.append(x + y); break;
+						case "-": out.append(x - y); break;
+						case "*": out.append(x * y); break;
+						case "/": out.append(x / y); break;
+						default:  out.append(x % y); break;
+					}
+					out.append(' ');
+				}
+		for (boolean o2: new boolean[] {false, true}) {
+			Optimizer.on = o2;
+			try {
+				for (String kind: new String[] {"constants", "variables", "input"})
+					for (int mode: Programs.modes)
+						assertEquals(out.toString(), Programs.run(pairs(kind), mode, in.toString()), kind + (o2 ? " -O2" : ""));
+			} finally {
+				Optimizer.on = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import org.junit.jupiter.api.Test;
+
+// Superinstructions must not change the output of a program
+class FusionTest {
+	// Run prog as Run does; returns the machine after the run
+	static Machine run(Program prog, IO.Memory io) {
+		Machine vm = new Machine(prog, io, Run.heapSize, Run.maxHeapSize);
+		vm.log = new PrintStream(new ByteArrayOutputStream());
+		vm.run();
+		assertNull(vm.error);
+		return vm;
+	}
+
+	static int sum(int a[]) {
+		int s = 0;
+		for (int x: a) s += x;
+		return s;
+	}
+
+	@Test
+	void allPatterns() throws Exception {
+		for (String name: Programs.corpus) {
+			String src = Programs.source(name);
+			String expected = Programs.run(src, Programs.predecode, "");
+			assertEquals(Programs.run(src, Programs.interpret, ""), expected, name);
+			Program prog = Programs.load(src, Programs.fuse);
+			assertNull(prog.verifyError, name);
+			IO.Memory io = new IO.Memory("");
+			Machine vm = run(prog, io);
+			assertEquals(expected, io.toString(), name);
+			assertTrue(sum(prog.image.sites) > 0 && sum(vm.hits) > 0, name + ": no superinstructions run");
+		}
+	}
+
+	// With the pair profile of a checked run only the frequent patterns are used
+	@Test
+	void profiledPatterns() throws Exception {
+		for (String name: Programs.corpus) {
+			String src = Programs.source(name);
+			IO.Memory io = new IO.Memory("");
+			Machine vm = new Machine(Programs.load(src, Program.predecode), io, Run.heapSize, Run.maxHeapSize);
+			vm.pairs = new long[64 * 64];
+			vm.run();
+			String expected = io.toString();
+			byte obj[] = Programs.compile(src);
+			Program all = Program.read(new ByteArrayInputStream(obj), Programs.fuse, null);
+			Program prog = Program.read(new ByteArrayInputStream(obj), Programs.fuse, vm.pairs);
+			assertTrue(sum(prog.image.sites) <= sum(all.image.sites), name);
+			io = new IO.Memory("");
+			run(prog, io);
+			assertEquals(expected, io.toString(), name);
+		}
+	}
+
+	// A loop whose condition and body are fused; the branch back enters the
+	// condition at its first instruction and the exit jumps past the sequences
+	@Test
+	void loops() throws Exception {
+		String src = "program L\n{\n	void main() int i, j, s; int[] a; {\n" +
+			"		read(i); a = new int[10]; j = 0; s = 0;\n" +
+			"		while (j < 10) { a[j] = j * i; j = j + 1; }\n" +
+			"		j = 0;\n" +
+			"		while (j < 10) { if (a[j] > 20) s = s + a[j]; else s = s - 1; j = j + 1; }\n" +
+			"		print(s);\n	}\n}\n";
+		for (String in: new String[] {"0", "3", "7"}) {
+			String expected = Programs.run(src, Programs.interpret, in);
+			for (int mode: Programs.modes) assertEquals(expected, Programs.run(src, mode, in));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package MJ;
+
+import java.io.*;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+class HeapTest {
+	static final String alloc =
+		"program Alloc\n" +
+		"	int[] a;\n" +
+		"{\n" +
+		"	void main() int n; {\n" +
+		"		read(n);\n" +
+		"		a = new int[n];\n" +
+		"		print(len(a));\n" +
+		"	}\n" +
+		"}\n";
+
+	// Output of a run with a heap limit of max words
+	static String run(int max, String input) throws Exception {
+		Program prog = Programs.load(alloc, Programs.interpret);
+		IO.Memory io = new IO.Memory(input);
+		Machine vm = new Machine(prog, io, Run.heapSize, max);
+		vm.log = new PrintStream(new ByteArrayOutputStream());
+		vm.run();
+		return vm.error == null ? io.toString() : "-- " + vm.error.getMessage();
+	}
+
+	@Test
+	void limitBelowInitialSize() throws Exception {
+		assertEquals("500", run(1000, "500"));
+		assertEquals("-- heap overflow", run(1000, "5000"));
+	}
+
+	@Test
+	void growsUpToLimit() throws Exception {
+		assertEquals("300000", run(Run.maxHeapSize, "300000"));
+	}
+}
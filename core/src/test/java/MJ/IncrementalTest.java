@@ -0,0 +1,115 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+
+// An Incremental session must compile every edit as the Compiler compiles the
+// whole source after it
+class IncrementalTest {
+	final List<String> sources = new ArrayList<String>();	// source after each edit
+	final List<byte[]> objects = new ArrayList<byte[]>();	// object file of the session, or null if there were errors
+	final List<String> actions = new ArrayList<String>();
+
+	// Replace the first occurrence of s in the source of session c by t
+	void edit(Incremental c, String s, String t) throws Exception {
+		String src = new String(c.source(), StandardCharsets.UTF_8);
+		int offset = src.indexOf(s);
+		assertTrue(offset >= 0, s);
+		byte b[] = t.getBytes(StandardCharsets.UTF_8);
+		c.edit(offset, s.length(), b, b.length);
+		record(c);
+	}
+
+	void record(Incremental c) {
+		sources.add(new String(c.source(), StandardCharsets.UTF_8));
+		actions.add(c.action);
+		if (c.errors() > 0) objects.add(null);
+		else {
+			ByteArrayOutputStream obj = new ByteArrayOutputStream();
+			c.write(obj);
+			objects.add(obj.toByteArray());
+		}
+	}
+
+	// Compile the sources again from scratch and compare the object files and,
+	// if run is set, the output in every mode; no session is open then
+	void check(boolean run) throws Exception {
+		for (int i = 0; i < sources.size(); i++) {
+			String src = sources.get(i), step = "edit " + i + " (" + actions.get(i) + ")";
+			byte obj[] = Programs.compile(src);
+			if (obj == null) {
+				assertNull(objects.get(i), step + ": errors expected");
+				continue;
+			}
+			assertNotNull(objects.get(i), step + ": no errors expected");
+			assertArrayEquals(obj, objects.get(i), step);
+			if (!run) continue;
+			String expected = Programs.run(src, Programs.interpret, "");
+			for (int mode: Programs.modes) {
+				Program prog = Program.read(new ByteArrayInputStream(objects.get(i)), mode, null);
+				assertEquals(expected, Programs.run(prog, ""), step);
+			}
+		}
+	}
+
+	Incremental open(String src) {
+		byte b[] = src.getBytes(StandardCharsets.UTF_8);
+		Incremental c = new Incremental(b, b.length);
+		c.action = "program";
+		record(c);
+		return c;
+	}
+
+	@Test
+	void methodEdits() throws Exception {
+		Incremental c = open(Programs.source("fib"));
+		edit(c, "fib(i), 6", "fib(i), 8");
+		assertEquals("method main", c.action);
+		edit(c, "n < 2", "n  <  2");
+		assertEquals("tokens", c.action);
+		edit(c, "return n;\n", "return n; // base case\n");
+		assertEquals("tokens", c.action);
+		edit(c, "return n;", "return n * 1 + 0;");	// the code of fib stays the same
+		assertEquals("method fib", c.action);
+		edit(c, "if (n  <  2", "if (n  <=  1");	// main moves
+		assertEquals("method fib", c.action);
+		edit(c, "<=  1", "<=  0");
+		edit(c, "i = i + 1;", "i = i + ;");
+		assertEquals(1, c.errors());
+		edit(c, "i = i + ;", "i = i + 2;");
+		assertEquals(0, c.errors());
+		check(true);
+	}
+
+	@Test
+	void programEdits() throws Exception {
+		Incremental c = open(Programs.source("sort"));
+		edit(c, "final int n = 2000;", "final int n = 300;");
+		assertEquals("program", c.action);
+		edit(c, "int random()", "int rand()");
+		assertTrue(c.errors() > 0);
+		edit(c, "int rand()", "int random()");
+		assertEquals(0, c.errors());
+		edit(c, "seed = 42;", "seed = 43; a = new int[n];");
+		edit(c, "int seed;", "int seed, unused;");
+		check(true);
+	}
+
+	// Every corpus program, with edits in and between its methods; the runs of
+	// the corpus are left to the other tests
+	@Test
+	void corpus() throws Exception {
+		for (String name: Programs.corpus) {
+			sources.clear(); objects.clear(); actions.clear();
+			Incremental c = open(Programs.source(name));
+			edit(c, "\n{", "\n// the methods\n{");
+			edit(c, "= 0;", "= 0 + 1 - 1;");
+			edit(c, "+ 1 - 1;", ";");
+			edit(c, "\n\tvoid main()", "\n\tvoid extra() int x; { x = 1; }\n\n\tvoid main()");
+			check(false);
+		}
+	}
+}
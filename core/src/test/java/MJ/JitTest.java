@@ -0,0 +1,57 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+class JitTest {
+	// f() is compiled after Jit.callThreshold calls; new int[3] is allocated with n on the stack
+	static final String newArray =
+		"program NA\n" +
+		"	class N { int[] a; }\n" +
+		"	N n;\n" +
+		"{\n" +
+		"	int f(int k) int[] b; {\n" +
+		"		n.a = new int[3];\n" +
+		"		n.a[k % 3] = k;\n" +
+		"		b = n.a;\n" +
+		"		return b[k % 3] + len(n.a);\n" +
+		"	}\n" +
+		"	void main() int i, s; {\n" +
+		"		n = new N;\n" +
+		"		i = 0; s = 0;\n" +
+		"		while (i < 5000) { s = s + f(i); i = i + 1; }\n" +
+		"		print(s);\n" +
+		"	}\n" +
+		"}\n";
+
+	@Test
+	void newArrayAboveOtherValues() throws Exception {
+		String expected = Programs.run(newArray, Programs.interpret, "");
+		assertEquals("12512500", expected);
+		assertEquals(expected, Programs.run(newArray, Programs.jit, ""));
+	}
+
+	// Machines in parallel threads share the Program; methods and loops that one of
+	// them compiles are entered by the others
+	@Test
+	void sharedByThreads() throws Exception {
+		for (String name: new String[] {"fib", "sieve", "matrix"}) {
+			String src = Programs.source(name);
+			String expected = Programs.run(src, Programs.interpret, "");
+			Program prog = Programs.load(src, Programs.jit);
+			Jobs jobs = new Jobs(8);
+			try {
+				List<Future<Jobs.Result>> results = new ArrayList<Future<Jobs.Result>>();
+				for (int i = 0; i < 32; i++) results.add(jobs.submit(prog, new byte[0]));
+				for (Future<Jobs.Result> r: results) {
+					assertNull(r.get().error, name);
+					assertEquals(expected, new String(r.get().output), name);
+				}
+			} finally {
+				jobs.shutdown();
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// The perfect hash must find the keywords and nothing else, in the character
+// and in the byte mode of the Scanner
+class KeywordTest {
+	// Names that are no keywords but are close to s; the last one hashes to the slot of s
+	static List<String> nearMisses(String s) {
+		List<String> l = new ArrayList<String>();
+		l.add(s.toUpperCase());
+		l.add(s + "x");
+		l.add("x" + s);
+		l.add(s.substring(0, s.length() - 1));
+		l.add(s.charAt(0) + "z".repeat(s.length() - 2) + s.charAt(s.length() - 1));
+		l.removeAll(Arrays.asList(Token.name));
+		return l;
+	}
+
+	// Kinds and names of the tokens of src, scanned in the character or the byte mode
+	static List<String> tokens(String src, boolean bytes) {
+		if (bytes) {
+			byte b[] = src.getBytes(StandardCharsets.UTF_8);
+			Scanner.init(b, b.length);
+		} else Scanner.init(new StringReader(src));
+		List<String> l = new ArrayList<String>();
+		for (Token t = Scanner.next(); t.kind != Token.eof; t = Scanner.next())
+			l.add(t.kind == Token.ident ? "ident " + t.val : Token.name[t.kind]);
+		return l;
+	}
+
+	@Test
+	void keywords() {
+		StringBuilder src = new StringBuilder();
+		List<String> expected = new ArrayList<String>();
+		for (int k = Token.firstKeyword; k <= Token.lastKeyword; k++) {
+			String s = Token.name[k];
+			src.append(s).append(' ');
+			expected.add(s);
+			for (String m: nearMisses(s)) {
+				src.append(m).append('\n');
+				expected.add("ident " + m);
+			}
+		}
+		assertEquals(expected, tokens(src.toString(), false));
+		assertEquals(expected, tokens(src.toString(), true));
+	}
+
+	// Compile in the character and in the byte mode; the object files are the same
+	@Test
+	void namesLikeKeywords() throws Exception {
+		String src = "program P\n	int clazs, elze, fznal, iff, nzw, prznt, rezd, retzrn, vozd, whzle;\n{\n" +
+			"	int progrzm(int i) { return i * 2; }\n" +
+			"	void main() int IF, Print; {\n" +
+			"		read(iff); clazs = iff; elze = 1; fznal = 2; nzw = 3; prznt = 4; rezd = 5; retzrn = 6; vozd = 7;\n" +
+			"		IF = 0; Print = 0; whzle = 0;\n" +
+			"		while (whzle < clazs) { Print = Print + progrzm(whzle) + elze + fznal + nzw + prznt + rezd + retzrn + vozd; whzle = whzle + 1; }\n" +
+			"		print(Print);\n	}\n}\n";
+		byte obj[] = Programs.compile(src);
+		assertNotNull(obj);
+		Scanner.init(new StringReader(src));
+		Parser.parse();
+		assertEquals(0, Parser.errors);
+		Code.optimize();
+		ByteArrayOutputStream chars = new ByteArrayOutputStream();
+		Code.write(chars);
+		assertArrayEquals(obj, chars.toByteArray());
+		for (int mode: Programs.modes)
+			assertEquals("" + (10 * 28 + 2 * 45), Programs.run(src, mode, "10"));
+	}
+}
@@ -0,0 +1,90 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// Methods with as many local variables as the VM can address (Code.maxVars)
+class LocalsTest {
+	// main with n local variables; the last one is assigned and printed
+	static String locals(int n) {
+		StringBuilder b = new StringBuilder("program L\n{\n	void main() int v0");
+		for (int i = 1; i < n; i++) b.append(", v").append(i);
+		b.append(";\n	{\n		v0 = 3;\n");
+		b.append("		v").append(n - 1).append(" = v0 * 99;\n");
+		b.append("		print(v").append(n - 1).append(");\n	}\n}\n");
+		return b.toString();
+	}
+
+	@Test
+	void atLimit() throws Exception {
+		String src = locals(127);
+		for (int mode: new int[] {Programs.interpret, Programs.predecode, Programs.jit})
+			assertEquals("297", Programs.run(src, mode, ""));
+	}
+
+	// main with n local variables that are all live in a loop that swaps v1 and v2,
+	// so that the optimizer needs a further slot for the copies on the back edge
+	static String swaps(int n) {
+		StringBuilder b = new StringBuilder("program S\n{\n	void main() int t");
+		for (int i = 0; i < n - 1; i++) b.append(", v").append(i);
+		b.append(";\n	{\n		t = 0;\n");
+		for (int i = 0; i < n - 1; i++) b.append("		v").append(i).append(" = ").append(i).append(";\n");
+		b.append("		while (v0 < 1000) {\n			t = v1; v1 = v2; v2 = t; t = v0 + v3;\n");
+		for (int i = 0; i < n - 1; i++)
+			if (i != 1 && i != 2) b.append("			v").append(i).append(" = v").append(i).append(" + 1;\n");
+		b.append("		}\n");
+		for (int i = 0; i < n - 1; i++) b.append("		t = t + v").append(i).append(" * ").append(i % 7).append(";\n");
+		b.append("		print(t);\n	}\n}\n");
+		return b.toString();
+	}
+
+	@Test
+	void optimizedAtLimit() throws Exception {
+		String src = swaps(Code.maxVars);
+		String expected = Programs.run(src, Programs.interpret, "");
+		Optimizer.on = true;
+		try {
+			for (int mode: new int[] {Programs.interpret, Programs.predecode, Programs.jit})
+				assertEquals(expected, Programs.run(src, mode, ""));
+		} finally {
+			Optimizer.on = false;
+		}
+	}
+
+	// main with n local variables that calls f, which has 12 local variables
+	static String calls(int n) {
+		StringBuilder b = new StringBuilder("program C\n{\n	int f(int x) int a, b, c, d, e, g, h, i, j, k, l; {\n");
+		b.append("		l = x * 3; return l + 1;\n	}\n");
+		b.append("	void main() int v0");
+		for (int i = 1; i < n; i++) b.append(", v").append(i);
+		b.append(";\n	{\n		v0 = 98;\n");
+		b.append("		v").append(n - 1).append(" = f(v0) + 2;\n");
+		b.append("		print(v").append(n - 1).append(");\n	}\n}\n");
+		return b.toString();
+	}
+
+	// Output of a run of src compiled with -inline; inlined: calls inlined
+	static String inlined(String src, int inlined) throws Exception {
+		Inliner.on = true;
+		try {
+			int before = Inliner.inlined;
+			String out = Programs.run(src, Programs.jit, "");
+			assertEquals(inlined, Inliner.inlined - before);
+			return out;
+		} finally {
+			Inliner.on = false;
+		}
+	}
+
+	@Test
+	void inlinedAtLimit() throws Exception {
+		assertEquals("297", inlined(calls(Code.maxVars - 12), 1));
+		assertEquals("297", inlined(calls(120), 0)); // 132 slots: f is called
+	}
+
+	@Test
+	void overLimit() {
+		assertNull(Programs.compile(locals(128)));
+	}
+}
@@ -0,0 +1,79 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// -loops must not change the output of a program
+class LoopsTest {
+	// Compare as OptimizerTest.compare with -loops; returns the loops changed
+	static String compare(String src, String input) throws Exception {
+		Optimizer.report.clear();
+		OptimizerTest.compare(src, input, true);
+		String changed = String.join("\n", Optimizer.report);
+		Optimizer.report.clear();
+		return changed;
+	}
+
+	@Test
+	void corpus() throws Exception {
+		for (String name: Programs.corpus) compare(Programs.source(name), "");
+	}
+
+	// Invariant arithmetic and globals, and a global that a call in the loop changes
+	static final String invariants =
+		"program I\n	int g, h;\n{\n" +
+		"	void step() { h = h + 1; }\n" +
+		"	void main() int i, n, s, x; {\n" +
+		"		read(n); read(x); g = 3; h = 0; s = 0; i = 0;\n" +
+		"		while (i < n) { s = s + x * 5 + g; i = i + 1; }\n" +
+		"		i = 0;\n" +
+		"		while (i < n) { s = s + h; step(); i = i + 1; }\n" +
+		"		print(s);\n" +
+		"	}\n}\n";
+
+	// Fields and array lengths of references that are null when the loop does not run
+	static final String nulls =
+		"program N\n	class P { int v; }\n{\n" +
+		"	void main() int i, n, s; int[] a; P p; {\n" +
+		"		read(n); s = 0; i = 0;\n" +
+		"		if (n > 0) { p = new P; p.v = 4; a = new int[3]; }\n" +
+		"		while (i < n) { s = s + p.v + len(a); i = i + 1; }\n" +
+		"		print(s);\n" +
+		"	}\n}\n";
+
+	// Induction variables times factors (strength reduction), and inner loops that
+	// run a constant number of times (unrolling) with and without a common divisor
+	static final String counters =
+		"program C\n{\n" +
+		"	void main() int i, j, n, s; int[] a; {\n" +
+		"		read(n); a = new int[8 * n + 8]; s = 0; i = 0;\n" +
+		"		while (i < n) {\n" +
+		"			a[i * 8] = i * 8 + 1; a[i * 8 + 1] = i * 8 - 1; s = s + a[i * 8];\n" +
+		"			j = 0; while (j < 12) { s = s + j * i; j = j + 1; }\n" +
+		"			j = 1; while (j < 8) { s = s - j; j = j + 1; }\n" +
+		"			j = 30; while (j > 0) { s = s + 1; j = j - 3; }\n" +
+		"			i = i + 1;\n" +
+		"		}\n" +
+		"		print(s); print(' '); print(a[8 * n - 7]);\n" +
+		"	}\n}\n";
+
+	@Test
+	void invariants() throws Exception {
+		for (String in: new String[] {"0 1", "1 -4", "10 7"})
+			assertTrue(compare(invariants, in).contains("hoisted"));
+	}
+
+	@Test
+	void nulls() throws Exception {
+		for (String in: new String[] {"0", "1", "5"}) compare(nulls, in);
+	}
+
+	@Test
+	void counters() throws Exception {
+		for (String in: new String[] {"1", "2", "9"}) {
+			String changed = compare(counters, in);
+			assertTrue(changed.contains("reduced") && changed.contains("unrolled"), changed);
+		}
+	}
+}
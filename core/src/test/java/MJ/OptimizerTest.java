@@ -0,0 +1,88 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// -O2 must not change the output of a program
+class OptimizerTest {
+	// Run src compiled without and with the optimizer (and with -loops if loops
+	// is set) in every mode and compare with the interpreted unoptimized run;
+	// returns the number of methods optimized
+	static int compare(String src, String input, boolean loops) throws Exception {
+		String expected = Programs.run(src, Programs.interpret, input);
+		for (int mode: Programs.modes) assertEquals(expected, Programs.run(src, mode, input));
+		int before = Optimizer.optimized;
+		Optimizer.on = true; Optimizer.loops = loops;
+		try {
+			for (int mode: Programs.modes) assertEquals(expected, Programs.run(src, mode, input), loops ? "-loops" : "-O2");
+		} finally {
+			Optimizer.on = Optimizer.loops = false;
+		}
+		return Optimizer.optimized - before;
+	}
+
+	@Test
+	void corpus() throws Exception {
+		for (String name: Programs.corpus)
+			assertTrue(compare(Programs.source(name), "", false) > 0, name + ": nothing optimized");
+	}
+
+	// Copies and swaps that need copies on the back edges, and constants that
+	// decide branches
+	static final String copies =
+		"program C\n{\n" +
+		"	void main() int a, b, t, i, n, k; {\n" +
+		"		read(n); a = 1; b = 2; i = 0; k = 3;\n" +
+		"		while (i < n) {\n" +
+		"			t = a; a = b; b = t + a;\n" +
+		"			if (k == 3) b = b % 10007; else b = 0;\n" +
+		"			i = i + 1;\n" +
+		"		}\n" +
+		"		if (k > 5) print(k); else print(a);\n" +
+		"		print(' '); print(b); print(' '); print(i);\n" +
+		"	}\n}\n";
+
+	// Expressions that value numbering may merge, and array elements, fields and
+	// globals that it must not merge across stores and calls
+	static final String memory =
+		"program M\n	int g;\n	class P { int v; }\n{\n" +
+		"	int bump() { g = g + 1; return g; }\n" +
+		"	void main() int x, y, i, j, s; int[] a; P p; {\n" +
+		"		read(x); read(i); read(j);\n" +
+		"		a = new int[4]; p = new P;\n" +
+		"		y = x * 7 + 3; s = x * 7 + 3 + y;\n" +
+		"		a[i] = 1; s = s + a[j]; a[j] = 5; s = s + a[i];\n" +
+		"		p.v = 2; s = s + p.v; p.v = p.v * 3; s = s + p.v;\n" +
+		"		g = 10; s = s + g; s = s + bump() + g;\n" +
+		"		print(s);\n" +
+		"	}\n}\n";
+
+	// Traps, input and output must stay in their order, even where the values are
+	// constant or unused
+	static final String effects =
+		"program E\n	int[] a;\n{\n" +
+		"	int f(int x) { print(x); return x; }\n" +
+		"	void main() int x, y, z; {\n" +
+		"		read(x); y = 0; z = f(1) + f(2);\n" +
+		"		if (x == 1) z = 5 / y;\n" +
+		"		if (x == 2) z = a[0];\n" +
+		"		if (x == 3) z = len(a);\n" +
+		"		z = x * 0; read(y); read(y); print(y + z);\n" +
+		"	}\n}\n";
+
+	@Test
+	void copies() throws Exception {
+		for (String in: new String[] {"0", "1", "2", "25"}) assertTrue(compare(copies, in, false) > 0);
+	}
+
+	@Test
+	void memory() throws Exception {
+		for (String in: new String[] {"0 1 1", "3 0 2", "-5 3 3"}) assertTrue(compare(memory, in, false) > 0);
+	}
+
+	@Test
+	void effects() throws Exception {
+		for (String in: new String[] {"0 7 8", "1 7 8", "2 7 8", "3 7 8", "4 7"}) assertTrue(compare(effects, in, false) > 0);
+	}
+}
@@ -0,0 +1,106 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// Scanning in chunks on a fork/join pool must give the tokens and messages of
+// the sequential byte mode
+class ParallelScanTest {
+	static final ForkJoinPool pool = new ForkJoinPool(4);
+
+	// A program of several MB, so that scanParallel splits it into chunks: n
+	// methods, main calls some of them. bad is put into the last method.
+	static byte[] big(int n, String bad) {
+		StringBuilder b = new StringBuilder("// generated\nprogram Big\n	int total;\n	char c;\n{\n");
+		for (int i = 0; i < n; i++) {
+			b.append("	int f").append(i).append("(int x) int y, z").append(i % 100).append(";\n");
+			b.append("	{ // method ").append(i).append("\n		y = x * ").append(i).append(" + ord('").append((char)('a' + i % 26)).append("');\n");
+			if (i == n - 1) b.append(bad);
+			b.append("		c = '\\n'; return y % 1000;\n	}\n");
+		}
+		b.append("	void main() int i;\n	{\n		total = 0; i = 0;\n");
+		b.append("		while (i < 10) { total = total + f").append(n / 2).append("(i) + f").append(n - 1).append("(i) + f0(i); i = i + 1; }\n");
+		b.append("		print(total);\n	}\n}\n");
+		return b.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	// Tokens of src up to eof and the messages printed while scanning
+	static Tokens scan(byte[] src, boolean parallel, ByteArrayOutputStream msg) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(msg));
+		try {
+			Scanner.init(src, src.length);
+			Tokens t = new Tokens();
+			if (parallel) Scanner.scanParallel(t, pool);
+			else do Scanner.next(t); while (t.kind[t.n - 1] != Token.eof);
+			return t;
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	// Compare the scans of src; returns the messages
+	static String compare(byte[] src) {
+		assertTrue(src.length > 2 << 20, "one chunk only");
+		ByteArrayOutputStream m1 = new ByteArrayOutputStream(), m2 = new ByteArrayOutputStream();
+		Tokens s = scan(src, false, m1);
+		String names[] = new String[s.n];
+		for (int i = 0; i < s.n; i++) if (s.kind[i] == Token.ident) names[i] = Scanner.name(s.numVal[i]);
+		Tokens p = scan(src, true, m2);
+		assertEquals(s.n, p.n);
+		for (int i = 0; i < s.n; i++) {
+			String at = "token " + i + " in line " + s.line[i];
+			assertEquals(s.kind[i], p.kind[i], at);
+			assertEquals(s.line[i], p.line[i], at);
+			assertEquals(s.col[i], p.col[i], at);
+			assertEquals(s.start[i], p.start[i], at);
+			assertEquals(s.len[i], p.len[i], at);
+			if (s.kind[i] == Token.ident) assertEquals(names[i], Scanner.name(p.numVal[i]), at);
+			else assertEquals(s.numVal[i], p.numVal[i], at);
+		}
+		assertEquals(m1.toString(), m2.toString());
+		return m1.toString();
+	}
+
+	@Test
+	void tokens() {
+		assertEquals("", compare(big(30000, "")));
+	}
+
+	@Test
+	void messages() {
+		byte src[] = big(30000, "		y = 99999999999 + ''; c = 'ab';\n");
+		String msg = compare(src);
+		assertTrue(msg.contains("number overflow") && msg.contains("Empty character constant"), msg);
+	}
+
+	// Compile as the Compiler does with and without -parallel
+	@Test
+	void program() throws Exception {
+		byte src[] = big(30000, "");
+		byte obj[] = Programs.compile(new String(src, StandardCharsets.UTF_8));
+		assertNotNull(obj);
+		Scanner.init(src, src.length);
+		Tokens t = new Tokens();
+		Scanner.scanParallel(t, pool);
+		Parser.parse(t);
+		assertEquals(0, Parser.errors);
+		Code.optimize();
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		Code.write(parallel);
+		assertArrayEquals(obj, parallel.toByteArray());
+		int total = 0;
+		for (int x = 0; x < 10; x++) total += f(15000, x) + f(29999, x) + f(0, x);
+		for (int mode: Programs.modes)
+			assertEquals("" + total, Programs.run(Program.read(new ByteArrayInputStream(obj), mode, null), ""));
+	}
+
+	// Method i of big
+	static int f(int i, int x) {
+		return (x * i + 'a' + i % 26) % 1000;
+	}
+}
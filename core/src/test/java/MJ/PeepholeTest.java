@@ -0,0 +1,82 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// The peephole optimizer must not change the output of a program
+class PeepholeTest {
+	// Object file of src without the peephole optimizer
+	static byte[] unoptimized(String src) {
+		byte b[] = src.getBytes(StandardCharsets.UTF_8);
+		Scanner.init(b, b.length);
+		Parser.parse();
+		assertEquals(0, Parser.errors);
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		Code.write(obj);
+		return obj.toByteArray();
+	}
+
+	// Compare the runs of src with and without the peephole optimizer in every
+	// mode; returns the number of bytes removed
+	static int compare(String src, String input) throws Exception {
+		byte plain[] = unoptimized(src), obj[] = Programs.compile(src);
+		String expected = Programs.run(Program.read(new ByteArrayInputStream(plain), Programs.interpret, null), input);
+		for (int mode: Programs.modes) {
+			assertEquals(expected, Programs.run(Program.read(new ByteArrayInputStream(plain), mode, null), input));
+			Program prog = Program.read(new ByteArrayInputStream(obj), mode, null);
+			assertNull(prog.verifyError);
+			assertEquals(expected, Programs.run(prog, input));
+		}
+		return plain.length - obj.length;
+	}
+
+	@Test
+	void corpus() throws Exception {
+		for (String name: Programs.corpus) compare(Programs.source(name), "");
+	}
+
+	// Jumps to jumps, jumps over jumps, jumps to the next instruction, code after
+	// return and assignments x = x
+	static final String jumps =
+		"program J\n	int g;\n{\n" +
+		"	int sign(int x) {\n" +
+		"		if (x < 0) { if (x < -10) return -2; else return -1; }\n" +
+		"		else if (x == 0) return 0;\n" +
+		"		else { if (x > 10) return 2; else return 1; }\n" +
+		"		return 99;\n" +
+		"	}\n" +
+		"	void main() int i, x, s; {\n" +
+		"		read(x); g = x; s = 0; i = 0;\n" +
+		"		while (i < 30) {\n" +
+		"			if (i % 2 == 0) { if (i % 3 == 0) s = s + 1; else s = s + 2; }\n" +
+		"			else { while (s > 1000) s = s - 1000; }\n" +
+		"			s = s; g = g; i = i + 1;\n" +
+		"		}\n" +
+		"		print(s); print(' '); print(sign(x - 5)); print(sign(x)); print(sign(x + 20)); print(' '); print(g);\n" +
+		"	}\n}\n";
+
+	@Test
+	void jumps() throws Exception {
+		for (String in: new String[] {"-30", "-3", "0", "5", "14"}) {
+			int removed = compare(jumps, in);
+			assertTrue(removed > 0 && Peephole.removedInstrs > 0, "nothing removed");
+		}
+	}
+
+	// A method whose jumps span more than Code.farAdr bytes, so that they are wide,
+	// in front of methods that move when it shrinks
+	@Test
+	void wideJumps() throws Exception {
+		StringBuilder b = new StringBuilder("program W\n	int g;\n{\n	int f(int x) int y; {\n		y = 0;\n		while (x > 0) {\n");
+		for (int i = 0; i < 3000; i++)
+			b.append("			if (x % ").append(i % 7 + 2).append(" == 0) { y = y + ").append(i).append("; g = g; } else y = y - 1;\n");
+		b.append("			x = x - 1;\n		}\n		return y;\n	}\n");
+		b.append("	int h(int x) { if (x > 0) return x; else return -x; }\n");
+		b.append("	void main() int x; { read(x); print(f(x)); print(' '); print(h(-x)); }\n}\n");
+		compare(b.toString(), "7");
+		assertTrue(unoptimized(b.toString()).length > Code.farAdr);
+	}
+}
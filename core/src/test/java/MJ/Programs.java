@@ -0,0 +1,64 @@
+/* Test helper: compiles MicroJava source in memory as the Compiler does and
+   runs it on a new Machine with in-memory input and output.
+*/
+package MJ;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import MJ.CodeGen.*;
+
+class Programs {
+	static final int
+		interpret = 0,
+		predecode = Program.predecode | Program.verify,
+		fuse      = Program.predecode | Program.verify | Program.fuse,
+		jit       = Program.predecode | Program.verify | Program.compile;
+	static final int modes[] = {interpret, predecode, fuse, jit};
+
+	// programs of the benchmark corpus; they read no input
+	static final String corpus[] = {"fib", "list", "matrix", "queens", "sieve", "sort", "words"};
+
+	// Source text of the corpus program name
+	static String source(String name) throws IOException {
+		InputStream in = Programs.class.getResourceAsStream("/corpus/" + name + ".mj");
+		if (in == null) throw new FileNotFoundException("corpus/" + name + ".mj");
+		try {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} finally {
+			in.close();
+		}
+	}
+
+	// Object file of src; null if there were errors
+	static byte[] compile(String src) {
+		byte b[] = src.getBytes(StandardCharsets.UTF_8);
+		Scanner.init(b, b.length);
+		Parser.parse();
+		if (Parser.errors > 0) return null;
+		Code.optimize();
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		Code.write(obj);
+		return obj.toByteArray();
+	}
+
+	static Program load(String src, int options) throws IOException, FormatException {
+		byte obj[] = compile(src);
+		if (obj == null) throw new IllegalArgumentException("errors in test program");
+		return Program.read(new ByteArrayInputStream(obj), options, null);
+	}
+
+	// Output of a run of src; a VM error is appended as "-- error"
+	static String run(String src, int options, String input) throws IOException, FormatException {
+		Program prog = load(src, options);
+		if (prog.verifyError != null) throw new IllegalStateException(prog.verifyError);
+		return run(prog, input);
+	}
+
+	static String run(Program prog, String input) {
+		IO.Memory io = new IO.Memory(input);
+		Machine vm = new Machine(prog, io, Run.heapSize, Run.maxHeapSize);
+		vm.log = new PrintStream(new ByteArrayOutputStream());
+		vm.run();
+		return vm.error == null ? io.toString() : io + "-- " + vm.error.getMessage();
+	}
+}
@@ -0,0 +1,41 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+// The byte mode must scan UTF-8 sources as the character mode scans their text
+class ScannerTest {
+	@Test
+	void names() {
+		String src = "größe zähler xπ Café café_ naïve whilé ifé x² a٠b 'ä' ä été q中文";
+		assertEquals(KeywordTest.tokens(src, false), KeywordTest.tokens(src, true));
+		assertTrue(KeywordTest.tokens(src, true).contains("ident größe"));
+	}
+
+	// Compile in the character and in the byte mode; the object files are the same
+	@Test
+	void program() throws Exception {
+		String src = "program U\n	int größe;\n{\n" +
+			"	int zähle(int bis) int zähler, summe; {\n" +
+			"		zähler = 0; summe = 0;\n" +
+			"		while (zähler < bis) { zähler = zähler + 1; summe = summe + zähler; }\n" +
+			"		return summe;\n	}\n" +
+			"	void main() int xπ, whilé; {\n" +
+			"		read(größe); xπ = 3; whilé = zähle(größe) * xπ;\n" +
+			"		print(whilé); print(' '); print(ord('ä'));\n	}\n}\n";
+		byte obj[] = Programs.compile(src);
+		assertNotNull(obj);
+		Scanner.init(new StringReader(src));
+		Parser.parse();
+		assertEquals(0, Parser.errors);
+		Code.optimize();
+		ByteArrayOutputStream chars = new ByteArrayOutputStream();
+		Code.write(chars);
+		assertArrayEquals(obj, chars.toByteArray());
+		for (int mode: Programs.modes)
+			assertEquals("165 228", Programs.run(src, mode, "10"));
+	}
+}
@@ -0,0 +1,74 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import MJ.SymTab.*;
+
+// The hash index of large scopes must find what a walk of the list finds
+class ScopeTest {
+	// names with equal hash codes ("Aa" and "BB" collide, and so do their concatenations)
+	static final String collide[] = {"Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB"};
+
+	// Object with the given name in the list of s, newest first
+	static Obj walk(Scope s, String name) {
+		for (Obj obj = s.locals; obj != null; obj = obj.next) if (obj.name == name) return obj;
+		return null;
+	}
+
+	@Test
+	void index() {
+		Scope s = new Scope();
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			String name = (i < collide.length ? collide[i] : "v" + i).intern();
+			names.add(name);
+			s.add(new Obj(Obj.Var, name, Tab.noType));
+			if (i % 3 == 0) s.find("missing");	// makes the index once there are enough objects
+			if (i % 7 == 0) s.add(new Obj(Obj.Var, names.get(i / 2), Tab.noType));	// declared again
+			for (String n: names) assertSame(walk(s, n), s.find(n), n);
+		}
+		assertNull(s.find("v200"));
+		assertNull(s.find("AaAaAa".intern()));
+	}
+
+	// Globals, class fields and locals that outnumber the names of a small scope and
+	// shadow each other
+	static String program(int n) {
+		StringBuilder b = new StringBuilder("program P\n	int");
+		for (int i = 0; i < n; i++) b.append(" g").append(i).append(",");
+		b.append(" Aa, BB;\n	class C { int Aa, BB");
+		for (int i = 0; i < n; i++) b.append(", f").append(i);
+		b.append("; }\n	C c;\n{\n	int get(int k) int AaAa, BBBB");
+		for (int i = 0; i < n; i++) b.append(", l").append(i);
+		b.append(";\n	{\n		AaAa = k; BBBB = k * 2;\n");
+		for (int i = 0; i < n; i++) b.append("		l").append(i).append(" = g").append(i).append(" + c.f").append(i).append(";\n");
+		b.append("		return AaAa + BBBB + l").append(n - 1).append(" + c.Aa + c.BB + Aa + BB + g0;\n	}\n");
+		b.append("	void main() int Aa, g0; {\n		c = new C;\n");
+		for (int i = 1; i < n; i++) b.append("		g").append(i).append(" = ").append(i).append("; c.f").append(i).append(" = ").append(3 * i).append(";\n");
+		b.append("		c.Aa = 1; c.BB = 2; Aa = 100; g0 = 1000; BB = 10000;\n");
+		b.append("		print(get(5) + Aa + g0);\n	}\n}\n");
+		return b.toString();
+	}
+
+	@Test
+	void shadowing() throws Exception {
+		for (int n: new int[] {2, 20, 100}) {
+			// get: k + 2k + l(n-1) + c.Aa + c.BB + Aa + BB + g0 with the globals Aa and g0 at 0;
+			// main adds its own Aa and g0
+			int expected = 5 + 10 + 4 * (n - 1) + 1 + 2 + 0 + 10000 + 0 + 100 + 1000;
+			String src = program(n);
+			for (int mode: Programs.modes)
+				assertEquals("" + expected, Programs.run(src, mode, ""), "n = " + n);
+		}
+	}
+
+	// A name declared twice is found through the index as well
+	@Test
+	void declaredTwice() {
+		assertNotNull(Programs.compile(program(20)));
+		assertNull(Programs.compile(program(20).replace(" g19,", " g19, g3,")));
+		assertNull(Programs.compile(program(20).replace(", f19", ", f19, BB")));
+		assertNull(Programs.compile(program(20).replace(", l19", ", l19, AaAa")));
+	}
+}
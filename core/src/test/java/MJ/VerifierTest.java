@@ -0,0 +1,115 @@
+package MJ;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import MJ.CodeGen.*;
+
+class VerifierTest {
+	// main with an expression of the given depth in a branch that is not taken
+	static String deep(int depth) {
+		String e = "x";
+		for (int i = 0; i < depth; i++) e = "(x + " + e + ")";
+		return "program D\n{\n	void main() int x; {\n		x = 0;\n		print(1);\n" +
+			"		if (x == 1) print(" + e + ");\n		print(2);\n	}\n}\n";
+	}
+
+	@Test
+	void deepExpressionNotTaken() throws Exception {
+		String src = deep(Run.eStackSize + 5);
+		String expected = Programs.run(src, Programs.interpret, "");
+		assertEquals("12", expected);
+		for (int mode: new int[] {Programs.predecode, Programs.fuse, Programs.jit}) {
+			Program prog = Programs.load(src, mode);
+			assertNotNull(prog.verifyError);
+			assertEquals(expected, Programs.run(prog, ""));
+		}
+	}
+
+	@Test
+	void deepExpressionThatFits() throws Exception {
+		String src = deep(Run.eStackSize - 5);
+		assertNull(Programs.load(src, Programs.predecode).verifyError);
+		assertEquals("12", Programs.run(src, Programs.predecode, ""));
+	}
+
+	// The compiler's code passes and runs unchecked with the output of the interpreter
+	@Test
+	void corpusPasses() throws Exception {
+		for (String name: Programs.corpus) {
+			String src = Programs.source(name);
+			String expected = Programs.run(src, Programs.interpret, "");
+			for (int mode: Programs.modes) {
+				assertNull(Programs.load(src, mode | Program.verify).verifyError, name);
+				assertEquals(expected, Programs.run(src, mode, ""), name);
+			}
+		}
+	}
+
+	// Run the code built by hand without and with verification. The verifier must
+	// reject it with error, and the checked run then has the output of the interpreter.
+	static void rejected(String error, String expected, int dataSize, int start, int... code) throws Exception {
+		byte b[] = new byte[code.length];
+		for (int i = 0; i < code.length; i++) b[i] = (byte)code[i];
+		assertEquals(expected, Programs.run(new Program(b, dataSize, start, Programs.interpret, null), ""));
+		for (int mode: new int[] {Programs.predecode, Programs.fuse, Programs.jit}) {
+			Program prog = new Program(b, dataSize, start, mode, null);
+			assertNotNull(prog.verifyError, error);
+			assertTrue(prog.verifyError.contains(error), prog.verifyError);
+			assertEquals(expected, Programs.run(prog, ""));
+		}
+	}
+
+	@Test
+	void noEnter() throws Exception {
+		rejected("does not start with enter", "3",
+			0, 0, Code.const3, Code.const0, Code.print, Code.return_);
+	}
+
+	@Test
+	void mainWithParameters() throws Exception {
+		rejected("must not have parameters", "-- expression stack underflow",
+			0, 0, Code.enter, 1, 1, Code.exit, Code.return_);
+	}
+
+	// The branch to 9 is not taken, but the verifier follows every path
+	@Test
+	void heightsDiffer() throws Exception {
+		rejected("stack heights differ", "",
+			0, 0, Code.enter, 0, 0, Code.const1, Code.const0, Code.jeq, 0, 9, Code.const2, Code.pop, Code.exit, Code.return_);
+	}
+
+	@Test
+	void jumpIntoInstruction() throws Exception {
+		rejected("jump into an instruction", "7",
+			0, 0, Code.enter, 0, 0, Code.const1, Code.const0, Code.jeq, 0, 7, Code.const_, 0, 0, 0, 7, Code.const0, Code.print, Code.exit, Code.return_);
+	}
+
+	@Test
+	void underflow() throws Exception {
+		rejected("underflow", "1",
+			0, 0, Code.enter, 0, 0, Code.const1, Code.const0, Code.jeq, 0, 13, Code.const1, Code.const0, Code.print, Code.exit, Code.return_,
+			Code.pop, Code.exit, Code.return_);
+	}
+
+	// f returns one result on the path taken and none on the other
+	@Test
+	void differentResults() throws Exception {
+		rejected("different numbers of results", "5",
+			0, 13, Code.enter, 0, 0, Code.const1, Code.const0, Code.jeq, 0, 11, Code.const5, Code.exit, Code.return_, Code.exit, Code.return_,
+			Code.enter, 0, 0, Code.call, 0, 0, Code.const0, Code.print, Code.exit, Code.return_);
+	}
+
+	@Test
+	void invalidAddresses() throws Exception {
+		rejected("invalid local address", "",
+			0, 0, Code.enter, 0, 1, Code.const1, Code.const0, Code.jeq, 0, 10, Code.exit, Code.return_, Code.load, 1, Code.pop, Code.exit, Code.return_);
+		rejected("invalid global address", "",
+			1, 0, Code.enter, 0, 1, Code.const1, Code.const0, Code.jeq, 0, 10, Code.exit, Code.return_, Code.getstatic, 0, 1, Code.pop, Code.exit, Code.return_);
+	}
+
+	@Test
+	void wrongOpcode() throws Exception {
+		rejected("wrong opcode", "",
+			0, 0, Code.enter, 0, 0, Code.const1, Code.const0, Code.jeq, 0, 10, Code.exit, Code.return_, 0, Code.exit, Code.return_);
+	}
+}
@@ -0,0 +1,56 @@
+package embed;
+
+import static org.junit.jupiter.api.Assertions.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import MJ.*;
+import MJ.CodeGen.Code;
+
+// Compiles and runs a program through the public API only, as code outside package MJ would
+class EmbedTest {
+	static final String sum =
+		"program Sum\n" +
+		"{\n" +
+		"	void main() int n, x, s; {\n" +
+		"		read(n); s = 0;\n" +
+		"		while (n > 0) { read(x); s = s + x; n = n - 1; }\n" +
+		"		print(s);\n" +
+		"	}\n" +
+		"}\n";
+
+	static Program load(int options) throws IOException, FormatException {
+		byte b[] = sum.getBytes(StandardCharsets.UTF_8);
+		Scanner.init(b, b.length);
+		Parser.parse();
+		assertEquals(0, Parser.errors);
+		Code.optimize();
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		Code.write(obj);
+		return Program.read(new ByteArrayInputStream(obj.toByteArray()), options, null);
+	}
+
+	@Test
+	void machine() throws Exception {
+		Program prog = load(Program.predecode | Program.verify);
+		assertNull(prog.verifyError);
+		IO.Memory io = new IO.Memory("3 1 2 3");
+		Machine vm = new Machine(prog, io, Run.heapSize, Run.maxHeapSize);
+		vm.run();
+		assertNull(vm.error);
+		assertEquals("6", io.toString());
+	}
+
+	@Test
+	void jobs() throws Exception {
+		Program prog = load(0);
+		Jobs jobs = new Jobs(2);
+		try {
+			Jobs.Result r = jobs.submit(prog, "2 20 22".getBytes()).get();
+			assertNull(r.error);
+			assertEquals("42", new String(r.output));
+		} finally {
+			jobs.shutdown();
+		}
+	}
+}